@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.compiler;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compile time counterpart of the runtime annotations parsing done by {@code retrovolley.request.RestCallInfo}.
+ * Reports the same validation errors, but as compilation errors on the offending constant.
+ *
+ * @author Serghei Lotutovici
+ */
+final class RestCallParser {
+
+    private static final String ANNOTATION_PACKAGE = "retrovolley.annotation.";
+    private static final String REST_METHOD = ANNOTATION_PACKAGE + "RestMethod";
+    private static final String HATEOAS = ANNOTATION_PACKAGE + "Hateoas";
+    private static final String DYNAMIC = ANNOTATION_PACKAGE + "Dynamic";
+    private static final String RESPONSE = ANNOTATION_PACKAGE + "Response";
+    private static final String ENDPOINT = ANNOTATION_PACKAGE + "Endpoint";
+    private static final String MAX_RETRY_NUMBER = ANNOTATION_PACKAGE + "MaxRetryNumber";
+    private static final String JSON_POINTER = ANNOTATION_PACKAGE + "JsonPointer";
+    private static final String CACHE_TTL = ANNOTATION_PACKAGE + "CacheTtl";
+
+    /**
+     * Upper and lower characters, digits, underscores, and hyphens, starting with a character
+     */
+    private static final String PARAM = "[a-zA-Z][a-zA-Z0-9_-]*";
+
+    /**
+     * Parameter value validator
+     */
+    private static final Pattern PARAM_URL_REGEX = Pattern.compile("\\{(" + PARAM + ")\\}");
+
+    /**
+     * A JSON pointer, '~' may only be used as "~0" or "~1"
+     */
+    private static final Pattern JSON_POINTER_REGEX = Pattern.compile("(/([^~/]|~[01])*)*");
+
+    private final ProcessingEnvironment mEnv;
+
+    RestCallParser(ProcessingEnvironment env) {
+        mEnv = env;
+    }
+
+    /**
+     * Parse the annotations of a single enum constant
+     *
+     * @param constant The enum constant element
+     * @return The parsed model, or null if an error was reported
+     */
+    RestCallModel parse(Element constant) {
+        RestCallModel model = new RestCallModel(constant.getSimpleName().toString());
+
+        for (AnnotationMirror annotation : constant.getAnnotationMirrors()) {
+            TypeElement annotationType = (TypeElement) annotation.getAnnotationType().asElement();
+            String annotationName = annotationType.getQualifiedName().toString();
+            String restMethod = null;
+
+            /* Check if the the restCall contains a hateoas annotation */
+            if (HATEOAS.equals(annotationName)) {
+                model.hateoas = true;
+            }
+
+            /* Check if the restCall contains a dynamic annotation */
+            if (DYNAMIC.equals(annotationName)) {
+                model.dynamic = true;
+                model.method = enumConstantName(getValue(annotation, "value"));
+            }
+
+            /* Check if we need to get a rest method object */
+            if (!model.hateoas && !model.dynamic) {
+                for (AnnotationMirror inner : annotationType.getAnnotationMirrors()) {
+                    if (REST_METHOD.equals(qualifiedName(inner))) {
+                        restMethod = enumConstantName(getValue(inner, "method"));
+                        break;
+                    }
+                }
+            }
+
+            if (restMethod != null) {
+                /* If the path is set then we already have parsed a similar annotation */
+                if (model.path != null) {
+                    return error(constant, "Only one RestMethod annotation allowed: " + model.name);
+                }
+                model.method = restMethod;
+
+                Object path = getValue(annotation, "value");
+                if (!(path instanceof String)) {
+                    return error(constant, String.format(
+                            "Failed to extract String 'value' from @%s annotation.",
+                            annotationType.getSimpleName()));
+                }
+
+                /* Throw exception if the path is not parcelable */
+                String pathValue = (String) path;
+                if (pathValue.length() == 0 || pathValue.charAt(0) != '/') {
+                    return error(constant, "The path must not be null, ether empty and start with '/'");
+                }
+
+                model.path = pathValue;
+                model.restParams = parsePathParameters(pathValue);
+
+            } else if (RESPONSE.equals(annotationName)) {
+                model.responseType = (TypeMirror) getValue(annotation, "value");
+
+            } else if (ENDPOINT.equals(annotationName)) {
+                model.endpointName = (String) getValue(annotation, "value");
+
+            } else if (MAX_RETRY_NUMBER.equals(annotationName)) {
+                model.maxNumRetries = (Integer) getValue(annotation, "value");
+
+            } else if (JSON_POINTER.equals(annotationName)) {
+                String pointer = (String) getValue(annotation, "value");
+                if (pointer.length() > 0 && pointer.charAt(0) != '/') {
+                    return error(constant, "The JSON pointer must be empty or start with '/': " + pointer);
+                }
+                if (!JSON_POINTER_REGEX.matcher(pointer).matches()) {
+                    return error(constant, "Invalid escape sequence in JSON pointer: " + pointer);
+                }
+                model.jsonPointer = pointer;
+
+            } else if (CACHE_TTL.equals(annotationName)) {
+                model.softTtl = (Long) getValue(annotation, "soft");
+                model.hardTtl = (Long) getValue(annotation, "hard");
+                if (model.softTtl < 0) {
+                    return error(constant, "The soft TTL must not be negative: " + model.name);
+                }
+            }
+        }
+
+        if (model.method == null) {
+            model.method = "GET";
+        }
+
+        return model;
+    }
+
+    private RestCallModel error(Element element, String message) {
+        mEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+        return null;
+    }
+
+    /**
+     * Get an annotation member value, falling back to its default value
+     */
+    private Object getValue(AnnotationMirror annotation, String name) {
+        Map<? extends ExecutableElement, ? extends AnnotationValue> values =
+                mEnv.getElementUtils().getElementValuesWithDefaults(annotation);
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : values.entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) {
+                return entry.getValue().getValue();
+            }
+        }
+        return null;
+    }
+
+    private static String qualifiedName(AnnotationMirror annotation) {
+        return ((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().toString();
+    }
+
+    private static String enumConstantName(Object value) {
+        return ((VariableElement) value).getSimpleName().toString();
+    }
+
+    /**
+     * Gets the set of unique path parameters used in the given URI. If a parameter is used twice
+     * in the URI, it will only show up once in the set.
+     */
+    private static Set<String> parsePathParameters(String path) {
+        Matcher matcher = PARAM_URL_REGEX.matcher(path);
+        Set<String> patterns = new LinkedHashSet<String>();
+
+        while (matcher.find()) {
+            patterns.add(matcher.group(1));
+        }
+
+        return patterns;
+    }
+
+    /**
+     * Parsed values of a single rest call constant
+     */
+    static final class RestCallModel {
+
+        final String name;
+        String method;
+        String path;
+        Set<String> restParams;
+        String endpointName;
+        TypeMirror responseType;
+        boolean hateoas;
+        boolean dynamic;
+        int maxNumRetries = -1;
+        String jsonPointer;
+        long softTtl = -1;
+        long hardTtl = -1;
+
+        RestCallModel(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Append the table entry for this rest call
+         */
+        void brewJava(StringBuilder builder, Elements elements) {
+            builder.append("        add(");
+            builder.append(elements.getConstantExpression(name)).append(", ");
+            builder.append("retrovolley.request.RequestMethod.").append(method).append(".method, ");
+            builder.append(path != null ? elements.getConstantExpression(path) : "null").append(", ");
+            builder.append("new String[]{");
+            if (restParams != null) {
+                boolean first = true;
+                for (String param : restParams) {
+                    if (!first) {
+                        builder.append(", ");
+                    }
+                    builder.append(elements.getConstantExpression(param));
+                    first = false;
+                }
+            }
+            builder.append("}, ");
+            builder.append(endpointName != null ? elements.getConstantExpression(endpointName) : "null").append(", ");
+            builder.append(responseType != null ? responseType.toString() : "java.lang.String").append(".class, ");
+            builder.append(hateoas).append(", ");
+            builder.append(dynamic).append(", ");
+            builder.append(maxNumRetries).append(", ");
+            builder.append(jsonPointer != null ? elements.getConstantExpression(jsonPointer) : "null").append(", ");
+            builder.append(softTtl).append("L, ");
+            builder.append(hardTtl).append('L');
+            builder.append(");\n");
+        }
+    }
+}
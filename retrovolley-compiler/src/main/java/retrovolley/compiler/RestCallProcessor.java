@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.compiler;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Generates a {@code retrovolley.request.RestCallTable} for every enum implementing
+ * {@code retrovolley.rest.RestCall}, so RetroVolley doesn't have to parse the rest call
+ * annotations at runtime. Misconfigured rest calls are reported as compilation errors.
+ * <br>
+ * The generated class is placed in the enum's package and named after its binary name,
+ * e.g. {@code GitHubCalls$$RestCalls} or {@code Api$Calls$$RestCalls} for nested enums.
+ *
+ * @author Serghei Lotutovici
+ */
+@SupportedAnnotationTypes("*")
+public final class RestCallProcessor extends AbstractProcessor {
+
+    static final String REST_CALL = "retrovolley.rest.RestCall";
+    static final String TABLE = "retrovolley.request.RestCallTable";
+    static final String SUFFIX = "$$RestCalls";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement restCall = processingEnv.getElementUtils().getTypeElement(REST_CALL);
+
+        /* Nothing to do if RetroVolley is not on the classpath */
+        if (restCall == null) {
+            return false;
+        }
+
+        for (Element element : roundEnv.getRootElements()) {
+            scan(element, restCall.asType());
+        }
+
+        /* Never claim the annotations, other processors may need them */
+        return false;
+    }
+
+    /**
+     * Find all RestCall enums declared in the element, including nested ones
+     */
+    private void scan(Element element, TypeMirror restCall) {
+        if (element.getKind() == ElementKind.ENUM
+                && processingEnv.getTypeUtils().isAssignable(element.asType(), restCall)) {
+            generate((TypeElement) element);
+        }
+
+        for (Element enclosed : element.getEnclosedElements()) {
+            if (enclosed.getKind().isClass() || enclosed.getKind().isInterface()) {
+                scan(enclosed, restCall);
+            }
+        }
+    }
+
+    /**
+     * Parse all constants of the enum and write the table source
+     */
+    private void generate(TypeElement enumType) {
+        RestCallParser parser = new RestCallParser(processingEnv);
+
+        List<RestCallParser.RestCallModel> models = new ArrayList<RestCallParser.RestCallModel>();
+        boolean valid = true;
+        for (Element enclosed : enumType.getEnclosedElements()) {
+            if (enclosed.getKind() == ElementKind.ENUM_CONSTANT) {
+                RestCallParser.RestCallModel model = parser.parse(enclosed);
+                if (model == null) {
+                    valid = false;
+                } else {
+                    models.add(model);
+                }
+            }
+        }
+
+        /* Errors are already reported, there is no point in generating broken code */
+        if (!valid) {
+            return;
+        }
+
+        String packageName = processingEnv.getElementUtils().getPackageOf(enumType).getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(enumType).toString();
+        String className = (packageName.length() > 0
+                ? binaryName.substring(packageName.length() + 1)
+                : binaryName) + SUFFIX;
+
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(
+                    packageName.length() > 0 ? packageName + "." + className : className, enumType);
+            Writer writer = file.openWriter();
+            try {
+                writer.write(brewJava(packageName, className, enumType, models));
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Unable to write rest call table for " + enumType + ": " + e.getMessage(), enumType);
+        }
+    }
+
+    /**
+     * Build the source of the generated table
+     */
+    private String brewJava(String packageName, String className, TypeElement enumType,
+                            List<RestCallParser.RestCallModel> models) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("// Generated code from RetroVolley. Do not modify!\n");
+        if (packageName.length() > 0) {
+            builder.append("package ").append(packageName).append(";\n\n");
+        }
+        builder.append("/**\n");
+        builder.append(" * Rest call table for {@link ").append(enumType.getQualifiedName()).append("}\n");
+        builder.append(" */\n");
+        builder.append("public final class ").append(className).append(" extends ").append(TABLE).append(" {\n\n");
+        builder.append("    public ").append(className).append("() {\n");
+        for (RestCallParser.RestCallModel model : models) {
+            model.brewJava(builder, processingEnv.getElementUtils());
+        }
+        builder.append("    }\n");
+        builder.append("}\n");
+        return builder.toString();
+    }
+}
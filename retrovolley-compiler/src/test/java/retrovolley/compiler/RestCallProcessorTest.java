@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.compiler;
+
+import com.google.testing.compile.JavaFileObjects;
+
+import org.junit.Test;
+
+import javax.tools.JavaFileObject;
+
+import retrovolley.annotation.CacheTtl;
+import retrovolley.annotation.GET;
+import retrovolley.annotation.JsonPointer;
+import retrovolley.annotation.POST;
+import retrovolley.request.RestCallRegistry;
+import retrovolley.rest.RestCall;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.testing.compile.JavaSourceSubjectFactory.javaSource;
+
+/**
+ * Checks that the processor reports the same errors as the runtime parser, for rest calls
+ * declared the same way in a source file and in this class.
+ *
+ * @author Serghei Lotutovici
+ */
+public class RestCallProcessorTest {
+
+    enum TwoMethods implements RestCall {
+        @GET("/first")
+        @POST("/second")
+        CALL
+    }
+
+    enum RelativePath implements RestCall {
+        @GET("users")
+        CALL
+    }
+
+    enum NegativeTtl implements RestCall {
+        @GET("/feed")
+        @CacheTtl(soft = -1)
+        CALL
+    }
+
+    enum RelativePointer implements RestCall {
+        @GET("/feed")
+        @JsonPointer("data")
+        CALL
+    }
+
+    enum InvalidEscape implements RestCall {
+        @GET("/feed")
+        @JsonPointer("/a~2")
+        CALL
+    }
+
+    @Test
+    public void testTwoMethods() {
+        assertSameError(TwoMethods.class, "@GET(\"/first\") @POST(\"/second\")");
+    }
+
+    @Test
+    public void testRelativePath() {
+        assertSameError(RelativePath.class, "@GET(\"users\")");
+    }
+
+    @Test
+    public void testNegativeTtl() {
+        assertSameError(NegativeTtl.class, "@GET(\"/feed\") @CacheTtl(soft = -1)");
+    }
+
+    @Test
+    public void testRelativeJsonPointer() {
+        assertSameError(RelativePointer.class, "@GET(\"/feed\") @JsonPointer(\"data\")");
+    }
+
+    @Test
+    public void testInvalidJsonPointerEscape() {
+        assertSameError(InvalidEscape.class, "@GET(\"/feed\") @JsonPointer(\"/a~2\")");
+    }
+
+    @Test
+    public void testTableGenerated() {
+        JavaFileObject calls = JavaFileObjects.forSourceString("test.Calls", ""
+                + "package test;\n"
+                + "\n"
+                + "import retrovolley.annotation.*;\n"
+                + "import retrovolley.rest.RestCall;\n"
+                + "\n"
+                + "enum Calls implements RestCall {\n"
+                + "    @GET(\"/users/{user}/repos/{repo}\") @Endpoint(\"api\") @Response(Integer.class) REPO,\n"
+                + "    @POST(\"/users\") @MaxRetryNumber(2) USERS,\n"
+                + "    @GET(\"/feed\") @JsonPointer(\"/data\") @CacheTtl(soft = 60000, hard = 600000) FEED\n"
+                + "}\n");
+        JavaFileObject table = JavaFileObjects.forSourceString("test.Calls$$RestCalls", ""
+                + "package test;\n"
+                + "\n"
+                + "public final class Calls$$RestCalls extends retrovolley.request.RestCallTable {\n"
+                + "\n"
+                + "    public Calls$$RestCalls() {\n"
+                + "        add(\"REPO\", retrovolley.request.RequestMethod.GET.method, \"/users/{user}/repos/{repo}\",\n"
+                + "                new String[]{\"user\", \"repo\"}, \"api\", java.lang.Integer.class, false, false, -1,\n"
+                + "                null, -1L, -1L);\n"
+                + "        add(\"USERS\", retrovolley.request.RequestMethod.POST.method, \"/users\", new String[]{},\n"
+                + "                null, java.lang.String.class, false, false, 2, null, -1L, -1L);\n"
+                + "        add(\"FEED\", retrovolley.request.RequestMethod.GET.method, \"/feed\", new String[]{},\n"
+                + "                null, java.lang.String.class, false, false, -1, \"/data\", 60000L, 600000L);\n"
+                + "    }\n"
+                + "}\n");
+
+        assertAbout(javaSource())
+                .that(calls)
+                .processedWith(new RestCallProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(table);
+    }
+
+    /**
+     * Compile a single constant enum with the given annotations, and expect the error
+     * the runtime parser throws for the same declaration
+     */
+    private static void assertSameError(Class<? extends RestCall> restCallClass, String annotations) {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Calls", ""
+                + "package test;\n"
+                + "\n"
+                + "import retrovolley.annotation.*;\n"
+                + "import retrovolley.rest.RestCall;\n"
+                + "\n"
+                + "enum Calls implements RestCall {\n"
+                + "    " + annotations + " CALL\n"
+                + "}\n");
+
+        assertAbout(javaSource())
+                .that(source)
+                .processedWith(new RestCallProcessor())
+                .failsToCompile()
+                .withErrorContaining(runtimeError(restCallClass));
+    }
+
+    private static String runtimeError(Class<? extends RestCall> restCallClass) {
+        try {
+            RestCallRegistry.preload(restCallClass);
+        } catch (IllegalArgumentException iae) {
+            return iae.getMessage();
+        }
+        throw new AssertionError("The runtime parser accepted " + restCallClass.getName());
+    }
+}
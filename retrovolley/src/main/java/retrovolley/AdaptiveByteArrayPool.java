@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ * Copyright (C) 2015 Konstantin Tarasenko
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley;
+
+import com.android.volley.toolbox.ByteArrayPool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A {@link ByteArrayPool} that keeps track of how well it recycles buffers, and optionally grows
+ * its size limit when returned buffers don't fit, up to a maximum size limit.
+ * <br>
+ * The pool starts at the initial size limit. Whenever a returned buffer would have to be dropped
+ * or would push older buffers out, the limit is doubled (or raised to what's needed, if that's
+ * more) without going over the maximum. Once the maximum is reached the pool behaves like
+ * a plain {@link ByteArrayPool}.
+ * <br>
+ * Buffer selection and trimming are the same as in {@link ByteArrayPool}, whose state
+ * is private, so they are reimplemented here.
+ *
+ * @author Konstantin Tarasenko
+ */
+public final class AdaptiveByteArrayPool extends ByteArrayPool {
+
+    /**
+     * The buffers, in the order they were last used, the least recently used one first
+     */
+    private final List<byte[]> mBuffersByLastUse = new LinkedList<byte[]>();
+
+    /**
+     * The same buffers sorted by size, the smallest one first
+     */
+    private final List<byte[]> mBuffersBySize = new ArrayList<byte[]>(64);
+
+    /**
+     * The summed up size of all pooled buffers
+     */
+    private int mCurrentSize;
+
+    /**
+     * The current size limit, the pool trims the least recently used buffers to stay below it
+     */
+    private int mSizeLimit;
+
+    /**
+     * The size limit the pool never grows beyond
+     */
+    private final int mMaxSizeLimit;
+
+    private long mHits;
+    private long mMisses;
+    private long mRecycledBytes;
+    private long mDroppedBytes;
+
+    /**
+     * Create a pool of a fixed size
+     *
+     * @param sizeLimit The maximum summed up size of the pooled buffers
+     */
+    public AdaptiveByteArrayPool(int sizeLimit) {
+        this(sizeLimit, sizeLimit);
+    }
+
+    /**
+     * Create a pool growing with the size of the returned buffers
+     *
+     * @param initialSizeLimit The size limit to start with
+     * @param maxSizeLimit     The size limit the pool never grows beyond
+     * @throws java.lang.IllegalArgumentException If the maximum is lower than the initial limit
+     */
+    public AdaptiveByteArrayPool(int initialSizeLimit, int maxSizeLimit) {
+        super(initialSizeLimit);
+        if (initialSizeLimit < 0 || maxSizeLimit < initialSizeLimit) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid pool size limits: %d, %d", initialSizeLimit, maxSizeLimit));
+        }
+        mSizeLimit = initialSizeLimit;
+        mMaxSizeLimit = maxSizeLimit;
+    }
+
+    @Override
+    public synchronized byte[] getBuf(int len) {
+        for (int i = 0; i < mBuffersBySize.size(); i++) {
+            byte[] buf = mBuffersBySize.get(i);
+            if (buf.length >= len) {
+                mCurrentSize -= buf.length;
+                mBuffersBySize.remove(i);
+                mBuffersByLastUse.remove(buf);
+                mHits++;
+                mRecycledBytes += buf.length;
+                return buf;
+            }
+        }
+        mMisses++;
+        return new byte[len];
+    }
+
+    @Override
+    public synchronized void returnBuf(byte[] buf) {
+        if (buf == null) {
+            return;
+        }
+
+        /* Make room for the buffer if the pool is allowed to grow */
+        if (mCurrentSize + buf.length > mSizeLimit && mSizeLimit < mMaxSizeLimit) {
+            mSizeLimit = (int) Math.min(mMaxSizeLimit,
+                    Math.max(2L * mSizeLimit, (long) mCurrentSize + buf.length));
+        }
+
+        if (buf.length > mSizeLimit) {
+            mDroppedBytes += buf.length;
+            return;
+        }
+
+        mBuffersByLastUse.add(buf);
+        int pos = Collections.binarySearch(mBuffersBySize, buf, BUF_COMPARATOR);
+        if (pos < 0) {
+            pos = -pos - 1;
+        }
+        mBuffersBySize.add(pos, buf);
+        mCurrentSize += buf.length;
+        trim();
+    }
+
+    /**
+     * Remove buffers from the pool until it is under its size limit
+     */
+    private void trim() {
+        while (mCurrentSize > mSizeLimit) {
+            byte[] buf = mBuffersByLastUse.remove(0);
+            mBuffersBySize.remove(buf);
+            mCurrentSize -= buf.length;
+            mDroppedBytes += buf.length;
+        }
+    }
+
+    /**
+     * @return The number of requested buffers served from the pool
+     */
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    /**
+     * @return The number of requested buffers that had to be allocated
+     */
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    /**
+     * @return The summed up size of the buffers served from the pool
+     */
+    public synchronized long getRecycledBytes() {
+        return mRecycledBytes;
+    }
+
+    /**
+     * @return The summed up size of the returned buffers that didn't fit, or were trimmed later
+     */
+    public synchronized long getDroppedBytes() {
+        return mDroppedBytes;
+    }
+
+    /**
+     * @return The summed up size of the buffers currently in the pool
+     */
+    public synchronized int getCurrentSize() {
+        return mCurrentSize;
+    }
+
+    /**
+     * @return The current size limit
+     */
+    public synchronized int getSizeLimit() {
+        return mSizeLimit;
+    }
+
+    /**
+     * @return The size limit the pool never grows beyond
+     */
+    public int getMaxSizeLimit() {
+        return mMaxSizeLimit;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AdaptiveByteArrayPool{hits=" + mHits
+                + ", misses=" + mMisses
+                + ", recycledBytes=" + mRecycledBytes
+                + ", droppedBytes=" + mDroppedBytes
+                + ", size=" + mCurrentSize + "/" + mSizeLimit + "/" + mMaxSizeLimit + "}";
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley;
+
+import com.android.volley.Cache;
+import com.android.volley.NetworkResponse;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import retrovolley.request.PojoRequest;
+
+/**
+ * A request queue completing requests through callbacks, so a request in flight doesn't hold
+ * a thread. The cache lookup, the response reading and parsing run as short tasks on a small
+ * executor, the transport runs on the endpoint's {@link retrovolley.httpstack.AsyncRetroStack}.
+ * At most {@code maxConcurrentRequests} requests are sent at the same time, the others wait
+ * in a queue without holding a thread.
+ * <br>
+ * Requests to endpoints without an async stack, and downloads, block an executor thread
+ * for their whole round trip, like on {@link ExecutorRequestQueue}.
+ *
+ * @author Konstantin Tarasenko
+ */
+class AsyncRequestQueue extends ExecutorRequestQueue {
+
+    private final RetroVolleyNetwork mNetwork;
+    private final Executor mExecutor;
+
+    /**
+     * Requests waiting for a permit, guarded by itself
+     */
+    private final Queue<PojoRequest<?>> mWaiting = new LinkedList<PojoRequest<?>>();
+
+    /**
+     * Number of requests that can still be sent, guarded by {@link #mWaiting}
+     */
+    private int mAvailablePermits;
+
+    /**
+     * @param cache                 Cache Implementation
+     * @param network               Network to perform the requests on
+     * @param executor              The executor running everything but the transport
+     * @param maxConcurrentRequests Maximum number of requests in flight at the same time
+     */
+    AsyncRequestQueue(Cache cache, RetroVolleyNetwork network, Executor executor, int maxConcurrentRequests) {
+        super(cache, network, executor, maxConcurrentRequests);
+        mNetwork = network;
+        mExecutor = executor;
+        mAvailablePermits = maxConcurrentRequests;
+    }
+
+    @Override
+    void dispatch(PojoRequest<?> request) {
+        try {
+            awaitCacheInitialized();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            done(request);
+            return;
+        }
+
+        if (!lookUpCache(request)) {
+            done(request);
+            return;
+        }
+
+        synchronized (mWaiting) {
+            if (mAvailablePermits == 0) {
+                mWaiting.add(request);
+                return;
+            }
+            mAvailablePermits--;
+        }
+        perform(request);
+    }
+
+    /**
+     * Send a request holding a permit
+     */
+    private void perform(final PojoRequest<?> request) {
+        /* Could have been canceled while waiting for the permit */
+        if (request.isCanceled()) {
+            request.addMarker("network-discard-cancelled");
+            finish(request);
+            return;
+        }
+
+        mNetwork.performRequest(request, mExecutor, new RetroVolleyNetwork.Callback() {
+            @Override
+            public void onResponse(NetworkResponse response) {
+                try {
+                    onNetworkResponse(request, response);
+                } finally {
+                    finish(request);
+                }
+            }
+
+            @Override
+            public void onError(Exception error) {
+                try {
+                    onNetworkError(request, error);
+                } finally {
+                    finish(request);
+                }
+            }
+        });
+    }
+
+    /**
+     * Hand the permit of a done request to the next waiting one
+     */
+    private void finish(PojoRequest<?> request) {
+        done(request);
+
+        final PojoRequest<?> next;
+        synchronized (mWaiting) {
+            next = mWaiting.poll();
+            if (next == null) {
+                mAvailablePermits++;
+                return;
+            }
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                perform(next);
+            }
+        });
+    }
+}
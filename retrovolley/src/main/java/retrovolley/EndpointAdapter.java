@@ -16,10 +16,19 @@
  */
 package retrovolley;
 
+import retrovolley.cache.CacheKeyStrategy;
+import retrovolley.cache.CanonicalCacheKeyStrategy;
+import retrovolley.cache.ObjectCache;
 import retrovolley.converter.Converter;
+import retrovolley.converter.ConverterAdapter;
 import retrovolley.converter.GsonConverter;
+import retrovolley.converter.IncrementalConverter;
+import retrovolley.converter.ProjectingConverter;
+import retrovolley.converter.StreamingConverter;
+import retrovolley.httpstack.AsyncRetroStack;
 import retrovolley.httpstack.RetroHurlStack;
 import retrovolley.httpstack.RetroStack;
+import retrovolley.mime.DictionaryCodec;
 
 /**
  * An interface that describes the basic endpoint object parameters
@@ -35,17 +44,39 @@ public final class EndpointAdapter {
 
     final String endpoint;
     final RetroStack httpStack;
+    final AsyncRetroStack asyncStack;
     final Converter converter;
+    final StreamingConverter streamingConverter;
     final RequestInterceptor requestInterceptor;
     final AuthStrategy authStrategy;
+    final boolean coalesceRequests;
+    final int requestCompressionThreshold;
+    final DictionaryCodec dictionaryCodec;
+    final CacheKeyStrategy cacheKeyStrategy;
+    final ObjectCache objectCache;
 
-    private EndpointAdapter(String endpoint, RetroStack httpStack, Converter converter,
-                            RequestInterceptor requestInterceptor, AuthStrategy authStrategy) {
+    /**
+     * Set once the server answered a compressed request body with 415 Unsupported Media Type
+     */
+    private volatile boolean requestCompressionRejected;
+
+    private EndpointAdapter(String endpoint, RetroStack httpStack, AsyncRetroStack asyncStack, Converter converter,
+                            RequestInterceptor requestInterceptor, AuthStrategy authStrategy,
+                            boolean coalesceRequests, int requestCompressionThreshold,
+                            DictionaryCodec dictionaryCodec, CacheKeyStrategy cacheKeyStrategy,
+                            ObjectCache objectCache) {
         this.endpoint = endpoint;
         this.httpStack = httpStack;
+        this.asyncStack = asyncStack;
         this.converter = converter;
+        this.streamingConverter = ConverterAdapter.adapt(converter);
         this.requestInterceptor = requestInterceptor;
         this.authStrategy = authStrategy;
+        this.coalesceRequests = coalesceRequests;
+        this.requestCompressionThreshold = requestCompressionThreshold;
+        this.dictionaryCodec = dictionaryCodec;
+        this.cacheKeyStrategy = cacheKeyStrategy;
+        this.objectCache = objectCache;
     }
 
     /**
@@ -69,6 +100,13 @@ public final class EndpointAdapter {
         return httpStack;
     }
 
+    /**
+     * @return Non-blocking transport layer for the endpoint, null if not set
+     */
+    public AsyncRetroStack getAsyncStack() {
+        return asyncStack;
+    }
+
 
     /**
      * @return Auth strategy related to current endpoint
@@ -85,13 +123,93 @@ public final class EndpointAdapter {
         return converter;
     }
 
+    /**
+     * @return Response converter used for this endpoint, able to read the response bytes directly
+     */
+    public StreamingConverter getStreamingConverter() {
+        return streamingConverter;
+    }
+
+    /**
+     * @return Response converter used for this endpoint, able to parse list elements one by one,
+     * or null if the converter can't
+     */
+    public IncrementalConverter getIncrementalConverter() {
+        return converter instanceof IncrementalConverter ? (IncrementalConverter) converter : null;
+    }
+
+    /**
+     * @return Response converter used for this endpoint, able to parse only a part of the response,
+     * or null if the converter can't
+     */
+    public ProjectingConverter getProjectingConverter() {
+        return converter instanceof ProjectingConverter ? (ProjectingConverter) converter : null;
+    }
+
+    /**
+     * @return True if identical GET requests to this endpoint, executed while one of them
+     * is in flight, share a single response
+     */
+    public boolean isCoalescingRequests() {
+        return coalesceRequests;
+    }
+
+    /**
+     * Check if a request body should be compressed before it's sent to this endpoint.
+     * Bodies are compressed with the dictionary codec if there is one, otherwise with gzip.
+     *
+     * @param length The uncompressed body length
+     * @return True if the body should be compressed
+     */
+    public boolean shouldCompressRequestBody(long length) {
+        if (requestCompressionRejected) {
+            return false;
+        }
+        return dictionaryCodec != null
+                || (requestCompressionThreshold >= 0 && length >= requestCompressionThreshold);
+    }
+
+    /**
+     * @return The codec used for request and response bodies, null if not set
+     */
+    public DictionaryCodec getDictionaryCodec() {
+        return dictionaryCodec;
+    }
+
+    /**
+     * @return The strategy mapping requests to their cache keys
+     */
+    public CacheKeyStrategy getCacheKeyStrategy() {
+        return cacheKeyStrategy;
+    }
+
+    /**
+     * @return The cache of objects parsed from cached responses, null if not set
+     */
+    public ObjectCache getObjectCache() {
+        return objectCache;
+    }
+
+    /**
+     * Stop compressing request bodies, the server doesn't accept them
+     */
+    void disableRequestCompression() {
+        requestCompressionRejected = true;
+    }
+
     public static class Builder {
 
         String endpoint;
         RetroStack httpStack;
+        AsyncRetroStack asyncStack;
         Converter converter;
         RequestInterceptor requestInterceptor;
         AuthStrategy authStrategy;
+        boolean coalesceRequests;
+        int requestCompressionThreshold = -1;
+        DictionaryCodec dictionaryCodec;
+        CacheKeyStrategy cacheKeyStrategy;
+        ObjectCache objectCache;
 
         public Builder setEndpoint(String endpoint) {
             this.endpoint = endpoint;
@@ -103,6 +221,18 @@ public final class EndpointAdapter {
             return this;
         }
 
+        /**
+         * Perform the requests to this endpoint over a non-blocking stack, when RetroVolley was
+         * initialized with {@link RetroVolley#initAsync(com.android.volley.Cache, int, int)}.
+         * Downloads and authentication still use the {@link #setHttpStack(RetroStack) http stack}.
+         *
+         * @param asyncStack The stack to use, e.g. a {@link retrovolley.httpstack.NioRetroStack}, null to disable it
+         */
+        public Builder setAsyncStack(AsyncRetroStack asyncStack) {
+            this.asyncStack = asyncStack;
+            return this;
+        }
+
         public Builder setConverter(Converter converter) {
             this.converter = converter;
             return this;
@@ -118,6 +248,68 @@ public final class EndpointAdapter {
             return this;
         }
 
+        /**
+         * Send identical GET requests only once while one of them is in flight.
+         * Requests are identical if they have the same url, headers and response type,
+         * all of them receive the same parsed response object. Disabled by default.
+         *
+         * @param coalesceRequests True to enable requests coalescing
+         */
+        public Builder setCoalesceRequests(boolean coalesceRequests) {
+            this.coalesceRequests = coalesceRequests;
+            return this;
+        }
+
+        /**
+         * Gzip request bodies of at least the given size, and send them with a
+         * {@code Content-Encoding: gzip} header. If the server answers with
+         * 415 Unsupported Media Type the body is sent again uncompressed, and compression
+         * is disabled for the endpoint. Disabled by default.
+         *
+         * @param minBytes Minimum uncompressed body size to compress, a negative value disables compression
+         */
+        public Builder setRequestCompressionThreshold(int minBytes) {
+            this.requestCompressionThreshold = minBytes;
+            return this;
+        }
+
+        /**
+         * Deflate request and response bodies with a dictionary shared with the server.
+         * Every request body is compressed with it, regardless of the
+         * {@link #setRequestCompressionThreshold(int) compression threshold}, and the same
+         * 415 fallback applies. Responses are decoded if the server answers with the same
+         * dictionary version.
+         *
+         * @param dictionaryCodec The codec to use, null to disable it
+         */
+        public Builder setDictionaryCodec(DictionaryCodec dictionaryCodec) {
+            this.dictionaryCodec = dictionaryCodec;
+            return this;
+        }
+
+        /**
+         * Set how requests are mapped to cache keys. Defaults to a {@link CanonicalCacheKeyStrategy}
+         * that sorts the query parameters, and doesn't cache POST requests.
+         *
+         * @param cacheKeyStrategy The strategy to use
+         */
+        public Builder setCacheKeyStrategy(CacheKeyStrategy cacheKeyStrategy) {
+            this.cacheKeyStrategy = cacheKeyStrategy;
+            return this;
+        }
+
+        /**
+         * Keep the objects parsed from cached responses, so cache hits aren't parsed again.
+         * Only for endpoints whose response objects are never modified, every request
+         * hitting the cache gets the same object. Disabled by default.
+         *
+         * @param objectCache The object cache to use, may be shared by endpoints, null to disable it
+         */
+        public Builder setObjectCache(ObjectCache objectCache) {
+            this.objectCache = objectCache;
+            return this;
+        }
+
         /**
          * Create new {@link EndpointAdapter} instance
          */
@@ -129,9 +321,15 @@ public final class EndpointAdapter {
             return new EndpointAdapter(
                     endpoint,
                     httpStack,
+                    asyncStack,
                     converter,
                     requestInterceptor,
-                    authStrategy
+                    authStrategy,
+                    coalesceRequests,
+                    requestCompressionThreshold,
+                    dictionaryCodec,
+                    cacheKeyStrategy,
+                    objectCache
             );
         }
 
@@ -145,6 +343,9 @@ public final class EndpointAdapter {
             if (converter == null) {
                 converter = new GsonConverter();
             }
+            if (cacheKeyStrategy == null) {
+                cacheKeyStrategy = new CanonicalCacheKeyStrategy();
+            }
         }
     }
 }
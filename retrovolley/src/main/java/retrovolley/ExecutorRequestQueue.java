@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.android.volley.Cache;
+import com.android.volley.ExecutorDelivery;
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.ResponseDelivery;
+import com.android.volley.VolleyError;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+import retrovolley.request.PojoRequest;
+
+/**
+ * A request queue that runs every request, from the cache lookup to the response delivery,
+ * as a single task on a caller provided {@link Executor}, instead of on a fixed number of
+ * dispatcher threads. At most {@code maxConcurrentRequests} requests run at the same time,
+ * the others wait for a permit on their own task.
+ * <br>
+ * Meant for executors creating a thread per task, like the virtual thread executor of
+ * recent JVMs. The network layer stays blocking, with a thread pool executor the waiting
+ * tasks would block the pool threads, see {@link AsyncRequestQueue} for that case.
+ *
+ * @author Serghei Lotutovici
+ */
+class ExecutorRequestQueue extends RequestQueue {
+
+    private final Cache mCache;
+    private final Network mNetwork;
+    private final ResponseDelivery mDelivery;
+    private final Executor mExecutor;
+    private final Semaphore mPermits;
+
+    /**
+     * Released once the cache is initialized, requests wait for it like on Volley's cache dispatcher
+     */
+    private final CountDownLatch mCacheInitialized = new CountDownLatch(1);
+
+    /**
+     * Requests added to the queue and not done yet
+     */
+    private final Set<Request<?>> mCurrentRequests = new HashSet<Request<?>>();
+
+    /**
+     * @param cache                 Cache Implementation
+     * @param network               Network to perform the requests on
+     * @param executor              The executor running the requests
+     * @param maxConcurrentRequests Maximum number of requests running at the same time
+     */
+    ExecutorRequestQueue(Cache cache, Network network, Executor executor, int maxConcurrentRequests) {
+        this(cache, network, executor, maxConcurrentRequests,
+                new ExecutorDelivery(new Handler(Looper.getMainLooper())));
+    }
+
+    private ExecutorRequestQueue(Cache cache, Network network, Executor executor,
+                                 int maxConcurrentRequests, ResponseDelivery delivery) {
+        /* The dispatcher threads of the super class are never started */
+        super(cache, network, 1, delivery);
+        mCache = cache;
+        mNetwork = network;
+        mDelivery = delivery;
+        mExecutor = executor;
+        mPermits = new Semaphore(maxConcurrentRequests, true);
+    }
+
+    @Override
+    public void start() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mCache.initialize();
+                } finally {
+                    mCacheInitialized.countDown();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void stop() {
+        /* Nothing to stop, the executor is owned by the caller */
+    }
+
+    @Override
+    public <T> Request<T> add(final Request<T> request) {
+        if (!(request instanceof PojoRequest)) {
+            throw new IllegalArgumentException("Use request builder in order to use RetroVolley");
+        }
+
+        request.setRequestQueue(this);
+        request.setSequence(getSequenceNumber());
+        request.addMarker("add-to-queue");
+
+        synchronized (mCurrentRequests) {
+            mCurrentRequests.add(request);
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                dispatch((PojoRequest<?>) request);
+            }
+        });
+
+        return request;
+    }
+
+    /**
+     * Run a request, called on the executor
+     */
+    void dispatch(PojoRequest<?> request) {
+        try {
+            awaitCacheInitialized();
+            mPermits.acquire();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            done(request);
+            return;
+        }
+
+        try {
+            process(request);
+        } finally {
+            mPermits.release();
+            done(request);
+        }
+    }
+
+    @Override
+    public void cancelAll(RequestFilter filter) {
+        synchronized (mCurrentRequests) {
+            for (Request<?> request : mCurrentRequests) {
+                if (filter.apply(request)) {
+                    request.cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * Block until the cache is initialized
+     */
+    void awaitCacheInitialized() throws InterruptedException {
+        mCacheInitialized.await();
+    }
+
+    /**
+     * Remove a request from the current ones, once it's done
+     */
+    void done(Request<?> request) {
+        synchronized (mCurrentRequests) {
+            mCurrentRequests.remove(request);
+        }
+    }
+
+    /**
+     * Does the work of Volley's cache and network dispatchers for a single request
+     */
+    private void process(PojoRequest<?> request) {
+        if (!lookUpCache(request)) {
+            return;
+        }
+
+        final NetworkResponse networkResponse;
+        try {
+            networkResponse = mNetwork.performRequest(request);
+        } catch (Exception e) {
+            onNetworkError(request, e);
+            return;
+        }
+        onNetworkResponse(request, networkResponse);
+    }
+
+    /**
+     * Does the work of Volley's cache dispatcher for a single request
+     *
+     * @return True if the request must be sent over the network
+     */
+    boolean lookUpCache(PojoRequest<?> request) {
+        if (request.isCanceled()) {
+            request.addMarker("discard-canceled");
+            return false;
+        }
+
+        if (request.shouldCache()) {
+            Cache.Entry entry = mCache.get(request.getCacheKey());
+            if (entry == null) {
+                request.addMarker("cache-miss");
+            } else if (entry.isExpired()) {
+                request.addMarker("cache-hit-expired");
+                request.setCacheEntry(entry);
+            } else {
+                request.addMarker("cache-hit");
+                Response<?> response = request.parseNetworkResponse(
+                        new NetworkResponse(entry.data, entry.responseHeaders));
+                request.addMarker("cache-hit-parsed");
+
+                if (!entry.refreshNeeded()) {
+                    mDelivery.postResponse(request, response);
+                    return false;
+                }
+
+                /* Soft-expired hit, deliver it and refresh it from the network */
+                request.addMarker("cache-hit-refresh-needed");
+                request.setCacheEntry(entry);
+                response.intermediate = true;
+                mDelivery.postResponse(request, response);
+            }
+        }
+
+        if (request.isCanceled()) {
+            request.addMarker("network-discard-cancelled");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parse, cache and deliver a network response, like Volley's network dispatcher
+     */
+    void onNetworkResponse(PojoRequest<?> request, NetworkResponse networkResponse) {
+        try {
+            request.addMarker("network-http-complete");
+
+            /* The response was already delivered from the cache */
+            if (networkResponse.notModified && request.hasHadResponseDelivered()) {
+                request.addMarker("not-modified");
+                return;
+            }
+
+            Response<?> response = request.parseNetworkResponse(networkResponse);
+            request.addMarker("network-parse-complete");
+
+            if (request.shouldCache() && response.cacheEntry != null) {
+                mCache.put(request.getCacheKey(), response.cacheEntry);
+                request.addMarker("network-cache-written");
+            }
+
+            request.markDelivered();
+            mDelivery.postResponse(request, response);
+        } catch (Exception e) {
+            onNetworkError(request, e);
+        }
+    }
+
+    /**
+     * Deliver the error a request failed with
+     */
+    void onNetworkError(PojoRequest<?> request, Exception e) {
+        if (e instanceof VolleyError) {
+            mDelivery.postError(request, request.parseNetworkError((VolleyError) e));
+        } else {
+            Logging.e("Unhandled exception", e);
+            mDelivery.postError(request, new VolleyError(e));
+        }
+    }
+}
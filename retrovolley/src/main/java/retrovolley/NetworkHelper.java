@@ -16,6 +16,8 @@
  */
 package retrovolley;
 
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
 import com.android.volley.ServerError;
 import com.android.volley.toolbox.ByteArrayPool;
 import com.android.volley.toolbox.PoolingByteArrayOutputStream;
@@ -23,11 +25,27 @@ import com.android.volley.toolbox.PoolingByteArrayOutputStream;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import retrovolley.converter.ConversionException;
+import retrovolley.mime.DictionaryCodec;
+import retrovolley.request.PartialDownload;
+import retrovolley.request.ProgressListener;
+import retrovolley.request.StreamRequest;
 
 /**
  * Contains some logic that could be shared between
@@ -42,6 +60,27 @@ class NetworkHelper {
      */
     private static final String TAG = NetworkHelper.class.getSimpleName();
 
+    static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    static final String ENCODING_GZIP = "gzip";
+    static final String ENCODING_DEFLATE = "deflate";
+    static final String ENCODING_IDENTITY = "identity";
+
+    static final String HEADER_CONTENT_RANGE = "Content-Range";
+    static final String HEADER_ETAG = "ETag";
+    static final String HEADER_LAST_MODIFIED = "Last-Modified";
+
+    private static final String RANGE_UNIT = "bytes ";
+
+    /**
+     * Largest body read straight into an array of the announced length
+     */
+    private static final long MAX_EXACT_LENGTH = Integer.MAX_VALUE - 8;
+
+    /**
+     * Size of the chunks written to a downloaded file
+     */
+    private static final int DOWNLOAD_BUFFER_SIZE = 8192;
+
     protected final ByteArrayPool mPool;
 
     public NetworkHelper(ByteArrayPool pool) {
@@ -49,24 +88,75 @@ class NetworkHelper {
     }
 
     /**
-     * Reads the contents of HttpEntity into a byte[].
+     * Reads the contents of HttpEntity, decoding it on the fly if needed.
+     * A body of known length is read straight into an array of that length, any other body
+     * is collected in a pooled buffer, and either copied into an exact array or handed over.
+     *
+     * @param keepPooled True to hand over the pooled buffer instead of copying it
      */
-    private byte[] entityToBytes(HttpEntity entity) throws IOException, ServerError {
-        PoolingByteArrayOutputStream bytes =
-                new PoolingByteArrayOutputStream(mPool, (int) entity.getContentLength());
+    private ResponseBody readEntity(HttpEntity entity, String contentEncoding, DictionaryCodec codec,
+                                    TransferStats stats, boolean keepPooled) throws IOException, ServerError {
+        BodyStream bytes = null;
+        boolean handedOver = false;
         byte[] buffer = null;
+        InputStream in = null;
         try {
-            InputStream in = entity.getContent();
-            if (in == null) {
+            InputStream content = entity.getContent();
+            if (content == null) {
                 throw new ServerError();
             }
+            CountingInputStream wire = new CountingInputStream(content);
+            in = decode(wire, contentEncoding, codec);
+
+            final long contentLength = entity.getContentLength();
+            byte[] exact = null;
+            int read = 0;
+            if (in == wire && contentLength >= 0 && contentLength <= MAX_EXACT_LENGTH) {
+                exact = new byte[(int) contentLength];
+                int count;
+                while (read < exact.length && (count = in.read(exact, read, exact.length - read)) != -1) {
+                    read += count;
+                }
+
+                /* Trust the length only if the body really ends there */
+                int next = read < exact.length ? -1 : in.read();
+                if (next == -1) {
+                    if (stats != null) {
+                        stats.set(null, wire.getCount(), read);
+                    }
+                    return new ResponseBody(read == exact.length ? exact : Arrays.copyOf(exact, read), read, false);
+                }
+
+                bytes = new BodyStream(mPool, read * 2);
+                bytes.write(exact, 0, read);
+                bytes.write(next);
+            } else {
+                bytes = new BodyStream(mPool, (int) contentLength);
+            }
+
             buffer = mPool.getBuf(1024);
             int count;
             while ((count = in.read(buffer)) != -1) {
                 bytes.write(buffer, 0, count);
             }
-            return bytes.toByteArray();
+            if (stats != null) {
+                stats.set(in != wire ? contentEncoding : null, wire.getCount(), bytes.size());
+            }
+
+            if (keepPooled) {
+                handedOver = true;
+                return new ResponseBody(bytes.buffer(), bytes.size(), true);
+            }
+            return new ResponseBody(bytes.toByteArray(), bytes.size(), false);
         } finally {
+            try {
+                /* Release the inflater of the decoding stream, this closes the content as well */
+                if (in != null) {
+                    in.close();
+                }
+            } catch (IOException e) {
+                Logging.e("Can't close response", e);
+            }
             try {
                 // Close the InputStream and release the resources by "consuming the content".
                 entity.consumeContent();
@@ -76,10 +166,59 @@ class NetworkHelper {
                 Logging.e("Can't read response", e);
             }
             mPool.returnBuf(buffer);
-            bytes.close();
+            if (bytes != null && !handedOver) {
+                bytes.close();
+            }
         }
     }
 
+    /**
+     * Wrap the body stream with a decoder matching its content encoding
+     *
+     * @param in              The raw body stream
+     * @param contentEncoding The value of the Content-Encoding header, may be null
+     * @param codec           The dictionary codec of the endpoint, may be null
+     * @return The decoding stream, or the same stream if it's not encoded
+     */
+    private static InputStream decode(InputStream in, String contentEncoding, DictionaryCodec codec)
+            throws IOException {
+        if (codec != null && DictionaryCodec.CONTENT_ENCODING.equalsIgnoreCase(contentEncoding)) {
+            return codec.decode(in);
+        }
+
+        final boolean gzip = ENCODING_GZIP.equalsIgnoreCase(contentEncoding);
+        if (!gzip && !ENCODING_DEFLATE.equalsIgnoreCase(contentEncoding)) {
+            return in;
+        }
+
+        /* Peek at the first two bytes, an empty body must not be decoded */
+        PushbackInputStream pushback = new PushbackInputStream(in, 2);
+        int first = pushback.read();
+        if (first == -1) {
+            return in;
+        }
+        int second = pushback.read();
+        if (second != -1) {
+            pushback.unread(second);
+        }
+        pushback.unread(first);
+
+        if (gzip) {
+            return new GZIPInputStream(pushback);
+        }
+
+        /* Deflate is meant to be zlib wrapped, but some servers send a raw deflate stream */
+        boolean zlib = (first & 0x0F) == 8 && second != -1 && ((first << 8) | second) % 31 == 0;
+        return new InflaterInputStream(pushback, new Inflater(!zlib)) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                /* The inflater is ours, InflaterInputStream only ends its default one */
+                inf.end();
+            }
+        };
+    }
+
     /**
      * Converts Headers[] to Map<String, String>.
      */
@@ -93,13 +232,363 @@ class NetworkHelper {
 
 
     byte[] getResponse(HttpResponse httpResponse) throws IOException, ServerError {
+        return getResponse(httpResponse, null);
+    }
+
+    /**
+     * Read the response body, decoding it according to its content encoding
+     *
+     * @param httpResponse The response to read
+     * @param stats        Updated with the body size before and after decoding, may be null
+     * @return The decoded body
+     */
+    byte[] getResponse(HttpResponse httpResponse, TransferStats stats) throws IOException, ServerError {
+        return getResponse(httpResponse, stats, null);
+    }
+
+    /**
+     * Read the response body, decoding it according to its content encoding
+     *
+     * @param httpResponse The response to read
+     * @param stats        Updated with the body size before and after decoding, may be null
+     * @param codec        The dictionary codec of the endpoint, may be null
+     * @return The decoded body
+     * @throws IOException If the body was encoded with a different dictionary version
+     */
+    byte[] getResponse(HttpResponse httpResponse, TransferStats stats, DictionaryCodec codec)
+            throws IOException, ServerError {
         /* Some responses such as 204s do not have content.  We must check. */
         if (httpResponse.getEntity() != null) {
-            return entityToBytes(httpResponse.getEntity());
+            return readResponse(httpResponse, stats, codec, false).data;
         } else {
+            if (stats != null) {
+                stats.set(null, 0, 0);
+            }
             /* Add 0 byte response as a way of honestly representing a no-content request. */
             return new byte[0];
         }
     }
 
+    /**
+     * Read the response body without copying it out of the pooled buffer. Bodies of a known
+     * length are read into an exact array instead, which is not copied either.
+     *
+     * @param statusCode   The response status code
+     * @param httpResponse The response to read
+     * @param headers      The response headers
+     * @param stats        Updated with the body size before and after decoding, may be null
+     * @param codec        The dictionary codec of the endpoint, may be null
+     * @return The network response, a {@link PooledNetworkResponse} to release if the body is pooled
+     * @throws IOException If the body was encoded with a different dictionary version
+     */
+    NetworkResponse getPooledResponse(int statusCode, HttpResponse httpResponse, Map<String, String> headers,
+                                      TransferStats stats, DictionaryCodec codec) throws IOException, ServerError {
+        if (httpResponse.getEntity() == null) {
+            if (stats != null) {
+                stats.set(null, 0, 0);
+            }
+            return new NetworkResponse(statusCode, new byte[0], headers, false);
+        }
+
+        ResponseBody body = readResponse(httpResponse, stats, codec, true);
+        return body.pooled
+                ? new PooledNetworkResponse(statusCode, body.data, body.length, mPool, headers)
+                : new NetworkResponse(statusCode, body.data, headers, false);
+    }
+
+    /**
+     * Stream the response body to a file, decoding it on the fly if needed. The body is written
+     * to the part file first, which replaces the target once the whole body was received.
+     * A partial content response is appended to the already downloaded bytes.
+     * <br>
+     * If the response has a validator and isn't encoded, the part file is kept when the
+     * download fails, so it can be resumed.
+     *
+     * @param httpResponse The response to read
+     * @param download     The files of the download
+     * @param progress     Notified while the body is written, may be null
+     * @param request      The downloading request, the download stops once it's canceled
+     * @param stats        Updated with the body size before and after decoding, may be null
+     * @param codec        The dictionary codec of the endpoint, may be null
+     * @throws IncompleteBodyException If the body is shorter than its Content-Length, or the
+     *                                 connection broke while reading it
+     * @throws IOException             If the body can't be read or saved
+     */
+    void download(HttpResponse httpResponse, PartialDownload download, ProgressListener progress,
+                  Request<?> request, TransferStats stats, DictionaryCodec codec) throws IOException {
+        final String contentEncoding = getContentEncoding(httpResponse, codec);
+        final boolean identity = contentEncoding == null || ENCODING_IDENTITY.equalsIgnoreCase(contentEncoding);
+        final HttpEntity entity = httpResponse.getEntity();
+
+        long offset = 0;
+        if (httpResponse.getStatusLine().getStatusCode() == HttpStatus.SC_PARTIAL_CONTENT) {
+            offset = parseRangeStart(httpResponse.getFirstHeader(HEADER_CONTENT_RANGE));
+            if (offset != download.length() || !identity) {
+                consumeQuietly(entity);
+                download.discard();
+                throw new IncompleteBodyException("Unexpected partial content: "
+                        + httpResponse.getFirstHeader(HEADER_CONTENT_RANGE));
+            }
+        } else {
+            /* The whole body is sent, start over */
+            download.start(identity ? getValidator(httpResponse) : null);
+        }
+
+        FileOutputStream out = new FileOutputStream(download.getPartFile(), offset > 0);
+        boolean complete = false;
+        byte[] buffer = null;
+        InputStream in = null;
+        try {
+            long written = offset;
+            InputStream content = entity != null ? entity.getContent() : null;
+            if (content != null) {
+                CountingInputStream wire = new CountingInputStream(content);
+                in = decode(wire, contentEncoding, codec);
+
+                final long contentLength = entity.getContentLength();
+                final long total = in == wire && contentLength >= 0 ? offset + contentLength : -1;
+                final FileChannel channel = out.getChannel();
+                buffer = mPool.getBuf(DOWNLOAD_BUFFER_SIZE);
+                int count;
+                while ((count = read(in, buffer)) != -1) {
+                    if (request.isCanceled()) {
+                        throw new IOException("Download canceled");
+                    }
+
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, count);
+                    while (chunk.hasRemaining()) {
+                        channel.write(chunk);
+                    }
+                    written += count;
+                    if (progress != null) {
+                        progress.onProgress(written, total);
+                    }
+                }
+
+                if (contentLength >= 0 && wire.getCount() != contentLength) {
+                    throw new IncompleteBodyException("Expected " + contentLength
+                            + " bytes, but received " + wire.getCount());
+                }
+                if (stats != null) {
+                    stats.set(in != wire ? contentEncoding : null, wire.getCount(), written - offset);
+                }
+                channel.force(false);
+            } else if (stats != null) {
+                stats.set(null, 0, 0);
+            }
+            out.close();
+
+            if (progress != null) {
+                progress.onProgress(written, written);
+            }
+            complete = true;
+        } finally {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (IOException e) {
+                Logging.e("Can't close response", e);
+            }
+            consumeQuietly(entity);
+            mPool.returnBuf(buffer);
+            if (!complete) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Logging.e("Can't close file", e);
+                }
+                /* Keep what was downloaded only if it can be resumed */
+                if (!download.isResumable()) {
+                    download.discard();
+                }
+            }
+        }
+
+        download.complete();
+    }
+
+    /**
+     * Parse a list response while it's read, decoding it on the fly if needed
+     *
+     * @param httpResponse The response to read
+     * @param charset      The charset of the body
+     * @param request      The streaming request, delivering the parsed elements
+     * @param stats        Updated with the body size before and after decoding, may be null
+     * @param codec        The dictionary codec of the endpoint, may be null
+     * @throws ConversionException If an element can't be parsed
+     * @throws IOException         If the body can't be read, a broken connection is not retried
+     *                             once elements were delivered
+     */
+    void stream(HttpResponse httpResponse, String charset, StreamRequest<?> request, TransferStats stats,
+                DictionaryCodec codec) throws IOException, ConversionException {
+        final String contentEncoding = getContentEncoding(httpResponse, codec);
+        final HttpEntity entity = httpResponse.getEntity();
+
+        InputStream in = null;
+        try {
+            InputStream content = entity != null ? entity.getContent() : null;
+            if (content == null) {
+                if (stats != null) {
+                    stats.set(null, 0, 0);
+                }
+                return;
+            }
+
+            CountingInputStream wire = new CountingInputStream(content);
+            in = decode(wire, contentEncoding, codec);
+            CountingInputStream decoded = new CountingInputStream(in);
+            request.readItems(decoded, charset);
+
+            if (stats != null) {
+                stats.set(in != wire ? contentEncoding : null, wire.getCount(), decoded.getCount());
+            }
+        } catch (SocketTimeoutException ste) {
+            /* A retry would deliver the same elements again */
+            if (request.getDeliveredCount() > 0) {
+                throw new IOException("Stream broken after " + request.getDeliveredCount() + " elements", ste);
+            }
+            throw ste;
+        } finally {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (IOException e) {
+                Logging.e("Can't close response", e);
+            }
+            consumeQuietly(entity);
+        }
+    }
+
+    /**
+     * Read from the body, a broken connection makes the body incomplete
+     */
+    private static int read(InputStream in, byte[] buffer) throws IOException {
+        try {
+            return in.read(buffer);
+        } catch (SocketTimeoutException ste) {
+            throw ste;
+        } catch (IOException ioe) {
+            throw new IncompleteBodyException("Connection broken while reading the body", ioe);
+        }
+    }
+
+    /**
+     * Get the validator a range request can be made conditional on, weak entity tags can't be used
+     */
+    private static String getValidator(HttpResponse httpResponse) {
+        Header eTag = httpResponse.getFirstHeader(HEADER_ETAG);
+        if (eTag != null && !eTag.getValue().startsWith("W/")) {
+            return eTag.getValue();
+        }
+        Header lastModified = httpResponse.getFirstHeader(HEADER_LAST_MODIFIED);
+        return lastModified != null ? lastModified.getValue() : null;
+    }
+
+    /**
+     * Parse the first byte position of a "bytes first-last/length" content range
+     *
+     * @return The first byte position, or -1 if the header is missing or malformed
+     */
+    static long parseRangeStart(Header contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+
+        String value = contentRange.getValue().trim();
+        if (!value.regionMatches(true, 0, RANGE_UNIT, 0, RANGE_UNIT.length())) {
+            return -1;
+        }
+        int dash = value.indexOf('-', RANGE_UNIT.length());
+        if (dash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.substring(RANGE_UNIT.length(), dash).trim());
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+
+    private static void consumeQuietly(HttpEntity entity) {
+        try {
+            if (entity != null) {
+                entity.consumeContent();
+            }
+        } catch (IOException e) {
+            Logging.e("Can't read response", e);
+        }
+    }
+
+    private ResponseBody readResponse(HttpResponse httpResponse, TransferStats stats, DictionaryCodec codec,
+                                      boolean keepPooled) throws IOException, ServerError {
+        String contentEncoding = getContentEncoding(httpResponse, codec);
+        return readEntity(httpResponse.getEntity(), contentEncoding, codec, stats, keepPooled);
+    }
+
+    /**
+     * Get the content encoding of a response, and make sure it can be decoded
+     *
+     * @throws IOException If the body was encoded with a different dictionary version
+     */
+    private static String getContentEncoding(HttpResponse httpResponse, DictionaryCodec codec) throws IOException {
+        Header contentEncodingHeader = httpResponse.getFirstHeader(HEADER_CONTENT_ENCODING);
+        String contentEncoding = contentEncodingHeader != null ? contentEncodingHeader.getValue().trim() : null;
+
+        /* A body encoded with another dictionary can't be decoded */
+        if (DictionaryCodec.CONTENT_ENCODING.equalsIgnoreCase(contentEncoding)) {
+            Header dictionary = httpResponse.getFirstHeader(DictionaryCodec.HEADER_DICTIONARY);
+            if (codec == null || (dictionary != null && !codec.getVersion().equals(dictionary.getValue().trim()))) {
+                throw new IOException("Unsupported dictionary version: "
+                        + (dictionary != null ? dictionary.getValue() : null));
+            }
+        }
+        return contentEncoding;
+    }
+
+    /**
+     * Thrown when the connection ends before the whole body arrived
+     */
+    static final class IncompleteBodyException extends IOException {
+
+        IncompleteBodyException(String message) {
+            super(message);
+        }
+
+        IncompleteBodyException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * A read body, either an exact array or a pooled buffer
+     */
+    private static final class ResponseBody {
+
+        final byte[] data;
+        final int length;
+        final boolean pooled;
+
+        ResponseBody(byte[] data, int length, boolean pooled) {
+            this.data = data;
+            this.length = length;
+            this.pooled = pooled;
+        }
+    }
+
+    /**
+     * A pooled stream giving access to its buffer
+     */
+    private static final class BodyStream extends PoolingByteArrayOutputStream {
+
+        BodyStream(ByteArrayPool pool, int size) {
+            super(pool, size);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
 }
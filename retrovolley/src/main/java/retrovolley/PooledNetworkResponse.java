@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.toolbox.ByteArrayPool;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A network response whose body stays in the pooled buffer it was read into, so it's not
+ * copied into an array of its own. The body is not available as {@link #data}, use
+ * {@link #getBuffer()} and {@link #getLength()} until the response is released.
+ * <br>
+ * The response is created with a single reference, the buffer goes back to the pool when
+ * every {@link #retain()} was matched by a {@link #release()}.
+ *
+ * @author Konstantin Tarasenko
+ */
+public final class PooledNetworkResponse extends NetworkResponse {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final byte[] mBuffer;
+    private final int mLength;
+    private final ByteArrayPool mPool;
+    private final AtomicInteger mReferences = new AtomicInteger(1);
+
+    PooledNetworkResponse(int statusCode, byte[] buffer, int length, ByteArrayPool pool,
+                          Map<String, String> headers) {
+        super(statusCode, EMPTY, headers, false);
+        mBuffer = buffer;
+        mLength = length;
+        mPool = pool;
+    }
+
+    /**
+     * @return The buffer holding the body, it may be longer than the body
+     * @throws java.lang.IllegalStateException If the response was released
+     */
+    public byte[] getBuffer() {
+        if (mReferences.get() <= 0) {
+            throw new IllegalStateException("Response body already released");
+        }
+        return mBuffer;
+    }
+
+    /**
+     * @return The body length
+     */
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * Add a reference to the body, which must be matched by a {@link #release()}
+     *
+     * @throws java.lang.IllegalStateException If the response was released
+     */
+    public void retain() {
+        int references;
+        do {
+            references = mReferences.get();
+            if (references <= 0) {
+                throw new IllegalStateException("Response body already released");
+            }
+        } while (!mReferences.compareAndSet(references, references + 1));
+    }
+
+    /**
+     * Remove a reference to the body, the buffer goes back to the pool with the last one
+     *
+     * @throws java.lang.IllegalStateException If the response was already released
+     */
+    public void release() {
+        final int references = mReferences.decrementAndGet();
+        if (references == 0) {
+            mPool.returnBuf(mBuffer);
+        } else if (references < 0) {
+            throw new IllegalStateException("Response body already released");
+        }
+    }
+}
@@ -21,11 +21,27 @@ import android.content.Context;
 import com.android.volley.Cache;
 import com.android.volley.Network;
 import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.ByteArrayPool;
 import com.android.volley.toolbox.DiskBasedCache;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import retrovolley.cache.TwoTierCache;
+import retrovolley.request.RequestCoalescer;
+import retrovolley.request.RestCallRegistry;
+import retrovolley.rest.RestCall;
 
 /**
  * An utility class, that stands as a network layer provider.
@@ -39,11 +55,36 @@ public class RetroVolley {
      */
     private static final String DEFAULT_CACHE_DIR_NAME = "RetroVolley";
 
+    /**
+     * Initial size limit of the shared byte array pool
+     */
+    private static final int DEFAULT_POOL_SIZE = 4096;
+
+    /**
+     * The shared byte array pool grows up to this size limit
+     */
+    private static final int DEFAULT_MAX_POOL_SIZE = 256 * 1024;
+
+    /**
+     * Default number of network dispatcher threads, same as Volley's
+     */
+    private static final int DEFAULT_NETWORK_THREAD_POOL_SIZE = 4;
+
+    /**
+     * Default size of the in-memory cache tier, in front of the disk cache
+     */
+    private static final int DEFAULT_MEMORY_CACHE_SIZE = 1024 * 1024;
+
     /**
      * Applications main request queue
      */
     RequestQueue requestQueue;
 
+    /**
+     * Buffers shared by the request body serialization and the network response reading
+     */
+    volatile ByteArrayPool byteArrayPool;
+
     /**
      * List of supported endpoints
      */
@@ -68,6 +109,7 @@ public class RetroVolley {
     private RetroVolley() {
         super();
         endpointsMap = new LinkedHashMap<String, EndpointAdapter>();
+        byteArrayPool = new AdaptiveByteArrayPool(DEFAULT_POOL_SIZE, DEFAULT_MAX_POOL_SIZE);
     }
 
 
@@ -87,11 +129,144 @@ public class RetroVolley {
      * @param cache Cache Implementation
      */
     public static void init(Cache cache) {
-        final Network network = new RetroVolleyNetwork();
-        StaticHolder.INSTANCE.requestQueue = new RequestQueue(cache, network);
+        init(cache, DEFAULT_NETWORK_THREAD_POOL_SIZE);
+    }
+
+    /**
+     * Initialize {@link retrovolley.RetroVolley} with custom cache implementation
+     * Build request queue and start it.<br>
+     * Every request blocks a network dispatcher thread for its whole round trip, so the number of
+     * threads is the number of requests that can be in flight at the same time. Use
+     * {@link #initAsync(Cache, int, int)} to have more requests in flight than threads.
+     *
+     * @param cache                 Cache Implementation
+     * @param networkThreadPoolSize Number of network dispatcher threads
+     */
+    public static void init(Cache cache, int networkThreadPoolSize) {
+        init(cache, networkThreadPoolSize, StaticHolder.INSTANCE.byteArrayPool);
+    }
+
+    /**
+     * Initialize {@link retrovolley.RetroVolley} with custom cache implementation and byte array pool
+     * Build request queue and start it.<br>
+     * The pool is shared by the request body serialization and the network response reading,
+     * use an {@link AdaptiveByteArrayPool} to let it grow with the response sizes and to see
+     * how well it recycles buffers.
+     *
+     * @param cache                 Cache Implementation
+     * @param networkThreadPoolSize Number of network dispatcher threads
+     * @param byteArrayPool         The shared byte array pool
+     */
+    public static void init(Cache cache, int networkThreadPoolSize, ByteArrayPool byteArrayPool) {
+        if (networkThreadPoolSize < 1) {
+            throw new IllegalArgumentException("At least one network thread is required");
+        }
+
+        final Network network = new RetroVolleyNetwork(setByteArrayPool(byteArrayPool));
+        StaticHolder.INSTANCE.requestQueue = new RequestQueue(cache, network, networkThreadPoolSize);
+        StaticHolder.INSTANCE.requestQueue.start();
+    }
+
+    /**
+     * Initialize {@link retrovolley.RetroVolley} with custom cache implementation and a request queue
+     * running every request as a task on the given executor, instead of on dispatcher threads.
+     * Use an executor that creates a thread per task, e.g. a virtual thread executor
+     * ({@code Executors.newVirtualThreadPerTaskExecutor()}) when embedded in a JVM that supports it.
+     *
+     * @param cache                 Cache Implementation
+     * @param executor              The executor running the requests
+     * @param maxConcurrentRequests Maximum number of requests in flight at the same time
+     */
+    public static void init(Cache cache, Executor executor, int maxConcurrentRequests) {
+        init(cache, executor, maxConcurrentRequests, StaticHolder.INSTANCE.byteArrayPool);
+    }
+
+    /**
+     * Initialize {@link retrovolley.RetroVolley} with custom cache implementation, byte array pool
+     * and a request queue running every request as a task on the given executor.
+     *
+     * @param cache                 Cache Implementation
+     * @param executor              The executor running the requests
+     * @param maxConcurrentRequests Maximum number of requests in flight at the same time
+     * @param byteArrayPool         The shared byte array pool
+     * @see #init(Cache, Executor, int)
+     */
+    public static void init(Cache cache, Executor executor, int maxConcurrentRequests, ByteArrayPool byteArrayPool) {
+        if (executor == null) {
+            throw new NullPointerException("Executor must not be null");
+        }
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("At least one concurrent request is required");
+        }
+
+        final Network network = new RetroVolleyNetwork(setByteArrayPool(byteArrayPool));
+        StaticHolder.INSTANCE.requestQueue = new ExecutorRequestQueue(cache, network, executor, maxConcurrentRequests);
+        StaticHolder.INSTANCE.requestQueue.start();
+    }
+
+    /**
+     * Initialize {@link retrovolley.RetroVolley} with custom cache implementation and a request queue
+     * completing requests through callbacks. Requests to endpoints with an
+     * {@link EndpointAdapter.Builder#setAsyncStack(retrovolley.httpstack.AsyncRetroStack) async stack}
+     * don't hold a thread while they're in flight, so a few worker threads serve many concurrent
+     * requests. The workers look up the cache, and read and parse the responses.
+     * <br>
+     * Requests to other endpoints, and downloads, block a worker for their whole round trip.
+     *
+     * @param cache                 Cache Implementation
+     * @param workerThreads         Number of worker threads
+     * @param maxConcurrentRequests Maximum number of requests in flight at the same time
+     * @see retrovolley.httpstack.NioRetroStack
+     */
+    public static void initAsync(Cache cache, int workerThreads, int maxConcurrentRequests) {
+        initAsync(cache, workerThreads, maxConcurrentRequests, StaticHolder.INSTANCE.byteArrayPool);
+    }
+
+    /**
+     * Initialize {@link retrovolley.RetroVolley} with custom cache implementation, byte array pool
+     * and a request queue completing requests through callbacks.
+     *
+     * @param cache                 Cache Implementation
+     * @param workerThreads         Number of worker threads
+     * @param maxConcurrentRequests Maximum number of requests in flight at the same time
+     * @param byteArrayPool         The shared byte array pool
+     * @see #initAsync(Cache, int, int)
+     */
+    public static void initAsync(Cache cache, int workerThreads, int maxConcurrentRequests,
+                                 ByteArrayPool byteArrayPool) {
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException("At least one worker thread is required");
+        }
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("At least one concurrent request is required");
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(workerThreads, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "RetroVolley-worker-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final RetroVolleyNetwork network = new RetroVolleyNetwork(setByteArrayPool(byteArrayPool));
+        StaticHolder.INSTANCE.requestQueue = new AsyncRequestQueue(cache, network, executor, maxConcurrentRequests);
         StaticHolder.INSTANCE.requestQueue.start();
     }
 
+    /**
+     * Replace the shared byte array pool
+     */
+    private static ByteArrayPool setByteArrayPool(ByteArrayPool byteArrayPool) {
+        if (byteArrayPool == null) {
+            throw new NullPointerException("Byte array pool must not be null");
+        }
+        StaticHolder.INSTANCE.byteArrayPool = byteArrayPool;
+        return byteArrayPool;
+    }
+
     /**
      * Initialize {@link retrovolley.RetroVolley} with a disk base cache
      *
@@ -99,9 +274,35 @@ public class RetroVolley {
      * @param cacheDirName The name of {@link retrovolley.RetroVolley}'s cache directory
      */
     public static void init(Context context, String cacheDirName) {
+        init(context, cacheDirName, DEFAULT_NETWORK_THREAD_POOL_SIZE);
+    }
+
+    /**
+     * Initialize {@link retrovolley.RetroVolley} with a disk base cache
+     *
+     * @param context               Application context to get access to the applications cache directory
+     * @param cacheDirName          The name of {@link retrovolley.RetroVolley}'s cache directory
+     * @param networkThreadPoolSize Number of network dispatcher threads
+     */
+    public static void init(Context context, String cacheDirName, int networkThreadPoolSize) {
+        init(context, cacheDirName, networkThreadPoolSize, DEFAULT_MEMORY_CACHE_SIZE);
+    }
+
+    /**
+     * Initialize {@link retrovolley.RetroVolley} with a disk base cache, and the most recently used
+     * entries kept in memory
+     *
+     * @param context               Application context to get access to the applications cache directory
+     * @param cacheDirName          The name of {@link retrovolley.RetroVolley}'s cache directory
+     * @param networkThreadPoolSize Number of network dispatcher threads
+     * @param memoryCacheSize       Maximum size of the entries kept in memory in bytes, 0 to keep them on disk only
+     * @see TwoTierCache
+     */
+    public static void init(Context context, String cacheDirName, int networkThreadPoolSize, int memoryCacheSize) {
         final File cacheDirPath = context.getCacheDir();
         final File cacheDir = new File(cacheDirPath, cacheDirName);
-        init(new DiskBasedCache(cacheDir));
+        final Cache diskCache = new DiskBasedCache(cacheDir);
+        init(memoryCacheSize > 0 ? new TwoTierCache(diskCache, memoryCacheSize) : diskCache, networkThreadPoolSize);
     }
 
 
@@ -140,6 +341,77 @@ public class RetroVolley {
         StaticHolder.INSTANCE.endpointsMap.putAll(endpointsMap);
     }
 
+    /**
+     * Eagerly parse and validate RestCall enums, so misconfigured calls fail on startup
+     * and the first request doesn't pay for the annotations parsing.
+     * The enums are processed in parallel.<br>
+     * <b>Note: </b> All endpoints used by the calls must be supported before calling this method.
+     *
+     * @param restCallClasses The RestCall enum classes to preload
+     * @throws java.lang.IllegalArgumentException If any of the classes is not a RestCall enum
+     *                                            or any of the rest calls is misconfigured
+     * @throws java.lang.IllegalStateException    If a rest call references an unsupported endpoint
+     */
+    public static void preloadRestCalls(Class<?>... restCallClasses) {
+        if (restCallClasses.length == 0) {
+            return;
+        }
+
+        /* Fail before starting any work if one of the classes can't be preloaded */
+        final List<Class<? extends RestCall>> enumClasses =
+                new ArrayList<Class<? extends RestCall>>(restCallClasses.length);
+        for (Class<?> restCallClass : restCallClasses) {
+            if (restCallClass == null) {
+                throw new NullPointerException("Rest Call class must not be null");
+            }
+            if (!RestCall.class.isAssignableFrom(restCallClass) || !restCallClass.isEnum()) {
+                throw new IllegalArgumentException(restCallClass.getName() + " is not a RestCall enum");
+            }
+            enumClasses.add(restCallClass.asSubclass(RestCall.class));
+        }
+
+        final int threads = Math.min(enumClasses.size(), Runtime.getRuntime().availableProcessors());
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Void>> results = new ArrayList<Future<Void>>(enumClasses.size());
+            for (final Class<? extends RestCall> restCallClass : enumClasses) {
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        RestCallRegistry.preload(restCallClass);
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (ExecutionException e) {
+            /* Rethrow the validation error as is */
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Failed to preload rest calls", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while preloading rest calls", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Cancel all requests with the given tag, including the ones waiting for an identical
+     * request in flight (see {@link EndpointAdapter.Builder#setCoalesceRequests(boolean)}).
+     *
+     * @param tag The tag of the requests to cancel
+     */
+    public static void cancelAll(Object tag) {
+        RequestCoalescer.cancelAll(tag);
+        getInstance().getRequestQueue().cancelAll(tag);
+    }
+
     /**
      * Clears all cookies
      */
@@ -177,6 +449,14 @@ public class RetroVolley {
         return requestQueue;
     }
 
+    /**
+     * @return The byte array pool shared by all requests, an {@link AdaptiveByteArrayPool} unless
+     * another pool was passed to {@code init}
+     */
+    public ByteArrayPool getByteArrayPool() {
+        return byteArrayPool;
+    }
+
     /**
      * Get the adapter associated with provided name.
      * If no name specified the first entry will be returned
@@ -25,15 +25,23 @@ import com.android.volley.Network;
 import com.android.volley.NetworkError;
 import com.android.volley.NetworkResponse;
 import com.android.volley.NoConnectionError;
+import com.android.volley.ParseError;
 import com.android.volley.Request;
 import com.android.volley.RetryPolicy;
 import com.android.volley.ServerError;
 import com.android.volley.TimeoutError;
 import com.android.volley.VolleyError;
 import com.android.volley.toolbox.ByteArrayPool;
+import com.android.volley.toolbox.HttpHeaderParser;
 import com.android.volley.toolbox.HttpStack;
+import retrovolley.converter.ConversionException;
 import retrovolley.converter.Converter;
+import retrovolley.httpstack.AsyncRetroStack;
+import retrovolley.mime.DictionaryCodec;
+import retrovolley.request.DownloadRequest;
+import retrovolley.request.PartialDownload;
 import retrovolley.request.PojoRequest;
+import retrovolley.request.StreamRequest;
 
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
@@ -46,11 +54,14 @@ import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.logging.Logger;
 
 /**
- * A network performing Volley requests over an {@link HttpStack}.
+ * A network performing Volley requests over an {@link HttpStack}, or over an
+ * {@link AsyncRetroStack} without blocking a thread.
  * Extended to support the oauth2 flow
  *
  * @author Konstantin Tarasenko
@@ -60,16 +71,20 @@ class RetroVolleyNetwork implements Network {
     private static final String TAG = RetroVolleyNetwork.class.getSimpleName();
 
     private static final int SLOW_REQUEST_THRESHOLD_MS = 3000;
-    private static final int DEFAULT_POOL_SIZE = 4096;
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+    private static final String HEADER_RANGE = "Range";
+    private static final String HEADER_IF_RANGE = "If-Range";
+    private static final String ACCEPT_ENCODING = NetworkHelper.ENCODING_GZIP + ", " + NetworkHelper.ENCODING_DEFLATE;
 
     private final NetworkHelper mNetworkHelper;
 
     /**
      */
     public RetroVolleyNetwork() {
-        // If a pool isn't passed in, then build a small default pool that will give us a lot of
-        // benefit and not use too much memory.
-        this(new ByteArrayPool(DEFAULT_POOL_SIZE));
+        // If a pool isn't passed in, then share the pool of the request bodies, sized by RetroVolley.
+        this(RetroVolley.getInstance().getByteArrayPool());
     }
 
     /**
@@ -84,90 +99,286 @@ class RetroVolleyNetwork implements Network {
         if (req instanceof PojoRequest) {
             PojoRequest<?> request = (PojoRequest<?>) req;
 
-            EndpointAdapter adapter = request.getEndpointAdapter();
-            HttpStack stack = adapter.getHttpStack();
-            Converter converter = adapter.getConverter();
-            AuthStrategy authStrategy = adapter.getAuthStrategy();
-            RequestInterceptor interceptor = adapter.getRequestInterceptor();
+            NetworkResponse response;
+            try {
+                response = execute(request);
+            } catch (VolleyError ve) {
+                response = serveStaleIfError(request, ve);
+            }
+            return checkNotModified(request, response);
+        } else {
+            throw new IllegalArgumentException("Use request builder in order to use RetroVolley");
+        }
+    }
 
-            long requestStart = SystemClock.elapsedRealtime();
+    /**
+     * Perform a request over the endpoint's {@link AsyncRetroStack}, without blocking a thread
+     * while it's in flight. Responses are read, and failed attempts retried, on the executor.
+     * Requests to endpoints without an async stack, and downloads, which are streamed to their
+     * file, are performed with {@link #performRequest(Request)} on the executor instead.
+     *
+     * @param request  The request to perform
+     * @param executor Runs everything but the transport
+     * @param callback Called once with the outcome of the request, on a thread of the executor
+     */
+    void performRequest(final PojoRequest<?> request, Executor executor, final Callback callback) {
+        final AsyncRetroStack stack = request.getEndpointAdapter().getAsyncStack();
+        if (stack != null && !(request instanceof DownloadRequest)) {
+            new AsyncExecution(request, stack, executor, callback).attempt();
+            return;
+        }
 
-            while (true) {
-                HttpResponse httpResponse = null;
-                byte[] responseContents = null;
-                Map<String, String> responseHeaders = new HashMap<String, String>();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final NetworkResponse response;
                 try {
-                    /* Gather headers. */
-                    Map<String, String> headers = new HashMap<String, String>();
-                    addCacheHeaders(headers, request.getCacheEntry());
-                    if (interceptor != null) {
-                        interceptor.intercept(request);
-                    }
-                    httpResponse = stack.performRequest(request, headers);
-                    StatusLine statusLine = httpResponse.getStatusLine();
-                    int statusCode = statusLine.getStatusCode();
-
-                    responseHeaders = mNetworkHelper.convertHeaders(httpResponse.getAllHeaders());
-                    /* Handle cache validation. */
-                    if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
-                        return new NetworkResponse(
-                                HttpStatus.SC_NOT_MODIFIED,
-                                request.getCacheEntry() == null ? null : request.getCacheEntry().data,
-                                responseHeaders,
-                                true
-                        );
-                    }
+                    response = performRequest(request);
+                } catch (Exception e) {
+                    callback.onError(e);
+                    return;
+                }
+                callback.onResponse(response);
+            }
+        });
+    }
 
-                    responseContents = mNetworkHelper.getResponse(httpResponse);
+    private NetworkResponse execute(PojoRequest<?> request) throws VolleyError {
+        EndpointAdapter adapter = request.getEndpointAdapter();
+        HttpStack stack = adapter.getHttpStack();
 
-                    /* Log request time */
-                    long requestLifetime = SystemClock.elapsedRealtime() - requestStart;
-                    logSlowRequests(requestLifetime, request, responseContents, statusLine);
+        long requestStart = SystemClock.elapsedRealtime();
 
-                    /* Throw exception if status code is not valid */
-                    if (statusCode < 200 || statusCode > 299) {
-                        throw new IOException();
-                    }
+        while (true) {
+            Attempt attempt = new Attempt();
+            try {
+                Map<String, String> headers = prepareRequest(request, adapter);
+                attempt.httpResponse = stack.performRequest(request, headers);
+                return readResponse(request, attempt, requestStart);
+            } catch (Exception e) {
+                handleFailure(request, attempt, e);
+            }
+        }
+    }
 
-                    return new NetworkResponse(statusCode, responseContents, responseHeaders, false);
-
-                } catch (SocketTimeoutException ste) {
-                    attemptRetryOnException("socket", request, new TimeoutError());
-                } catch (ConnectTimeoutException cte) {
-                    attemptRetryOnException("connection", request, new TimeoutError());
-                } catch (MalformedURLException mue) {
-                    throw new RuntimeException("Bad URL " + request.getUrl(), mue);
-                } catch (AuthFailureError ae) {
-                    tryRelogin(ae, request, authStrategy, stack, converter);
-                } catch (IOException ioe) {
-
-                    int statusCode;
-                    if (httpResponse != null) {
-                        statusCode = httpResponse.getStatusLine().getStatusCode();
-                    } else {
-                        throw new NoConnectionError(ioe);
-                    }
+    /**
+     * Gather the request headers and let the interceptor update the request
+     *
+     * @return Headers to send along with the request headers
+     * @throws AuthFailureError If the interceptor can't authenticate the request
+     */
+    private Map<String, String> prepareRequest(PojoRequest<?> request, EndpointAdapter adapter)
+            throws AuthFailureError {
+        DictionaryCodec dictionaryCodec = adapter.getDictionaryCodec();
+        RequestInterceptor interceptor = adapter.getRequestInterceptor();
+
+        Map<String, String> headers = new HashMap<String, String>();
+        if (dictionaryCodec != null) {
+            headers.put(HEADER_ACCEPT_ENCODING, ACCEPT_ENCODING + ", " + DictionaryCodec.CONTENT_ENCODING);
+            headers.put(DictionaryCodec.HEADER_DICTIONARY, dictionaryCodec.getVersion());
+        } else {
+            headers.put(HEADER_ACCEPT_ENCODING, ACCEPT_ENCODING);
+        }
+        addCacheHeaders(headers, request.getCacheEntry());
+        if (request instanceof DownloadRequest) {
+            addRangeHeaders(headers, ((DownloadRequest) request).getPartialDownload());
+        }
+        if (interceptor != null) {
+            interceptor.intercept(request);
+        }
+        return headers;
+    }
 
-                    if (responseContents != null) {
-                        NetworkResponse networkResponse = new NetworkResponse(statusCode, responseContents, responseHeaders, false);
-
-                        if (statusCode == HttpStatus.SC_UNAUTHORIZED || statusCode == HttpStatus.SC_FORBIDDEN) {
-                            AuthFailureError ex = new AuthFailureError(networkResponse);
-                            tryRelogin(ex, request, authStrategy, stack, converter);
-                        } else {
-                            // TODO: Only throw ServerError for 5xx status codes.
-                            throw new ServerError(networkResponse);
-                        }
-                    } else {
-                        throw new NetworkError(ioe);
-                    }
+    /**
+     * Read the response of an attempt
+     *
+     * @param request      The performed request
+     * @param attempt      The attempt, with its http response. Keeps what was read if it fails.
+     * @param requestStart When the first attempt started
+     * @return The network response
+     * @throws IOException         If the response can't be read, or its status code is not valid
+     * @throws ConversionException If a streamed element can't be parsed
+     * @throws ServerError         If the response has no body
+     */
+    private NetworkResponse readResponse(PojoRequest<?> request, Attempt attempt, long requestStart)
+            throws IOException, ConversionException, ServerError {
+        final HttpResponse httpResponse = attempt.httpResponse;
+        final DictionaryCodec dictionaryCodec = request.getEndpointAdapter().getDictionaryCodec();
+
+        StatusLine statusLine = httpResponse.getStatusLine();
+        int statusCode = statusLine.getStatusCode();
+
+        Map<String, String> responseHeaders = mNetworkHelper.convertHeaders(httpResponse.getAllHeaders());
+        attempt.responseHeaders = responseHeaders;
+        /* Handle cache validation. */
+        if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
+            return new NetworkResponse(
+                    HttpStatus.SC_NOT_MODIFIED,
+                    request.getCacheEntry() == null ? null : request.getCacheEntry().data,
+                    responseHeaders,
+                    true
+            );
+        }
+
+        /* Downloads are streamed to their file */
+        if (statusCode >= 200 && statusCode <= 299 && request instanceof DownloadRequest) {
+            DownloadRequest download = (DownloadRequest) request;
+            mNetworkHelper.download(httpResponse, download.getPartialDownload(),
+                    download.getProgressListener(), request, request.getTransferStats(), dictionaryCodec);
+            stripDecodedHeaders(request, responseHeaders);
+
+            /* Log request time */
+            long requestLifetime = SystemClock.elapsedRealtime() - requestStart;
+            logSlowRequests(requestLifetime, request, null, statusLine);
+
+            return new NetworkResponse(statusCode, new byte[0], responseHeaders, false);
+        }
+
+        /* Streamed lists are delivered while they're read */
+        if (statusCode >= 200 && statusCode <= 299 && request instanceof StreamRequest) {
+            mNetworkHelper.stream(httpResponse, HttpHeaderParser.parseCharset(responseHeaders),
+                    (StreamRequest<?>) request, request.getTransferStats(), dictionaryCodec);
+            stripDecodedHeaders(request, responseHeaders);
+
+            /* Log request time */
+            long requestLifetime = SystemClock.elapsedRealtime() - requestStart;
+            logSlowRequests(requestLifetime, request, null, statusLine);
+
+            return new NetworkResponse(statusCode, new byte[0], responseHeaders, false);
+        }
+
+        /* Successful responses that won't be cached are parsed straight from the read buffer */
+        if (statusCode >= 200 && statusCode <= 299 && !request.shouldCache()) {
+            NetworkResponse response = mNetworkHelper.getPooledResponse(statusCode, httpResponse,
+                    responseHeaders, request.getTransferStats(), dictionaryCodec);
+            stripDecodedHeaders(request, responseHeaders);
+
+            /* Log request time */
+            long requestLifetime = SystemClock.elapsedRealtime() - requestStart;
+            logSlowRequests(requestLifetime, request, response.data, statusLine);
+
+            return response;
+        }
+
+        byte[] responseContents = mNetworkHelper.getResponse(httpResponse, request.getTransferStats(), dictionaryCodec);
+        attempt.responseContents = responseContents;
+        stripDecodedHeaders(request, responseHeaders);
+
+        /* Log request time */
+        long requestLifetime = SystemClock.elapsedRealtime() - requestStart;
+        logSlowRequests(requestLifetime, request, responseContents, statusLine);
+
+        /* Throw exception if status code is not valid */
+        if (statusCode < 200 || statusCode > 299) {
+            throw new IOException();
+        }
+
+        return new NetworkResponse(statusCode, responseContents, responseHeaders, false);
+    }
+
+    /**
+     * Decide what to do after an attempt failed
+     *
+     * @param request The performed request
+     * @param attempt The failed attempt
+     * @param e       Why it failed
+     * @throws VolleyError If the request shouldn't be sent again
+     */
+    private void handleFailure(PojoRequest<?> request, Attempt attempt, Exception e) throws VolleyError {
+        EndpointAdapter adapter = request.getEndpointAdapter();
+        HttpStack stack = adapter.getHttpStack();
+        Converter converter = adapter.getConverter();
+        AuthStrategy authStrategy = adapter.getAuthStrategy();
+
+        if (e instanceof SocketTimeoutException) {
+            attemptRetryOnException("socket", request, new TimeoutError());
+        } else if (e instanceof ConnectTimeoutException) {
+            attemptRetryOnException("connection", request, new TimeoutError());
+        } else if (e instanceof MalformedURLException) {
+            throw new RuntimeException("Bad URL " + request.getUrl(), e);
+        } else if (e instanceof ConversionException) {
+            throw new ParseError(e);
+        } else if (e instanceof NetworkHelper.IncompleteBodyException) {
+            attemptRetryOnException("incomplete-body", request, new NetworkError(e));
+        } else if (e instanceof AuthFailureError) {
+            tryRelogin((AuthFailureError) e, request, authStrategy, stack, converter);
+        } else if (e instanceof IOException) {
+
+            int statusCode;
+            if (attempt.httpResponse != null) {
+                statusCode = attempt.httpResponse.getStatusLine().getStatusCode();
+            } else {
+                throw new NoConnectionError(e);
+            }
+
+            if (attempt.responseContents != null) {
+                NetworkResponse networkResponse = new NetworkResponse(statusCode, attempt.responseContents,
+                        attempt.responseHeaders, false);
+
+                if (statusCode == HttpStatus.SC_UNAUTHORIZED || statusCode == HttpStatus.SC_FORBIDDEN) {
+                    AuthFailureError ex = new AuthFailureError(networkResponse);
+                    tryRelogin(ex, request, authStrategy, stack, converter);
+                } else if (statusCode == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE
+                        && request instanceof DownloadRequest
+                        && ((DownloadRequest) request).getPartialDownload().discard()) {
+                    /* The partially downloaded bytes don't match the resource anymore, start over */
+                    request.addMarker("download-restarted");
+                } else if (statusCode == HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE && request.isBodyCompressed()) {
+                    /* The server doesn't accept compressed bodies, send this one and the next ones plain */
+                    adapter.disableRequestCompression();
+                    request.addMarker("request-compression-disabled");
+                } else {
+                    // TODO: Only throw ServerError for 5xx status codes.
+                    throw new ServerError(networkResponse);
                 }
+            } else {
+                throw new NetworkError(e);
             }
+        } else if (e instanceof VolleyError) {
+            throw (VolleyError) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
         } else {
-            throw new IllegalArgumentException("Use request builder in order to use RetroVolley");
+            throw new VolleyError(e);
         }
     }
 
+    /**
+     * Serve the expired cached response instead, if the server allows it
+     *
+     * @throws VolleyError The given error, if there is no cached response to serve
+     */
+    private static NetworkResponse serveStaleIfError(PojoRequest<?> request, VolleyError ve) throws VolleyError {
+        Cache.Entry entry = isServerUnavailable(ve) ? request.getStaleIfErrorEntry() : null;
+        if (entry == null) {
+            throw ve;
+        }
+        request.addMarker("stale-if-error");
+        if (!request.hasHadResponseDelivered()) {
+            return new StaleNetworkResponse(entry);
+        }
+        /* The stale response was already delivered while it was refreshed */
+        return new NetworkResponse(HttpStatus.SC_NOT_MODIFIED, entry.data, entry.responseHeaders, true);
+    }
+
+    private static NetworkResponse checkNotModified(PojoRequest<?> request, NetworkResponse response) {
+        /* The dispatcher finishes the request without delivering the response again */
+        if (response.notModified && request.hasHadResponseDelivered()) {
+            request.onRefreshNotModified();
+        }
+        return response;
+    }
+
+    /**
+     * @return True if the error means the server couldn't be reached or failed, not that it rejected the request
+     */
+    private static boolean isServerUnavailable(VolleyError error) {
+        if (error instanceof ServerError) {
+            return error.networkResponse != null && error.networkResponse.statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+        }
+        return error instanceof NetworkError || error instanceof TimeoutError;
+    }
+
     private void tryRelogin(AuthFailureError ex, Request<?> request, AuthStrategy authStrategy, HttpStack httpStack, Converter converter) throws VolleyError {
         if (authStrategy != null && authStrategy.authenticate(httpStack, converter, mNetworkHelper)) {
             attemptRetryOnException("auth", request, ex);
@@ -176,6 +387,31 @@ class RetroVolleyNetwork implements Network {
         }
     }
 
+    /**
+     * Ask only for the missing bytes of a partial download, if it can be resumed.
+     * Ranges refer to the encoded body, so a resumed download isn't encoded.
+     */
+    private static void addRangeHeaders(Map<String, String> headers, PartialDownload download) {
+        final String validator = download.getValidator();
+        final long length = download.length();
+        if (validator == null || length <= 0) {
+            return;
+        }
+
+        headers.put(HEADER_ACCEPT_ENCODING, NetworkHelper.ENCODING_IDENTITY);
+        headers.put(HEADER_RANGE, "bytes=" + length + "-");
+        headers.put(HEADER_IF_RANGE, validator);
+    }
+
+    /**
+     * The body is decoded, don't let the headers tell otherwise
+     */
+    private static void stripDecodedHeaders(PojoRequest<?> request, Map<String, String> responseHeaders) {
+        if (request.getTransferStats().getContentEncoding() != null) {
+            removeHeader(responseHeaders, NetworkHelper.HEADER_CONTENT_ENCODING);
+            removeHeader(responseHeaders, HEADER_CONTENT_LENGTH);
+        }
+    }
 
     /**
      * Logs requests that took over SLOW_REQUEST_THRESHOLD_MS to complete.
@@ -210,6 +446,21 @@ class RetroVolleyNetwork implements Network {
         request.addMarker(String.format("%s-retry [timeout=%s]", logPrefix, oldTimeout));
     }
 
+    /**
+     * Remove a header from the map, ignoring the name case
+     *
+     * @param headers Response headers
+     * @param name    The header name
+     */
+    private static void removeHeader(Map<String, String> headers, String name) {
+        Iterator<String> iterator = headers.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (name.equalsIgnoreCase(iterator.next())) {
+                iterator.remove();
+            }
+        }
+    }
+
     /**
      * Add a cache header to the request
      *
@@ -232,5 +483,109 @@ class RetroVolleyNetwork implements Network {
         }
     }
 
-}
+    /**
+     * Receives the outcome of a request performed with
+     * {@link #performRequest(PojoRequest, Executor, Callback)}
+     */
+    interface Callback {
 
+        void onResponse(NetworkResponse response);
+
+        /**
+         * @param error A {@link VolleyError}, or an unexpected exception
+         */
+        void onError(Exception error);
+    }
+
+    /**
+     * What was received by a single attempt to perform a request
+     */
+    private static final class Attempt {
+
+        HttpResponse httpResponse;
+        byte[] responseContents;
+        Map<String, String> responseHeaders = new HashMap<String, String>();
+    }
+
+    /**
+     * A request performed over an {@link AsyncRetroStack}, attempt after attempt, the same way
+     * {@link #execute(PojoRequest)} does on a blocking stack
+     */
+    private final class AsyncExecution implements AsyncRetroStack.Callback {
+
+        private final PojoRequest<?> mRequest;
+        private final AsyncRetroStack mStack;
+        private final Executor mExecutor;
+        private final Callback mCallback;
+        private final long mRequestStart = SystemClock.elapsedRealtime();
+
+        private Attempt mAttempt;
+
+        AsyncExecution(PojoRequest<?> request, AsyncRetroStack stack, Executor executor, Callback callback) {
+            mRequest = request;
+            mStack = stack;
+            mExecutor = executor;
+            mCallback = callback;
+        }
+
+        void attempt() {
+            mAttempt = new Attempt();
+            try {
+                mStack.performRequest(mRequest, prepareRequest(mRequest, mRequest.getEndpointAdapter()), this);
+            } catch (Exception e) {
+                onFailure(e);
+            }
+        }
+
+        @Override
+        public void onResponse(final HttpResponse response) {
+            /* Called on the stack's thread, read the response on the executor */
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mAttempt.httpResponse = response;
+                    final NetworkResponse networkResponse;
+                    try {
+                        networkResponse = readResponse(mRequest, mAttempt, mRequestStart);
+                    } catch (Exception e) {
+                        onFailure(e);
+                        return;
+                    }
+                    mCallback.onResponse(checkNotModified(mRequest, networkResponse));
+                }
+            });
+        }
+
+        @Override
+        public void onError(final IOException error) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    onFailure(error);
+                }
+            });
+        }
+
+        private void onFailure(Exception e) {
+            try {
+                handleFailure(mRequest, mAttempt, e);
+            } catch (VolleyError ve) {
+                final NetworkResponse response;
+                try {
+                    response = serveStaleIfError(mRequest, ve);
+                } catch (VolleyError error) {
+                    mCallback.onError(error);
+                    return;
+                }
+                mCallback.onResponse(checkNotModified(mRequest, response));
+                return;
+            } catch (RuntimeException re) {
+                mCallback.onError(re);
+                return;
+            }
+
+            /* The retry policy allows another attempt */
+            attempt();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley;
+
+import com.android.volley.Cache;
+import com.android.volley.NetworkResponse;
+import org.apache.http.HttpStatus;
+
+/**
+ * An expired cached response, served because the network request failed and the server
+ * allowed it with a {@code stale-if-error} directive. It's delivered, but never cached again.
+ *
+ * @author Konstantin Tarasenko
+ */
+public final class StaleNetworkResponse extends NetworkResponse {
+
+    StaleNetworkResponse(Cache.Entry entry) {
+        super(HttpStatus.SC_OK, entry.data, entry.responseHeaders, false);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley;
+
+/**
+ * Size of the last response body received by a request, as read from the network
+ * and after decoding its content encoding.
+ *
+ * @author Konstantin Tarasenko
+ */
+public final class TransferStats {
+
+    private volatile String mContentEncoding;
+    private volatile long mWireBytes;
+    private volatile long mDecodedBytes;
+
+    /**
+     * @return The content encoding of the response body, null if it was not encoded
+     */
+    public String getContentEncoding() {
+        return mContentEncoding;
+    }
+
+    /**
+     * @return Number of body bytes read from the network
+     */
+    public long getWireBytes() {
+        return mWireBytes;
+    }
+
+    /**
+     * @return Number of body bytes after decoding
+     */
+    public long getDecodedBytes() {
+        return mDecodedBytes;
+    }
+
+    /**
+     * Record the last response body
+     */
+    void set(String contentEncoding, long wireBytes, long decodedBytes) {
+        mContentEncoding = contentEncoding;
+        mWireBytes = wireBytes;
+        mDecodedBytes = decodedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "TransferStats{contentEncoding=" + mContentEncoding
+                + ", wireBytes=" + mWireBytes
+                + ", decodedBytes=" + mDecodedBytes + '}';
+    }
+}
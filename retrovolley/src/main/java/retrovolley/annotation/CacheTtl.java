@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Caches the responses of the annotated rest call for the given times, regardless of the
+ * server's cache headers. Annotated rest calls are cached unless the request builder says otherwise.
+ * <br>
+ * A response younger than the soft TTL is served from the cache. Up to the hard TTL it is
+ * still served from the cache, and refreshed from the network right away. A server's
+ * {@code stale-while-revalidate} directive can extend the hard TTL.
+ *
+ * @author Serghei Lotutovici
+ */
+@Documented
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CacheTtl {
+
+    /**
+     * @return Milliseconds the response is served from the cache without being refreshed
+     */
+    long soft();
+
+    /**
+     * @return Milliseconds the response is served from the cache while it's refreshed,
+     * the soft TTL if not set or lower
+     */
+    long hard() default -1;
+}
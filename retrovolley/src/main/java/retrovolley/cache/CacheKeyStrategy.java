@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.cache;
+
+import retrovolley.mime.TypedOutput;
+
+/**
+ * Maps requests to the key their responses are cached under. Requests that should share
+ * a cached response must get the same key.
+ *
+ * @author Konstantin Tarasenko
+ * @see retrovolley.EndpointAdapter.Builder#setCacheKeyStrategy(CacheKeyStrategy)
+ */
+public interface CacheKeyStrategy {
+
+    /**
+     * Called once for every request that should be cached, when it's built
+     *
+     * @param method The request method, one of {@link com.android.volley.Request.Method}
+     * @param url    The request url, with the GET parameters
+     * @param body   The request body, or null if there is none
+     * @return The cache key, or null if the response must not be cached
+     */
+    String getCacheKey(int method, String url, TypedOutput body);
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.cache;
+
+import com.android.volley.Request;
+
+import retrovolley.mime.TypedByteArray;
+import retrovolley.mime.TypedObject;
+import retrovolley.mime.TypedOutput;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The default {@link CacheKeyStrategy}. GET requests are keyed by their url, with the query
+ * parameters sorted by name, so the order they were added in doesn't matter. Parameters with
+ * the same name keep their order. Parameters that change on every call, like timestamps or
+ * nonces, can be left out of the key.
+ * <br>
+ * POST requests are cached only if enabled, for endpoints using POST for queries that
+ * don't change anything. They're keyed by their url and a hash of their body. Only bodies
+ * held in memory are hashed, a {@link TypedObject} is serialized once and the same bytes are
+ * sent later. POST requests with file, stream or multipart bodies aren't cached, as hashing
+ * them would read the whole body on the thread building the request, or consume it.
+ * Other requests are never cached.
+ *
+ * @author Konstantin Tarasenko
+ */
+public class CanonicalCacheKeyStrategy implements CacheKeyStrategy {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Discards the body, only its hash is needed
+     */
+    private static final OutputStream NULL_STREAM = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private static final Comparator<String> PARAM_NAME_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String lhs, String rhs) {
+            return paramName(lhs).compareTo(paramName(rhs));
+        }
+    };
+
+    private final Set<String> mIgnoredParams;
+    private final boolean mCachePostRequests;
+
+    /**
+     * Key GET requests by their canonical url, don't cache POST requests
+     */
+    public CanonicalCacheKeyStrategy() {
+        this(false);
+    }
+
+    /**
+     * @param cachePostRequests True to cache POST requests, keyed by their body
+     * @param ignoredParams     Names of the query parameters left out of the key, as they appear in the url
+     */
+    public CanonicalCacheKeyStrategy(boolean cachePostRequests, String... ignoredParams) {
+        mCachePostRequests = cachePostRequests;
+        mIgnoredParams = new HashSet<String>(Arrays.asList(ignoredParams));
+    }
+
+    @Override
+    public String getCacheKey(int method, String url, TypedOutput body) {
+        if (method == Request.Method.GET) {
+            return canonicalUrl(url);
+        }
+
+        if (method == Request.Method.POST && mCachePostRequests) {
+            final String bodyHash = hash(body);
+            return bodyHash != null ? "POST " + canonicalUrl(url) + " " + bodyHash : null;
+        }
+
+        return null;
+    }
+
+    /**
+     * @return The url without fragment, ignored parameters, and with the parameters sorted by name
+     */
+    String canonicalUrl(String url) {
+        final int fragment = url.indexOf('#');
+        if (fragment >= 0) {
+            url = url.substring(0, fragment);
+        }
+
+        final int query = url.indexOf('?');
+        if (query < 0) {
+            return url;
+        }
+
+        final List<String> params = new ArrayList<String>();
+        for (String param : url.substring(query + 1).split("&")) {
+            if (param.length() > 0 && !mIgnoredParams.contains(paramName(param))) {
+                params.add(param);
+            }
+        }
+        /* Sorting is stable, repeated parameters keep their order */
+        Collections.sort(params, PARAM_NAME_ORDER);
+
+        final StringBuilder builder = new StringBuilder(url.length());
+        builder.append(url, 0, query);
+        for (int i = 0; i < params.size(); i++) {
+            builder.append(i == 0 ? '?' : '&').append(params.get(i));
+        }
+        return builder.toString();
+    }
+
+    private static String paramName(String param) {
+        final int separator = param.indexOf('=');
+        return separator >= 0 ? param.substring(0, separator) : param;
+    }
+
+    /**
+     * @return The SHA-1 of the body in hex, an empty string without a body, or null if it isn't held in memory
+     */
+    private static String hash(TypedOutput body) {
+        if (body == null) {
+            return "";
+        }
+        if (!(body instanceof TypedByteArray) && !(body instanceof TypedObject)) {
+            return null;
+        }
+
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new RuntimeException(nsae);
+        }
+
+        try {
+            body.writeTo(new DigestOutputStream(NULL_STREAM, digest));
+        } catch (IOException ioe) {
+            return null;
+        }
+
+        final byte[] hash = digest.digest();
+        final char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0x0f];
+            hex[2 * i + 1] = HEX_DIGITS[hash[i] & 0x0f];
+        }
+        return new String(hex);
+    }
+}
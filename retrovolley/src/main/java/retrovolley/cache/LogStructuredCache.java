@@ -0,0 +1,740 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.cache;
+
+import com.android.volley.Cache;
+
+import retrovolley.Logging;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A {@link Cache} storing entries in a few memory mapped segment files instead of a file per entry.
+ * <br>
+ * Entries are appended to the current segment, and their location is appended to a journal.
+ * On startup the journal is read in one go to rebuild the index, no entry is opened, so starting
+ * up doesn't depend on the number of files like with {@link com.android.volley.toolbox.DiskBasedCache}.
+ * Lookups go through an in-memory index, and entries are read straight from the mapped segments.
+ * <br>
+ * Once the cache is full the oldest segment is dropped. Segments mostly holding replaced
+ * or removed entries are compacted in the background, their remaining entries are moved
+ * to the current segment.
+ *
+ * @author Konstantin Tarasenko
+ */
+public final class LogStructuredCache implements Cache {
+
+    /**
+     * Default maximum size of all segments
+     */
+    private static final int DEFAULT_MAX_SIZE = 5 * 1024 * 1024;
+
+    /**
+     * Default size of a single segment, entries bigger than that aren't cached
+     */
+    private static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+    /**
+     * Magic number starting every entry, to detect a corrupted index
+     */
+    private static final int ENTRY_MAGIC = 0x52564c43;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_TMP_FILE = "journal.tmp";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    /**
+     * The journal is rewritten once it holds this many times more records than there are entries
+     */
+    private static final int JOURNAL_REWRITE_FACTOR = 2;
+    private static final int JOURNAL_REWRITE_MIN_RECORDS = 256;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mRootDirectory;
+    private final int mMaxSize;
+    private final int mSegmentSize;
+
+    /**
+     * Where every entry is stored
+     */
+    private final Map<String, Location> mIndex = new HashMap<String, Location>();
+
+    /**
+     * The segments by id, the oldest one first
+     */
+    private final TreeMap<Integer, Segment> mSegments = new TreeMap<Integer, Segment>();
+
+    /**
+     * The segment entries are appended to
+     */
+    private Segment mActiveSegment;
+
+    private DataOutputStream mJournal;
+    private int mJournalRecords;
+
+    private boolean mInitialized;
+
+    /**
+     * Set while a compaction is scheduled or running
+     */
+    private boolean mCompacting;
+
+    private final ExecutorService mCompactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "RetroVolley-cache-compaction");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    /**
+     * @param rootDirectory The directory of the cache, used by this cache only
+     */
+    public LogStructuredCache(File rootDirectory) {
+        this(rootDirectory, DEFAULT_MAX_SIZE, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param rootDirectory The directory of the cache, used by this cache only
+     * @param maxSize       The maximum size of the cache on disk, in bytes
+     * @param segmentSize   The size of a segment file, bigger entries aren't cached
+     * @throws java.lang.IllegalArgumentException If the cache can't hold at least two segments
+     */
+    public LogStructuredCache(File rootDirectory, int maxSize, int segmentSize) {
+        if (segmentSize <= 0 || maxSize / 2 < segmentSize) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid cache sizes: %d, %d", maxSize, segmentSize));
+        }
+        mRootDirectory = rootDirectory;
+        mMaxSize = maxSize;
+        mSegmentSize = segmentSize;
+    }
+
+    @Override
+    public synchronized void initialize() {
+        if (mInitialized) {
+            return;
+        }
+        mInitialized = true;
+
+        try {
+            if (!mRootDirectory.exists() && !mRootDirectory.mkdirs()) {
+                throw new IOException("Can't create cache directory " + mRootDirectory);
+            }
+            openSegments();
+            replayJournal();
+        } catch (IOException ioe) {
+            Logging.e("Can't read the cache, starting with an empty one", ioe);
+            reset();
+        }
+        scheduleCompaction();
+    }
+
+    @Override
+    public synchronized Entry get(String key) {
+        final Location location = mIndex.get(key);
+        if (location == null) {
+            return null;
+        }
+
+        final ByteBuffer record = read(location);
+        try {
+            if (record.getInt() != ENTRY_MAGIC || !key.equals(readString(record))) {
+                throw new BufferUnderflowException();
+            }
+            return readEntry(record);
+        } catch (BufferUnderflowException bue) {
+            Logging.d("Dropping corrupted cache entry " + key, bue);
+            remove(key);
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized void put(String key, Entry entry) {
+        if (!mInitialized) {
+            return;
+        }
+
+        final byte[] record;
+        try {
+            record = writeRecord(key, entry);
+        } catch (IOException ioe) {
+            /* Writing to memory doesn't fail */
+            throw new RuntimeException(ioe);
+        }
+
+        if (record.length > mSegmentSize) {
+            /* Too big to cache, but don't keep serving the previous entry */
+            remove(key);
+            return;
+        }
+
+        append(key, record);
+        scheduleCompaction();
+    }
+
+    @Override
+    public synchronized void invalidate(String key, boolean fullExpire) {
+        final Entry entry = get(key);
+        if (entry != null) {
+            entry.softTtl = 0;
+            if (fullExpire) {
+                entry.ttl = 0;
+            }
+            put(key, entry);
+        }
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        final Location location = mIndex.remove(key);
+        if (location != null) {
+            release(location);
+            writeJournal(OP_REMOVE, key, null);
+            scheduleCompaction();
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        reset();
+        Logging.d("Cache cleared");
+    }
+
+    /**
+     * @return The number of cached entries
+     */
+    public synchronized int size() {
+        return mIndex.size();
+    }
+
+    /**
+     * @return The number of segment files
+     */
+    public synchronized int getSegmentCount() {
+        return mSegments.size();
+    }
+
+    /**
+     * Map the existing segments, the newest one is continued
+     */
+    private void openSegments() throws IOException {
+        final File[] files = mRootDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                final String name = file.getName();
+                if (!name.endsWith(SEGMENT_SUFFIX)) {
+                    continue;
+                }
+                try {
+                    final int id = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                    mSegments.put(id, new Segment(id, file, mSegmentSize));
+                } catch (NumberFormatException nfe) {
+                    /* Not a segment */
+                }
+            }
+        }
+
+        mActiveSegment = mSegments.isEmpty() ? newSegment(0) : mSegments.lastEntry().getValue();
+    }
+
+    /**
+     * Rebuild the index from the journal. A torn record at the end, left by a crash, is dropped.
+     */
+    private void replayJournal() throws IOException {
+        final File journalFile = new File(mRootDirectory, JOURNAL_FILE);
+        int validLength = 0;
+        int records = 0;
+
+        if (journalFile.exists()) {
+            final RandomAccessFile file = new RandomAccessFile(journalFile, "r");
+            try {
+                final MappedByteBuffer journal = file.getChannel().map(
+                        FileChannel.MapMode.READ_ONLY, 0, file.length());
+                while (journal.hasRemaining()) {
+                    try {
+                        replayRecord(journal);
+                    } catch (BufferUnderflowException bue) {
+                        break;
+                    }
+                    validLength = journal.position();
+                    records++;
+                }
+            } finally {
+                file.close();
+            }
+        }
+
+        /* New entries go after the last one of the active segment */
+        for (Location location : mIndex.values()) {
+            mSegments.get(location.segment).liveBytes += location.length;
+            if (location.segment == mActiveSegment.id) {
+                mActiveSegment.position = Math.max(mActiveSegment.position, location.offset + location.length);
+            }
+        }
+
+        if (records > JOURNAL_REWRITE_FACTOR * mIndex.size() + JOURNAL_REWRITE_MIN_RECORDS) {
+            rewriteJournal();
+        } else {
+            final RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+            try {
+                file.setLength(validLength);
+            } finally {
+                file.close();
+            }
+            mJournal = openJournal(journalFile, true);
+            mJournalRecords = records;
+        }
+    }
+
+    private void replayRecord(ByteBuffer journal) {
+        final byte op = journal.get();
+        final String key = readString(journal);
+        if (op == OP_PUT) {
+            final int segment = journal.getInt();
+            final int offset = journal.getInt();
+            final int length = journal.getInt();
+            if (mSegments.containsKey(segment) && offset >= 0 && length > 0 && offset <= mSegmentSize - length) {
+                mIndex.put(key, new Location(segment, offset, length));
+            } else {
+                /* The segment was dropped */
+                mIndex.remove(key);
+            }
+        } else if (op == OP_REMOVE) {
+            mIndex.remove(key);
+        } else {
+            throw new BufferUnderflowException();
+        }
+    }
+
+    /**
+     * Write a new journal holding only the current entries
+     */
+    private void rewriteJournal() throws IOException {
+        if (mJournal != null) {
+            mJournal.close();
+        }
+
+        final File tmpFile = new File(mRootDirectory, JOURNAL_TMP_FILE);
+        mJournal = openJournal(tmpFile, false);
+        mJournalRecords = 0;
+        for (Map.Entry<String, Location> entry : mIndex.entrySet()) {
+            writeJournal(OP_PUT, entry.getKey(), entry.getValue());
+        }
+        mJournal.close();
+
+        final File journalFile = new File(mRootDirectory, JOURNAL_FILE);
+        if (!tmpFile.renameTo(journalFile)) {
+            throw new IOException("Can't replace the cache journal");
+        }
+        mJournal = openJournal(journalFile, true);
+    }
+
+    private static DataOutputStream openJournal(File file, boolean append) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, append)));
+    }
+
+    /**
+     * Record a change of the index. A journal that can't be written only loses the change on restart.
+     */
+    private void writeJournal(byte op, String key, Location location) {
+        if (mJournal == null) {
+            return;
+        }
+        try {
+            mJournal.writeByte(op);
+            writeString(mJournal, key);
+            if (op == OP_PUT) {
+                mJournal.writeInt(location.segment);
+                mJournal.writeInt(location.offset);
+                mJournal.writeInt(location.length);
+            }
+            mJournal.flush();
+            mJournalRecords++;
+        } catch (IOException ioe) {
+            Logging.e("Can't write the cache journal", ioe);
+        }
+    }
+
+    /**
+     * Append an entry record to the active segment, starting a new segment if it doesn't fit
+     */
+    private void append(String key, byte[] record) {
+        if (mActiveSegment.position + record.length > mSegmentSize) {
+            try {
+                mActiveSegment = newSegment(mActiveSegment.id + 1);
+            } catch (IOException ioe) {
+                Logging.e("Can't create a cache segment", ioe);
+                remove(key);
+                return;
+            }
+            trimToSize();
+        }
+
+        final Location location = new Location(mActiveSegment.id, mActiveSegment.position, record.length);
+        final ByteBuffer buffer = mActiveSegment.buffer.duplicate();
+        buffer.position(location.offset);
+        buffer.put(record);
+        mActiveSegment.position += record.length;
+        mActiveSegment.liveBytes += record.length;
+
+        final Location previous = mIndex.put(key, location);
+        if (previous != null) {
+            release(previous);
+        }
+        writeJournal(OP_PUT, key, location);
+    }
+
+    private Segment newSegment(int id) throws IOException {
+        final Segment segment = new Segment(id, new File(mRootDirectory, id + SEGMENT_SUFFIX), mSegmentSize);
+        mSegments.put(id, segment);
+        return segment;
+    }
+
+    /**
+     * Drop the oldest segments until the cache fits its maximum size
+     */
+    private void trimToSize() {
+        while ((long) mSegments.size() * mSegmentSize > mMaxSize && mSegments.size() > 1) {
+            deleteSegment(mSegments.firstEntry().getValue());
+        }
+    }
+
+    /**
+     * Delete a segment along with the entries it still holds. The journal isn't updated,
+     * entries of missing segments are dropped when it's replayed.
+     */
+    private void deleteSegment(Segment segment) {
+        if (segment.liveBytes > 0) {
+            final Iterator<Location> iterator = mIndex.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().segment == segment.id) {
+                    iterator.remove();
+                }
+            }
+        }
+        mSegments.remove(segment.id);
+        if (!segment.file.delete()) {
+            Logging.d("Can't delete cache segment " + segment.file);
+        }
+    }
+
+    /**
+     * An entry was replaced or removed
+     */
+    private void release(Location location) {
+        final Segment segment = mSegments.get(location.segment);
+        if (segment != null) {
+            segment.liveBytes -= location.length;
+        }
+    }
+
+    /**
+     * @return A buffer holding the record at the location
+     */
+    private ByteBuffer read(Location location) {
+        final ByteBuffer record = mSegments.get(location.segment).buffer.duplicate();
+        record.limit(location.offset + location.length);
+        record.position(location.offset);
+        return record;
+    }
+
+    /**
+     * @return A sealed segment worth compacting, or null if there's none
+     */
+    private Segment findSegmentToCompact() {
+        Segment candidate = null;
+        for (Segment segment : mSegments.values()) {
+            if (segment != mActiveSegment && segment.liveBytes < mSegmentSize / 2
+                    && (candidate == null || segment.liveBytes < candidate.liveBytes)) {
+                candidate = segment;
+            }
+        }
+        return candidate;
+    }
+
+    private void scheduleCompaction() {
+        if (mCompacting || findSegmentToCompact() == null) {
+            return;
+        }
+        mCompacting = true;
+        mCompactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                compact();
+            }
+        });
+    }
+
+    /**
+     * Move the remaining entries of sparse segments to the active one, one entry at a time,
+     * so the cache stays usable meanwhile
+     */
+    private void compact() {
+        while (true) {
+            final Segment segment;
+            final List<String> keys = new ArrayList<String>();
+            synchronized (this) {
+                segment = findSegmentToCompact();
+                if (segment == null) {
+                    mCompacting = false;
+                    rewriteJournalIfNeeded();
+                    return;
+                }
+                for (Map.Entry<String, Location> entry : mIndex.entrySet()) {
+                    if (entry.getValue().segment == segment.id) {
+                        keys.add(entry.getKey());
+                    }
+                }
+            }
+
+            for (String key : keys) {
+                synchronized (this) {
+                    final Location location = mIndex.get(key);
+                    if (mSegments.get(segment.id) != segment) {
+                        /* Dropped meanwhile */
+                        break;
+                    }
+                    if (location == null || location.segment != segment.id) {
+                        continue;
+                    }
+                    final byte[] record = new byte[location.length];
+                    read(location).get(record);
+                    append(key, record);
+                }
+            }
+
+            synchronized (this) {
+                if (mSegments.get(segment.id) == segment && (segment.liveBytes == 0 || keys.isEmpty())) {
+                    deleteSegment(segment);
+                }
+            }
+        }
+    }
+
+    private void rewriteJournalIfNeeded() {
+        if (mJournalRecords > JOURNAL_REWRITE_FACTOR * mIndex.size() + JOURNAL_REWRITE_MIN_RECORDS) {
+            try {
+                rewriteJournal();
+            } catch (IOException ioe) {
+                Logging.e("Can't rewrite the cache journal", ioe);
+                mJournal = null;
+            }
+        }
+    }
+
+    /**
+     * Delete all files and start with an empty cache
+     */
+    private void reset() {
+        if (mJournal != null) {
+            try {
+                mJournal.close();
+            } catch (IOException ioe) {
+                /* Deleted anyway */
+            }
+            mJournal = null;
+        }
+        mIndex.clear();
+        mSegments.clear();
+        mActiveSegment = null;
+        mJournalRecords = 0;
+
+        final File[] files = mRootDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    Logging.d("Can't delete cache file " + file);
+                }
+            }
+        }
+
+        try {
+            if (!mRootDirectory.exists() && !mRootDirectory.mkdirs()) {
+                throw new IOException("Can't create cache directory " + mRootDirectory);
+            }
+            mActiveSegment = newSegment(0);
+            mJournal = openJournal(new File(mRootDirectory, JOURNAL_FILE), false);
+        } catch (IOException ioe) {
+            Logging.e("Can't create the cache, caching is disabled", ioe);
+            mSegments.clear();
+            mInitialized = false;
+        }
+    }
+
+    private static byte[] writeRecord(String key, Entry entry) throws IOException {
+        final int dataLength = entry.data != null ? entry.data.length : 0;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(dataLength + 256);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(ENTRY_MAGIC);
+        writeString(out, key);
+        writeString(out, entry.etag);
+        out.writeLong(entry.serverDate);
+        out.writeLong(entry.lastModified);
+        out.writeLong(entry.ttl);
+        out.writeLong(entry.softTtl);
+        if (entry.responseHeaders != null) {
+            out.writeInt(entry.responseHeaders.size());
+            for (Map.Entry<String, String> header : entry.responseHeaders.entrySet()) {
+                writeString(out, header.getKey());
+                writeString(out, header.getValue());
+            }
+        } else {
+            out.writeInt(0);
+        }
+        out.writeInt(dataLength);
+        if (dataLength > 0) {
+            out.write(entry.data);
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static Entry readEntry(ByteBuffer record) {
+        final Entry entry = new Entry();
+        entry.etag = readString(record);
+        entry.serverDate = record.getLong();
+        entry.lastModified = record.getLong();
+        entry.ttl = record.getLong();
+        entry.softTtl = record.getLong();
+
+        final int headerCount = readLength(record);
+        entry.responseHeaders = new HashMap<String, String>(headerCount * 2);
+        for (int i = 0; i < headerCount; i++) {
+            entry.responseHeaders.put(readString(record), readString(record));
+        }
+
+        entry.data = new byte[readLength(record)];
+        record.get(entry.data);
+        return entry;
+    }
+
+    /**
+     * Write a string as its UTF-8 length and bytes, null as -1
+     */
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = string.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * @return A length read from the buffer, not exceeding what's left of it
+     */
+    private static int readLength(ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return length;
+    }
+
+    /**
+     * Where an entry is stored
+     */
+    private static final class Location {
+
+        final int segment;
+        final int offset;
+        final int length;
+
+        Location(int segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A segment file, mapped as a whole
+     */
+    private static final class Segment {
+
+        final int id;
+        final File file;
+        final MappedByteBuffer buffer;
+
+        /**
+         * Where the next entry is appended, only used for the active segment
+         */
+        int position;
+
+        /**
+         * The summed up size of the entries still in use
+         */
+        int liveBytes;
+
+        Segment(int id, File file, int size) throws IOException {
+            this.id = id;
+            this.file = file;
+            final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                if (randomAccessFile.length() != size) {
+                    randomAccessFile.setLength(size);
+                }
+                /* The mapping stays valid after the file is closed */
+                buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } finally {
+                randomAccessFile.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Keeps the objects parsed from cached responses, so a cache hit doesn't parse the same body
+ * again. Objects are stored along with the version of the cache entry they were parsed from,
+ * and are dropped once the entry changes.
+ * <br>
+ * The cache is bounded by the summed up size of the bodies the objects were parsed from,
+ * as an estimate of their size, the least recently used objects are evicted first.
+ * <br>
+ * The same object is handed to every request hitting the cache, so only immutable
+ * response objects should be cached.
+ *
+ * @author Konstantin Tarasenko
+ * @see retrovolley.EndpointAdapter.Builder#setObjectCache(ObjectCache)
+ */
+public final class ObjectCache {
+
+    private final int mMaxSize;
+
+    /**
+     * The least recently used object first
+     */
+    private final LinkedHashMap<String, Node> mNodes = new LinkedHashMap<String, Node>(32, 0.75f, true);
+
+    private int mSize;
+    private long mHits;
+    private long mMisses;
+
+    /**
+     * @param maxSize The maximum summed up size of the cached objects, see {@link #put}
+     * @throws java.lang.IllegalArgumentException If the size is negative
+     */
+    public ObjectCache(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Invalid object cache size: " + maxSize);
+        }
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Get a cached object
+     *
+     * @param key     The object key
+     * @param version The version of the cache entry the object has to be parsed from
+     * @return The object, or null if there is none for this version
+     */
+    public synchronized Object get(String key, String version) {
+        final Node node = mNodes.get(key);
+        if (node == null || !node.version.equals(version)) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return node.value;
+    }
+
+    /**
+     * Cache an object, replacing the one of a previous version. Objects bigger than
+     * a quarter of the cache aren't cached.
+     *
+     * @param key     The object key
+     * @param version The version of the cache entry the object was parsed from
+     * @param value   The object
+     * @param size    The estimated object size, in bytes
+     */
+    public synchronized void put(String key, String version, Object value, int size) {
+        remove(key);
+        if (value == null || size > mMaxSize / 4) {
+            return;
+        }
+
+        mNodes.put(key, new Node(version, value, size));
+        mSize += size;
+
+        final Iterator<Node> iterator = mNodes.values().iterator();
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            mSize -= iterator.next().size;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Drop a cached object
+     *
+     * @param key The object key
+     */
+    public synchronized void remove(String key) {
+        final Node node = mNodes.remove(key);
+        if (node != null) {
+            mSize -= node.size;
+        }
+    }
+
+    public synchronized void clear() {
+        mNodes.clear();
+        mSize = 0;
+    }
+
+    /**
+     * @return The number of objects served from the cache
+     */
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    /**
+     * @return The number of lookups that found no object of the right version
+     */
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    /**
+     * @return The summed up estimated size of the cached objects
+     */
+    public synchronized int getSize() {
+        return mSize;
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ObjectCache{hits=" + mHits
+                + ", misses=" + mMisses
+                + ", size=" + mSize + "/" + mMaxSize + "}";
+    }
+
+    private static final class Node {
+
+        final String version;
+        final Object value;
+        final int size;
+
+        Node(String version, Object value, int size) {
+            this.version = version;
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
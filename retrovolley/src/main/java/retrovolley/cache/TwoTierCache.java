@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.cache;
+
+import com.android.volley.Cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link Cache} keeping the most recently used entries in memory, in front of another cache,
+ * usually a {@link com.android.volley.toolbox.DiskBasedCache}.
+ * <br>
+ * Entries are written through to both tiers. Entries read from the second tier are promoted
+ * to memory. The memory tier is bounded by the summed up entry size, the least recently used
+ * entries are evicted first. Entries bigger than a quarter of the memory tier are never kept
+ * in memory, so a single big response doesn't flush it.
+ * <br>
+ * Entries served from memory are shared, they must not be modified.
+ *
+ * @author Konstantin Tarasenko
+ */
+public final class TwoTierCache implements Cache {
+
+    /**
+     * Rough size of an entry without its data and headers
+     */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final Cache mSecondTier;
+    private final int mMaxMemorySize;
+
+    /**
+     * The memory tier, the least recently used entry first
+     */
+    private final LinkedHashMap<String, Cache.Entry> mEntries =
+            new LinkedHashMap<String, Cache.Entry>(32, 0.75f, true);
+
+    /**
+     * The summed up estimated size of the entries in memory
+     */
+    private int mMemorySize;
+
+    /**
+     * Incremented on every change, so entries read from the second tier
+     * aren't promoted if they were changed meanwhile
+     */
+    private long mModCount;
+
+    private long mMemoryHits;
+    private long mMemoryMisses;
+    private long mSecondTierHits;
+    private long mSecondTierMisses;
+
+    /**
+     * @param secondTier    The cache behind the memory tier
+     * @param maxMemorySize The maximum summed up size of the entries kept in memory, in bytes
+     * @throws java.lang.IllegalArgumentException If the memory size is negative
+     */
+    public TwoTierCache(Cache secondTier, int maxMemorySize) {
+        if (secondTier == null) {
+            throw new NullPointerException("Second tier cache must not be null");
+        }
+        if (maxMemorySize < 0) {
+            throw new IllegalArgumentException("Invalid memory size: " + maxMemorySize);
+        }
+        mSecondTier = secondTier;
+        mMaxMemorySize = maxMemorySize;
+    }
+
+    @Override
+    public Entry get(String key) {
+        final long modCount;
+        synchronized (this) {
+            Entry entry = mEntries.get(key);
+            if (entry != null) {
+                mMemoryHits++;
+                return entry;
+            }
+            mMemoryMisses++;
+            modCount = mModCount;
+        }
+
+        /* Read the second tier without blocking the memory tier */
+        final Entry entry = mSecondTier.get(key);
+
+        synchronized (this) {
+            if (entry == null) {
+                mSecondTierMisses++;
+                return null;
+            }
+            mSecondTierHits++;
+            if (modCount == mModCount) {
+                putInMemory(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    @Override
+    public void put(String key, Entry entry) {
+        synchronized (this) {
+            mModCount++;
+            putInMemory(key, entry);
+        }
+        mSecondTier.put(key, entry);
+    }
+
+    @Override
+    public void initialize() {
+        mSecondTier.initialize();
+    }
+
+    @Override
+    public void invalidate(String key, boolean fullExpire) {
+        synchronized (this) {
+            mModCount++;
+            Entry entry = mEntries.get(key);
+            if (entry != null) {
+                entry.softTtl = 0;
+                if (fullExpire) {
+                    entry.ttl = 0;
+                }
+            }
+        }
+        mSecondTier.invalidate(key, fullExpire);
+    }
+
+    @Override
+    public void remove(String key) {
+        synchronized (this) {
+            mModCount++;
+            removeFromMemory(key);
+        }
+        mSecondTier.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        synchronized (this) {
+            mModCount++;
+            mEntries.clear();
+            mMemorySize = 0;
+        }
+        mSecondTier.clear();
+    }
+
+    /**
+     * Keep an entry in memory if it fits, evicting the least recently used ones.
+     * Must be called holding the lock.
+     */
+    private void putInMemory(String key, Entry entry) {
+        removeFromMemory(key);
+
+        final int size = sizeOf(entry);
+        if (size > mMaxMemorySize / 4) {
+            return;
+        }
+
+        mEntries.put(key, entry);
+        mMemorySize += size;
+
+        final Iterator<Entry> iterator = mEntries.values().iterator();
+        while (mMemorySize > mMaxMemorySize && iterator.hasNext()) {
+            mMemorySize -= sizeOf(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Must be called holding the lock
+     */
+    private void removeFromMemory(String key) {
+        final Entry entry = mEntries.remove(key);
+        if (entry != null) {
+            mMemorySize -= sizeOf(entry);
+        }
+    }
+
+    /**
+     * @return The estimated memory used by an entry
+     */
+    private static int sizeOf(Entry entry) {
+        int size = ENTRY_OVERHEAD + (entry.data != null ? entry.data.length : 0);
+        if (entry.etag != null) {
+            size += 2 * entry.etag.length();
+        }
+        if (entry.responseHeaders != null) {
+            for (Map.Entry<String, String> header : entry.responseHeaders.entrySet()) {
+                size += 2 * (header.getKey().length() + header.getValue().length());
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return The number of entries served from memory
+     */
+    public synchronized long getMemoryHits() {
+        return mMemoryHits;
+    }
+
+    /**
+     * @return The number of entries not found in memory
+     */
+    public synchronized long getMemoryMisses() {
+        return mMemoryMisses;
+    }
+
+    /**
+     * @return The number of entries served from the second tier
+     */
+    public synchronized long getSecondTierHits() {
+        return mSecondTierHits;
+    }
+
+    /**
+     * @return The number of entries found in neither tier
+     */
+    public synchronized long getSecondTierMisses() {
+        return mSecondTierMisses;
+    }
+
+    /**
+     * @return The estimated summed up size of the entries in memory
+     */
+    public synchronized int getMemorySize() {
+        return mMemorySize;
+    }
+
+    /**
+     * @return The maximum summed up size of the entries in memory
+     */
+    public int getMaxMemorySize() {
+        return mMaxMemorySize;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TwoTierCache{memoryHits=" + mMemoryHits
+                + ", memoryMisses=" + mMemoryMisses
+                + ", secondTierHits=" + mSecondTierHits
+                + ", secondTierMisses=" + mSecondTierMisses
+                + ", memorySize=" + mMemorySize + "/" + mMaxMemorySize + "}";
+    }
+}
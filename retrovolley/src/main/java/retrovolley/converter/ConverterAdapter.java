@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.converter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+
+/**
+ * Adapts a string based {@link Converter} to the {@link StreamingConverter} contract.
+ * The body is decoded into a string and passed to the wrapped converter.
+ *
+ * @author Serghei Lotutovici
+ */
+public class ConverterAdapter implements StreamingConverter {
+
+    /**
+     * Size of the buffer used to read the body
+     */
+    private static final int BUFFER_SIZE = 1024;
+
+    /**
+     * The wrapped converter
+     */
+    private final Converter mConverter;
+
+    /**
+     * Constructs an adapter for a string based converter
+     *
+     * @param converter The converter to wrap
+     */
+    public ConverterAdapter(Converter converter) {
+        mConverter = converter;
+    }
+
+    /**
+     * Get a streaming converter for any converter
+     *
+     * @param converter The converter to adapt
+     * @return The same converter if it's already a streaming one, otherwise an adapter
+     */
+    public static StreamingConverter adapt(Converter converter) {
+        if (converter instanceof StreamingConverter) {
+            return (StreamingConverter) converter;
+        }
+        return new ConverterAdapter(converter);
+    }
+
+    @Override
+    public Object fromStream(InputStream body, String charset, Type type) throws ConversionException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(body.available(), BUFFER_SIZE));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = body.read(buffer)) != -1) {
+                bytes.write(buffer, 0, count);
+            }
+            return mConverter.fromBody(bytes.toString(charset), type);
+        } catch (IOException ioe) {
+            throw new ConversionException(ioe);
+        }
+    }
+
+    @Override
+    public void toStream(Object obj, OutputStream body, String charset) throws IOException {
+        body.write(mConverter.toBody(obj).getBytes(charset));
+    }
+
+    @Override
+    public Object fromBody(String body, Type type) throws ConversionException {
+        return mConverter.fromBody(body, type);
+    }
+
+    @Override
+    public String toBody(Object obj) {
+        return mConverter.toBody(obj);
+    }
+}
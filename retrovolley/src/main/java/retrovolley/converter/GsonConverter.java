@@ -17,18 +17,29 @@
 package retrovolley.converter;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Type;
 
 import retrovolley.Logging;
 
 /**
  * A {@link Converter} which uses GSON for serialization and de-serialization of entities.
+ * Responses are parsed straight from the body bytes with a {@link JsonReader}.
  *
  * @author Serghei Lotutovici
  */
-public class GsonConverter implements Converter {
+public class GsonConverter implements StreamingConverter, IncrementalConverter, ProjectingConverter {
 
     /**
      * The GSON object
@@ -62,8 +73,137 @@ public class GsonConverter implements Converter {
 
     }
 
+    @Override
+    public Object fromStream(InputStream body, String charset, Type type) throws ConversionException {
+        try {
+            JsonReader reader = new JsonReader(new InputStreamReader(body, charset));
+            return mGson.fromJson(reader, type);
+        } catch (UnsupportedEncodingException uee) {
+            throw new ConversionException(uee);
+        } catch (JsonSyntaxException jse) {
+            throw new ConversionException(jse);
+        } catch (JsonIOException jie) {
+            throw new ConversionException(jie);
+        }
+    }
+
+    @Override
+    public void fromStream(InputStream body, String charset, Type itemType, ItemCallback callback)
+            throws ConversionException, IOException {
+        try {
+            JsonReader reader = new JsonReader(new InputStreamReader(body, charset));
+
+            /* Lenient parsing accepts several top level values, one per line */
+            reader.setLenient(true);
+            if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    callback.onItem(mGson.fromJson(reader, itemType));
+                }
+                reader.endArray();
+            } else {
+                while (reader.peek() != JsonToken.END_DOCUMENT) {
+                    callback.onItem(mGson.fromJson(reader, itemType));
+                }
+            }
+        } catch (UnsupportedEncodingException uee) {
+            throw new ConversionException(uee);
+        } catch (MalformedJsonException mje) {
+            throw new ConversionException(mje);
+        } catch (JsonSyntaxException jse) {
+            throw new ConversionException(jse);
+        } catch (JsonIOException jie) {
+            throw new ConversionException(jie);
+        } catch (IllegalStateException ise) {
+            throw new ConversionException(ise);
+        }
+    }
+
+    @Override
+    public Object fromStream(InputStream body, String charset, Type type, String[] pointer)
+            throws ConversionException {
+        try {
+            JsonReader reader = new JsonReader(new InputStreamReader(body, charset));
+            for (String token : pointer) {
+                if (!skipTo(reader, token)) {
+                    return null;
+                }
+            }
+            return mGson.fromJson(reader, type);
+        } catch (IOException ioe) {
+            throw new ConversionException(ioe);
+        } catch (JsonSyntaxException jse) {
+            throw new ConversionException(jse);
+        } catch (JsonIOException jie) {
+            throw new ConversionException(jie);
+        } catch (IllegalStateException ise) {
+            throw new ConversionException(ise);
+        }
+    }
+
+    /**
+     * Move the reader to the value of an object member or array element, skipping the values before it
+     *
+     * @return False if there is no such member or element
+     */
+    private static boolean skipTo(JsonReader reader, String token) throws IOException {
+        final JsonToken next = reader.peek();
+        if (next == JsonToken.BEGIN_OBJECT) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (token.equals(reader.nextName())) {
+                    return true;
+                }
+                reader.skipValue();
+            }
+            return false;
+        }
+
+        if (next == JsonToken.BEGIN_ARRAY) {
+            final int index = parseIndex(token);
+            if (index < 0) {
+                return false;
+            }
+            reader.beginArray();
+            for (int i = 0; i < index && reader.hasNext(); i++) {
+                reader.skipValue();
+            }
+            return reader.hasNext();
+        }
+
+        return false;
+    }
+
+    /**
+     * @return The array index, or -1 if the token is not one
+     */
+    private static int parseIndex(String token) {
+        /* Leading zeros are not allowed */
+        if (token.length() == 0 || !Character.isDigit(token.charAt(0))
+                || (token.length() > 1 && token.charAt(0) == '0')) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+
     @Override
     public String toBody(Object obj) {
         return mGson.toJson(obj);
     }
+
+    @Override
+    public void toStream(Object obj, OutputStream body, String charset) throws IOException {
+        OutputStreamWriter writer = new OutputStreamWriter(body, charset);
+        try {
+            mGson.toJson(obj, writer);
+        } catch (JsonIOException jie) {
+            throw new IOException(jie);
+        }
+        /* Flush the encoder but leave the stream open */
+        writer.flush();
+    }
 }
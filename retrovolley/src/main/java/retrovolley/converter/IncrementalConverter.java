@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.converter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+
+/**
+ * A converter that parses a response body one element at a time, so a long list never has
+ * to be held in memory as a whole. The body is either a JSON array or a stream of newline
+ * delimited JSON values.
+ *
+ * @author Serghei Lotutovici
+ */
+public interface IncrementalConverter {
+
+    /**
+     * Parse the elements of the response body as soon as they arrive
+     *
+     * @param body     The HTTP response body stream, not closed by the converter
+     * @param charset  The charset of the body, as specified by the response headers
+     * @param itemType The type of a single element
+     * @param callback Called with every element as soon as it's parsed
+     * @throws retrovolley.converter.ConversionException In case an element can't be parsed
+     * @throws java.io.IOException                       In case reading the body or the callback fails
+     */
+    void fromStream(InputStream body, String charset, Type itemType, ItemCallback callback)
+            throws ConversionException, IOException;
+
+    /**
+     * Receives the parsed elements
+     */
+    interface ItemCallback {
+
+        /**
+         * @param item A parsed element
+         * @throws java.io.IOException To stop the parsing
+         */
+        void onItem(Object item) throws IOException;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.converter;
+
+import java.io.InputStream;
+import java.lang.reflect.Type;
+
+/**
+ * A converter that parses only one part of a response body, the one a JSON pointer refers to.
+ * Everything else is skipped without being parsed into objects.
+ *
+ * @author Serghei Lotutovici
+ */
+public interface ProjectingConverter {
+
+    /**
+     * Convert the part of a response body stream the pointer refers to
+     *
+     * @param body    The HTTP response body stream, not closed by the converter
+     * @param charset The charset of the body, as specified by the response headers
+     * @param type    Target object type
+     * @param pointer The unescaped reference tokens of the JSON pointer, empty for the whole body
+     * @return Instance of {@code type} which will be casted by the caller, or null if the pointer
+     * doesn't refer to any part of the body
+     * @throws retrovolley.converter.ConversionException In case the conversion resulted in a failure
+     */
+    Object fromStream(InputStream body, String charset, Type type, String[] pointer) throws ConversionException;
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.converter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+
+/**
+ * A {@link Converter} that reads the HTTP body straight from the response bytes,
+ * without decoding them into an intermediate string first.
+ * <br>
+ * Plain {@link Converter} implementations can be used via {@link ConverterAdapter}.
+ *
+ * @author Serghei Lotutovici
+ */
+public interface StreamingConverter extends Converter {
+
+    /**
+     * Convert from a response body stream to java object
+     *
+     * @param body    The HTTP response body stream, not closed by the converter
+     * @param charset The charset of the body, as specified by the response headers
+     * @param type    Target object type
+     * @return Instance of {@code type} which will be casted by the caller
+     * @throws retrovolley.converter.ConversionException In case the conversion resulted in a failure
+     */
+    Object fromStream(InputStream body, String charset, Type type) throws ConversionException;
+
+    /**
+     * Convert a java object straight into a request body stream
+     *
+     * @param obj     The object to convert
+     * @param body    The HTTP request body stream, not closed by the converter
+     * @param charset The charset of the body
+     * @throws java.io.IOException In case writing to the stream fails
+     */
+    void toStream(Object obj, OutputStream body, String charset) throws IOException;
+
+}
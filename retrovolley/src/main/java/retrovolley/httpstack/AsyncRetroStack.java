@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.httpstack;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+
+import org.apache.http.HttpResponse;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A transport layer completing requests through a callback, instead of blocking the calling
+ * thread for the whole round trip like {@link RetroStack}. Only used by the request queue created
+ * with {@link retrovolley.RetroVolley#initAsync(com.android.volley.Cache, int, int)}, for endpoints
+ * that have one. Authentication still runs on the endpoint's blocking stack.
+ *
+ * @author Konstantin Tarasenko
+ */
+public interface AsyncRetroStack {
+
+    /**
+     * Start performing a request. Unless this method throws, exactly one of the callback
+     * methods is called once the request is done.
+     *
+     * @param request           The request to perform
+     * @param additionalHeaders Headers to send along with the request headers
+     * @param callback          Called with the outcome of the request
+     * @throws IOException      If the request can't be sent
+     * @throws AuthFailureError If the request headers or body can't be created
+     */
+    public void performRequest(Request<?> request, Map<String, String> additionalHeaders, Callback callback)
+            throws IOException, AuthFailureError;
+
+    /**
+     * Receives the outcome of a request. Called on a thread of the stack, must not block.
+     */
+    public interface Callback {
+
+        /**
+         * @param response The response, its body is read into memory already
+         */
+        public void onResponse(HttpResponse response);
+
+        /**
+         * @param error Why the request failed, timeouts are reported as
+         *              {@link java.net.SocketTimeoutException} or
+         *              {@link org.apache.http.conn.ConnectTimeoutException} like blocking stacks do
+         */
+        public void onError(IOException error);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.httpstack;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection reuse counters of a {@link RetroHttpClientStack} or a {@link NioRetroStack}
+ *
+ * @author Konstantin Tarasenko
+ */
+public final class ConnectionStats {
+
+    private final AtomicLong mLeased = new AtomicLong();
+    private final AtomicLong mOpened = new AtomicLong();
+    private final AtomicLong mConnectTimeMillis = new AtomicLong();
+
+    ConnectionStats() {
+        super();
+    }
+
+    /**
+     * @return Number of connections taken from the pool, either new or reused
+     */
+    public long getLeasedConnections() {
+        return mLeased.get();
+    }
+
+    /**
+     * @return Number of connections that had to be opened
+     */
+    public long getOpenedConnections() {
+        return mOpened.get();
+    }
+
+    /**
+     * @return Number of requests sent over an already open connection
+     */
+    public long getReusedConnections() {
+        return Math.max(0, mLeased.get() - mOpened.get());
+    }
+
+    /**
+     * @return Total time spent opening connections, including the TLS handshake
+     */
+    public long getConnectTimeMillis() {
+        return mConnectTimeMillis.get();
+    }
+
+    /**
+     * @return Average time spent opening a connection, including the TLS handshake
+     */
+    public long getAverageConnectTimeMillis() {
+        final long opened = mOpened.get();
+        return opened == 0 ? 0 : mConnectTimeMillis.get() / opened;
+    }
+
+    void recordLease() {
+        mLeased.incrementAndGet();
+    }
+
+    void recordOpen(long connectTimeMillis) {
+        mOpened.incrementAndGet();
+        mConnectTimeMillis.addAndGet(connectTimeMillis);
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionStats{leased=" + getLeasedConnections()
+                + ", opened=" + getOpenedConnections()
+                + ", reused=" + getReusedConnections()
+                + ", connectTimeMillis=" + getConnectTimeMillis() + '}';
+    }
+}
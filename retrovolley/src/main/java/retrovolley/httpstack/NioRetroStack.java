@@ -0,0 +1,1195 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.httpstack;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+import retrovolley.Logging;
+import retrovolley.mime.TypedByteArray;
+import retrovolley.mime.TypedOutput;
+import retrovolley.request.PojoRequest;
+
+/**
+ * An {@link AsyncRetroStack} performing requests over non-blocking sockets, all of them on a single
+ * selector thread, so the number of requests in flight doesn't depend on the number of threads.
+ * Speaks HTTP/1.1, https goes through an {@link SSLEngine}. Connections are kept alive between
+ * requests and closed once they have not been used for the keep-alive duration,
+ * {@link #getStats()} tells how many requests were sent over a reused connection.
+ * <br>
+ * Request bodies are written to memory before they're sent, and response bodies are read into
+ * memory before the callback is called. Upload progress isn't reported, use a blocking stack
+ * for large uploads.
+ * <br>
+ * Use {@link NioRetroStack.Builder} to create an instance, and {@link #shutdown()} to close
+ * the connections and stop the selector thread when the stack is not used anymore.
+ *
+ * @author Konstantin Tarasenko
+ */
+public class NioRetroStack implements AsyncRetroStack {
+
+    private static final String HEADER_CONTENT_TYPE = "Content-Type";
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String HEADER_HOST = "Host";
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    /**
+     * How often requests in flight are checked for cancellation
+     */
+    private static final long CANCEL_CHECK_INTERVAL_MILLIS = 1000;
+
+    private final Selector mSelector;
+    private final Thread mSelectorThread;
+    private final SSLContext mSslContext;
+    private final HostnameVerifier mHostnameVerifier;
+    private final long mKeepAliveMillis;
+    private final ConnectionStats mStats = new ConnectionStats();
+
+    /**
+     * Requests waiting to be picked up by the selector thread
+     */
+    private final Queue<Exchange> mSubmitted = new ConcurrentLinkedQueue<Exchange>();
+
+    /**
+     * Connections with a request in flight, only used on the selector thread
+     */
+    private final Set<Connection> mActive = new HashSet<Connection>();
+
+    /**
+     * Idle connections by their route, the most recently used last. Only used on the selector thread.
+     */
+    private final Map<String, LinkedList<Connection>> mIdle = new HashMap<String, LinkedList<Connection>>();
+
+    private volatile boolean mShutdown;
+
+    private NioRetroStack(Builder builder) {
+        mSslContext = builder.sslContext;
+        mHostnameVerifier = builder.hostnameVerifier;
+        mKeepAliveMillis = builder.keepAliveMillis;
+
+        try {
+            mSelector = Selector.open();
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Unable to open a selector", ioe);
+        }
+
+        mSelectorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "RetroVolley-NioStack");
+        mSelectorThread.setDaemon(true);
+        mSelectorThread.start();
+    }
+
+    /**
+     * @return The connection reuse counters of this stack
+     */
+    public ConnectionStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * Close all connections and stop the selector thread. Requests in flight fail.
+     */
+    public void shutdown() {
+        mShutdown = true;
+        mSelector.wakeup();
+    }
+
+    @Override
+    public void performRequest(Request<?> request, Map<String, String> additionalHeaders, Callback callback)
+            throws IOException, AuthFailureError {
+        final URL url = new URL(request.getUrl());
+        final String protocol = url.getProtocol();
+        final boolean secure = "https".equals(protocol);
+        if (!secure && !"http".equals(protocol)) {
+            throw new MalformedURLException("Unsupported protocol: " + protocol);
+        }
+
+        /* Resolved on the calling thread, looking up a host blocks */
+        final int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        final InetSocketAddress address = new InetSocketAddress(url.getHost(), port);
+        if (address.isUnresolved()) {
+            throw new UnknownHostException(url.getHost());
+        }
+
+        final Exchange exchange = new Exchange(request, callback, url.getHost(), address, secure,
+                encodeRequest(request, url, port, additionalHeaders));
+        if (mShutdown) {
+            throw new IOException("The stack was shut down");
+        }
+        mSubmitted.add(exchange);
+        mSelector.wakeup();
+
+        /* Lost if the selector thread stopped meanwhile */
+        if (mShutdown && mSubmitted.remove(exchange)) {
+            throw new IOException("The stack was shut down");
+        }
+    }
+
+    /**
+     * The selector thread, performs every request
+     */
+    private void loop() {
+        while (!mShutdown) {
+            try {
+                mSelector.select(getSelectTimeout(System.currentTimeMillis()));
+            } catch (IOException ioe) {
+                Logging.e("Selector failed, the stack stopped", ioe);
+                break;
+            }
+
+            Exchange exchange;
+            while ((exchange = mSubmitted.poll()) != null) {
+                start(exchange, true);
+            }
+
+            final Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                final SelectionKey key = keys.next();
+                keys.remove();
+                process((Connection) key.attachment());
+            }
+
+            checkExpired(System.currentTimeMillis());
+        }
+
+        mShutdown = true;
+        closeAll();
+    }
+
+    /**
+     * @return How long the selector may wait, until a request times out or an idle connection expires
+     */
+    private long getSelectTimeout(long now) {
+        long wakeUp = Long.MAX_VALUE;
+        for (Connection connection : mActive) {
+            wakeUp = Math.min(wakeUp, Math.min(connection.exchange.deadline, now + CANCEL_CHECK_INTERVAL_MILLIS));
+        }
+        for (LinkedList<Connection> connections : mIdle.values()) {
+            if (!connections.isEmpty()) {
+                wakeUp = Math.min(wakeUp, connections.getFirst().idleSince + mKeepAliveMillis);
+            }
+        }
+        /* Zero means no timeout */
+        return wakeUp == Long.MAX_VALUE ? 0 : Math.max(1, wakeUp - now);
+    }
+
+    /**
+     * Send a request over an idle connection to its host, or over a new one
+     *
+     * @param reuse False to always open a new connection
+     */
+    private void start(Exchange exchange, boolean reuse) {
+        Connection connection = reuse ? takeIdle(exchange.route) : null;
+        exchange.reusedConnection = connection != null;
+        try {
+            if (connection == null) {
+                connection = open(exchange);
+            }
+        } catch (IOException ioe) {
+            notifyError(exchange, ioe);
+            return;
+        }
+
+        mStats.recordLease();
+        connection.exchange = exchange;
+        exchange.refreshDeadline();
+        mActive.add(connection);
+        connection.updateInterest();
+    }
+
+    private Connection takeIdle(String route) {
+        final LinkedList<Connection> connections = mIdle.get(route);
+        while (connections != null && !connections.isEmpty()) {
+            final Connection connection = connections.removeLast();
+            if (connection.channel.isOpen()) {
+                return connection;
+            }
+        }
+        return null;
+    }
+
+    private Connection open(Exchange exchange) throws IOException {
+        final SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+
+            SSLEngine engine = null;
+            if (exchange.secure) {
+                engine = mSslContext.createSSLEngine(exchange.host, exchange.address.getPort());
+                engine.setUseClientMode(true);
+            }
+
+            final Connection connection = new Connection(exchange.route, channel, engine);
+            connection.key = channel.register(mSelector, 0, connection);
+            channel.connect(exchange.address);
+            return connection;
+        } catch (IOException ioe) {
+            channel.close();
+            throw ioe;
+        } catch (RuntimeException re) {
+            /* E.g. UnresolvedAddressException */
+            channel.close();
+            throw new IOException("Unable to connect to " + exchange.address, re);
+        }
+    }
+
+    /**
+     * Move a request forward on its connection, or drop an idle connection the server closed
+     */
+    private void process(Connection connection) {
+        final Exchange exchange = connection.exchange;
+        if (exchange == null) {
+            /* Idle connections are not read, the server closed it or sent garbage */
+            closeIdle(connection);
+            return;
+        }
+
+        try {
+            connection.process();
+            if (exchange.parser.isComplete()) {
+                complete(connection);
+            } else if (connection.endOfStream) {
+                if (!exchange.parser.onEndOfStream()) {
+                    throw new IOException("Unexpected end of stream");
+                }
+                complete(connection);
+            } else {
+                connection.updateInterest();
+            }
+        } catch (IOException ioe) {
+            fail(connection, ioe);
+        } catch (CancelledKeyException cke) {
+            fail(connection, new IOException("Connection closed", cke));
+        }
+    }
+
+    private void complete(Connection connection) {
+        final Exchange exchange = connection.exchange;
+        mActive.remove(connection);
+        connection.exchange = null;
+
+        if (exchange.parser.isKeepAlive() && !connection.hasUnreadInput()) {
+            connection.idleSince = System.currentTimeMillis();
+            connection.key.interestOps(SelectionKey.OP_READ);
+            LinkedList<Connection> connections = mIdle.get(connection.route);
+            if (connections == null) {
+                connections = new LinkedList<Connection>();
+                mIdle.put(connection.route, connections);
+            }
+            connections.addLast(connection);
+        } else {
+            connection.close();
+        }
+
+        try {
+            exchange.callback.onResponse(exchange.parser.toResponse());
+        } catch (RuntimeException re) {
+            Logging.e("Response callback failed", re);
+        }
+    }
+
+    private void fail(Connection connection, IOException error) {
+        final Exchange exchange = connection.exchange;
+        mActive.remove(connection);
+        connection.exchange = null;
+        connection.close();
+
+        /* The server may have closed a kept alive connection before it got the request */
+        if (exchange.reusedConnection && !exchange.parser.hasReceivedAny() && !mShutdown) {
+            Logging.d("Sending again over a new connection", error);
+            exchange.reset();
+            start(exchange, false);
+            return;
+        }
+        notifyError(exchange, error);
+    }
+
+    private static void notifyError(Exchange exchange, IOException error) {
+        try {
+            exchange.callback.onError(error);
+        } catch (RuntimeException re) {
+            Logging.e("Error callback failed", re);
+        }
+    }
+
+    /**
+     * Fail timed out and canceled requests, and close expired idle connections
+     */
+    private void checkExpired(long now) {
+        final List<Connection> expired = new ArrayList<Connection>();
+        for (Connection connection : mActive) {
+            if (now >= connection.exchange.deadline || connection.exchange.request.isCanceled()) {
+                expired.add(connection);
+            }
+        }
+        for (Connection connection : expired) {
+            final Exchange exchange = connection.exchange;
+            /* Not sent again, the server was reached */
+            exchange.reusedConnection = false;
+            if (exchange.request.isCanceled()) {
+                fail(connection, new IOException("Request canceled"));
+            } else if (!connection.established) {
+                fail(connection, new ConnectTimeoutException("Connect timed out"));
+            } else {
+                fail(connection, new SocketTimeoutException("Read timed out"));
+            }
+        }
+
+        for (LinkedList<Connection> connections : mIdle.values()) {
+            while (!connections.isEmpty() && now - connections.getFirst().idleSince >= mKeepAliveMillis) {
+                connections.removeFirst().close();
+            }
+        }
+    }
+
+    private void closeIdle(Connection connection) {
+        final LinkedList<Connection> connections = mIdle.get(connection.route);
+        if (connections != null) {
+            connections.remove(connection);
+        }
+        connection.close();
+    }
+
+    private void closeAll() {
+        for (Connection connection : new ArrayList<Connection>(mActive)) {
+            fail(connection, new IOException("The stack was shut down"));
+        }
+        for (LinkedList<Connection> connections : mIdle.values()) {
+            for (Connection connection : connections) {
+                connection.close();
+            }
+        }
+        mIdle.clear();
+
+        Exchange exchange;
+        while ((exchange = mSubmitted.poll()) != null) {
+            notifyError(exchange, new IOException("The stack was shut down"));
+        }
+
+        try {
+            mSelector.close();
+        } catch (IOException ioe) {
+            Logging.d("Unable to close the selector", ioe);
+        }
+    }
+
+    /**
+     * Write the request line, the headers and the body
+     */
+    @SuppressWarnings("deprecation")
+    private static ByteBuffer encodeRequest(Request<?> request, URL url, int port, Map<String, String> additionalHeaders)
+            throws IOException, AuthFailureError {
+        final String method;
+        byte[] body = null;
+        String bodyContentType = request.getBodyContentType();
+        switch (request.getMethod()) {
+            case Request.Method.DEPRECATED_GET_OR_POST:
+                /* If the request's post body is null, then the assumption is that the request is
+                 * GET.  Otherwise, it is assumed that the request is a POST. */
+                body = request.getPostBody();
+                bodyContentType = request.getPostBodyContentType();
+                method = body != null ? "POST" : "GET";
+                break;
+            case Request.Method.GET:
+                method = "GET";
+                break;
+            case Request.Method.DELETE:
+                method = "DELETE";
+                break;
+            case Request.Method.POST:
+                method = "POST";
+                body = getBody(request);
+                break;
+            case Request.Method.PUT:
+                method = "PUT";
+                body = getBody(request);
+                break;
+            case Request.Method.HEAD:
+                method = "HEAD";
+                break;
+            case Request.Method.OPTIONS:
+                method = "OPTIONS";
+                break;
+            case Request.Method.TRACE:
+                method = "TRACE";
+                break;
+            case Request.Method.PATCH:
+                method = "PATCH";
+                body = getBody(request);
+                break;
+            default:
+                throw new IllegalStateException("Unknown method type.");
+        }
+
+        final Map<String, String> headers = new HashMap<String, String>();
+        headers.putAll(request.getHeaders());
+        headers.putAll(additionalHeaders);
+
+        final String path = url.getFile();
+        final StringBuilder head = new StringBuilder(256)
+                .append(method).append(' ').append(path.length() > 0 ? path : "/").append(" HTTP/1.1\r\n");
+        if (!containsHeader(headers, HEADER_HOST)) {
+            head.append(HEADER_HOST).append(": ").append(url.getHost());
+            if (port != url.getDefaultPort()) {
+                head.append(':').append(port);
+            }
+            head.append("\r\n");
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (!HEADER_CONTENT_LENGTH.equalsIgnoreCase(header.getKey())) {
+                head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+        }
+        if (body != null) {
+            if (!containsHeader(headers, HEADER_CONTENT_TYPE)) {
+                head.append(HEADER_CONTENT_TYPE).append(": ").append(bodyContentType).append("\r\n");
+            }
+            head.append(HEADER_CONTENT_LENGTH).append(": ").append(body.length).append("\r\n");
+        }
+        head.append("\r\n");
+
+        final byte[] headBytes = head.toString().getBytes(ISO_8859_1);
+        final ByteBuffer bytes = ByteBuffer.allocate(headBytes.length + (body != null ? body.length : 0));
+        bytes.put(headBytes);
+        if (body != null) {
+            bytes.put(body);
+        }
+        bytes.flip();
+        return bytes;
+    }
+
+    private static byte[] getBody(Request<?> request) throws IOException, AuthFailureError {
+        final TypedOutput body;
+        if (request instanceof PojoRequest) {
+            body = ((PojoRequest<?>) request).getBodyOutput();
+        } else {
+            byte[] bytes = request.getBody();
+            body = bytes != null ? new TypedByteArray(null, bytes) : null;
+        }
+
+        if (body == null) {
+            return null;
+        }
+
+        final long length = body.length();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(
+                length >= 0 && length <= Integer.MAX_VALUE ? (int) length : 1024);
+        body.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static boolean containsHeader(Map<String, String> headers, String name) {
+        for (String key : headers.keySet()) {
+            if (name.equalsIgnoreCase(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A request and its progress
+     */
+    private static final class Exchange {
+
+        final Request<?> request;
+        final Callback callback;
+        final String host;
+        final InetSocketAddress address;
+        final boolean secure;
+        final String route;
+        final ByteBuffer requestBytes;
+
+        ResponseParser parser;
+        boolean reusedConnection;
+
+        /**
+         * When the request times out if nothing is sent or received meanwhile
+         */
+        long deadline;
+
+        Exchange(Request<?> request, Callback callback, String host, InetSocketAddress address,
+                 boolean secure, ByteBuffer requestBytes) {
+            this.request = request;
+            this.callback = callback;
+            this.host = host;
+            this.address = address;
+            this.secure = secure;
+            this.route = (secure ? "https://" : "http://") + host + ':' + address.getPort();
+            this.requestBytes = requestBytes;
+            this.parser = new ResponseParser(request.getMethod() == Request.Method.HEAD);
+        }
+
+        void refreshDeadline() {
+            final int timeoutMs = request.getTimeoutMs();
+            /* Zero means no timeout, like for blocking stacks */
+            deadline = timeoutMs > 0 ? System.currentTimeMillis() + timeoutMs : Long.MAX_VALUE;
+        }
+
+        /**
+         * Prepare the request to be sent again
+         */
+        void reset() {
+            requestBytes.rewind();
+            parser = new ResponseParser(request.getMethod() == Request.Method.HEAD);
+        }
+    }
+
+    /**
+     * A connection to a host, plain or encrypted, carrying one request at a time
+     */
+    private final class Connection {
+
+        final String route;
+        final SocketChannel channel;
+        final SSLEngine engine;
+        final long connectStart = System.currentTimeMillis();
+
+        SelectionKey key;
+        Exchange exchange;
+        long idleSince;
+
+        boolean connected;
+        boolean established;
+        boolean endOfStream;
+
+        /**
+         * Encrypted bytes received and not decrypted yet, and waiting to be sent
+         */
+        ByteBuffer netIn;
+        ByteBuffer netOut;
+
+        /**
+         * Received bytes, handed to the response parser right away
+         */
+        ByteBuffer appIn;
+
+        /**
+         * Set when the engine can't go on without more encrypted bytes
+         */
+        private boolean mNeedsInput;
+
+        /**
+         * Set when bytes past the end of the response were received
+         */
+        private boolean mUnreadInput;
+
+        Connection(String route, SocketChannel channel, SSLEngine engine) {
+            this.route = route;
+            this.channel = channel;
+            this.engine = engine;
+            if (engine != null) {
+                netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+                netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+                netOut.flip();
+                appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+            } else {
+                appIn = ByteBuffer.allocate(8 * 1024);
+            }
+        }
+
+        /**
+         * Send and receive as much as possible without blocking
+         */
+        void process() throws IOException {
+            if (!connected) {
+                if (!channel.finishConnect()) {
+                    return;
+                }
+                connected = true;
+                if (engine != null) {
+                    engine.beginHandshake();
+                } else {
+                    onEstablished();
+                }
+            }
+
+            if (engine != null) {
+                processEncrypted();
+            } else {
+                processPlain();
+            }
+        }
+
+        private void processPlain() throws IOException {
+            if (exchange.requestBytes.hasRemaining()) {
+                write(exchange.requestBytes);
+            }
+            while (!exchange.parser.isComplete()) {
+                appIn.clear();
+                if (read(appIn) <= 0) {
+                    break;
+                }
+                appIn.flip();
+                feed(appIn);
+            }
+        }
+
+        private void processEncrypted() throws IOException {
+            while (!exchange.parser.isComplete() && !endOfStream) {
+                /* Send what's encrypted already before encrypting more */
+                if (netOut.hasRemaining()) {
+                    write(netOut);
+                    if (netOut.hasRemaining()) {
+                        return;
+                    }
+                }
+
+                final SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+                if (!established && status == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+                    /* The handshake ended without the engine reporting it */
+                    onHandshakeStatus(SSLEngineResult.HandshakeStatus.FINISHED);
+                } else if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                } else if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP
+                        || (established && exchange.requestBytes.hasRemaining())) {
+                    wrap();
+                } else if (!unwrap()) {
+                    return;
+                }
+            }
+        }
+
+        private void wrap() throws IOException {
+            netOut.clear();
+            final SSLEngineResult result;
+            try {
+                result = engine.wrap(exchange.requestBytes, netOut);
+            } finally {
+                netOut.flip();
+            }
+
+            switch (result.getStatus()) {
+                case BUFFER_OVERFLOW:
+                    netOut = ByteBuffer.allocate(netOut.capacity() + engine.getSession().getPacketBufferSize());
+                    netOut.flip();
+                    break;
+                case CLOSED:
+                    throw new SSLException("Connection closed while sending");
+                default:
+                    onHandshakeStatus(result.getHandshakeStatus());
+                    break;
+            }
+        }
+
+        /**
+         * @return False if more encrypted bytes are needed and none are available
+         */
+        private boolean unwrap() throws IOException {
+            if (netIn.position() == 0 || mNeedsInput) {
+                if (!netIn.hasRemaining()) {
+                    /* Full of an incomplete packet */
+                    final ByteBuffer bigger = ByteBuffer.allocate(netIn.capacity()
+                            + engine.getSession().getPacketBufferSize());
+                    netIn.flip();
+                    bigger.put(netIn);
+                    netIn = bigger;
+                }
+                if (read(netIn) <= 0) {
+                    return false;
+                }
+                mNeedsInput = false;
+            }
+
+            netIn.flip();
+            final SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, appIn);
+            } finally {
+                netIn.compact();
+            }
+
+            switch (result.getStatus()) {
+                case BUFFER_UNDERFLOW:
+                    mNeedsInput = true;
+                    return true;
+                case BUFFER_OVERFLOW:
+                    /* The received bytes are always parsed right away, the buffer is too small */
+                    final ByteBuffer bigger = ByteBuffer.allocate(appIn.capacity()
+                            + engine.getSession().getApplicationBufferSize());
+                    appIn.flip();
+                    bigger.put(appIn);
+                    appIn = bigger;
+                    return true;
+                case CLOSED:
+                    endOfStream = true;
+                    return false;
+                default:
+                    break;
+            }
+
+            onHandshakeStatus(result.getHandshakeStatus());
+            if (appIn.position() > 0) {
+                appIn.flip();
+                feed(appIn);
+                appIn.compact();
+            }
+            if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                mNeedsInput = true;
+            }
+            return true;
+        }
+
+        private void onHandshakeStatus(SSLEngineResult.HandshakeStatus status) throws IOException {
+            if (status == SSLEngineResult.HandshakeStatus.FINISHED && !established) {
+                if (!mHostnameVerifier.verify(exchange.host, engine.getSession())) {
+                    throw new SSLPeerUnverifiedException("Hostname " + exchange.host + " not verified");
+                }
+                onEstablished();
+            }
+        }
+
+        private void feed(ByteBuffer in) throws IOException {
+            exchange.parser.feed(in);
+            if (exchange.parser.isComplete() && in.hasRemaining()) {
+                mUnreadInput = true;
+            }
+        }
+
+        private void onEstablished() {
+            established = true;
+            mStats.recordOpen(System.currentTimeMillis() - connectStart);
+        }
+
+        private int read(ByteBuffer buffer) throws IOException {
+            final int read = channel.read(buffer);
+            if (read < 0) {
+                endOfStream = true;
+            } else if (read > 0) {
+                exchange.refreshDeadline();
+            }
+            return read;
+        }
+
+        private void write(ByteBuffer buffer) throws IOException {
+            if (channel.write(buffer) > 0) {
+                exchange.refreshDeadline();
+            }
+        }
+
+        /**
+         * @return True if bytes past the end of the response were received, the connection can't be reused
+         */
+        boolean hasUnreadInput() {
+            return mUnreadInput || netIn != null && netIn.position() > 0;
+        }
+
+        void updateInterest() {
+            int ops = SelectionKey.OP_READ;
+            if (!connected && channel.isConnectionPending()) {
+                ops = SelectionKey.OP_CONNECT;
+            } else if (!connected) {
+                /* Connected right away, finished once writable */
+                ops |= SelectionKey.OP_WRITE;
+            } else if (engine == null ? exchange.requestBytes.hasRemaining() : netOut.hasRemaining()
+                    || engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP
+                    || established && exchange.requestBytes.hasRemaining()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        }
+
+        void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ioe) {
+                Logging.d("Unable to close a connection", ioe);
+            }
+        }
+    }
+
+    /**
+     * Reads a response as it's received
+     */
+    private static final class ResponseParser {
+
+        private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+        private static final int STATUS_LINE = 0;
+        private static final int HEADERS = 1;
+        private static final int FIXED_BODY = 2;
+        private static final int CHUNK_SIZE = 3;
+        private static final int CHUNK_DATA = 4;
+        private static final int CHUNK_END = 5;
+        private static final int TRAILERS = 6;
+        private static final int BODY_UNTIL_CLOSE = 7;
+        private static final int COMPLETE = 8;
+
+        private final boolean mHeadRequest;
+        private final StringBuilder mLine = new StringBuilder();
+        private final List<Header> mHeaders = new ArrayList<Header>();
+
+        private int mState = STATUS_LINE;
+        private boolean mReceivedAny;
+        private boolean mKeepAlive;
+        private boolean mHasBody;
+
+        private ProtocolVersion mVersion;
+        private int mStatusCode;
+        private String mReason;
+
+        /**
+         * What's left of the body or of the current chunk
+         */
+        private long mRemaining;
+        private ByteArrayOutputStream mBody;
+
+        ResponseParser(boolean headRequest) {
+            mHeadRequest = headRequest;
+        }
+
+        boolean hasReceivedAny() {
+            return mReceivedAny;
+        }
+
+        boolean isComplete() {
+            return mState == COMPLETE;
+        }
+
+        /**
+         * @return True if the connection can carry another request
+         */
+        boolean isKeepAlive() {
+            return mState == COMPLETE && mKeepAlive;
+        }
+
+        /**
+         * Parse received bytes, stops at the end of the response
+         */
+        void feed(ByteBuffer in) throws IOException {
+            if (in.hasRemaining()) {
+                mReceivedAny = true;
+            }
+            while (in.hasRemaining() && mState != COMPLETE) {
+                switch (mState) {
+                    case FIXED_BODY:
+                    case CHUNK_DATA:
+                        final int length = (int) Math.min(in.remaining(), mRemaining);
+                        mBody.write(in.array(), in.arrayOffset() + in.position(), length);
+                        in.position(in.position() + length);
+                        mRemaining -= length;
+                        if (mRemaining == 0) {
+                            mState = mState == FIXED_BODY ? COMPLETE : CHUNK_END;
+                        }
+                        break;
+                    case BODY_UNTIL_CLOSE:
+                        mBody.write(in.array(), in.arrayOffset() + in.position(), in.remaining());
+                        in.position(in.limit());
+                        break;
+                    default:
+                        final String line = readLine(in);
+                        if (line != null) {
+                            onLine(line);
+                        }
+                        break;
+                }
+            }
+        }
+
+        /**
+         * The server closed the connection
+         *
+         * @return True if that ended the response
+         */
+        boolean onEndOfStream() {
+            if (mState == BODY_UNTIL_CLOSE) {
+                mState = COMPLETE;
+                return true;
+            }
+            return false;
+        }
+
+        HttpResponse toResponse() {
+            final BasicHttpResponse response = new BasicHttpResponse(
+                    new BasicStatusLine(mVersion, mStatusCode, mReason));
+            for (Header header : mHeaders) {
+                response.addHeader(header);
+            }
+
+            if (mHasBody) {
+                final byte[] body = mBody.toByteArray();
+                final BasicHttpEntity entity = new BasicHttpEntity();
+                entity.setContent(new ByteArrayInputStream(body));
+                entity.setContentLength(body.length);
+                entity.setContentType(response.getFirstHeader(HEADER_CONTENT_TYPE));
+                entity.setContentEncoding(response.getFirstHeader(HEADER_CONTENT_ENCODING));
+                response.setEntity(entity);
+            }
+            return response;
+        }
+
+        /**
+         * @return A whole line without its line break, or null if the line isn't complete yet
+         */
+        private String readLine(ByteBuffer in) throws IOException {
+            while (in.hasRemaining()) {
+                final char c = (char) (in.get() & 0xff);
+                if (c == '\n') {
+                    final int length = mLine.length();
+                    final String line = mLine.substring(0,
+                            length > 0 && mLine.charAt(length - 1) == '\r' ? length - 1 : length);
+                    mLine.setLength(0);
+                    return line;
+                }
+                if (mLine.length() == MAX_LINE_LENGTH) {
+                    throw new IOException("Response line too long");
+                }
+                mLine.append(c);
+            }
+            return null;
+        }
+
+        private void onLine(String line) throws IOException {
+            switch (mState) {
+                case STATUS_LINE:
+                    if (line.length() > 0) {
+                        parseStatusLine(line);
+                        mState = HEADERS;
+                    }
+                    break;
+                case HEADERS:
+                    if (line.length() == 0) {
+                        onHeadersEnd();
+                    } else {
+                        final int colon = line.indexOf(':');
+                        if (colon <= 0) {
+                            throw new IOException("Malformed header: " + line);
+                        }
+                        mHeaders.add(new BasicHeader(line.substring(0, colon).trim(), line.substring(colon + 1).trim()));
+                    }
+                    break;
+                case CHUNK_SIZE:
+                    final int extension = line.indexOf(';');
+                    try {
+                        mRemaining = Long.parseLong((extension >= 0 ? line.substring(0, extension) : line).trim(), 16);
+                    } catch (NumberFormatException nfe) {
+                        throw new IOException("Malformed chunk size: " + line);
+                    }
+                    if (mRemaining < 0) {
+                        throw new IOException("Malformed chunk size: " + line);
+                    }
+                    mState = mRemaining == 0 ? TRAILERS : CHUNK_DATA;
+                    break;
+                case CHUNK_END:
+                    if (line.length() > 0) {
+                        throw new IOException("Malformed chunk end");
+                    }
+                    mState = CHUNK_SIZE;
+                    break;
+                case TRAILERS:
+                    if (line.length() == 0) {
+                        mState = COMPLETE;
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Not expecting a line");
+            }
+        }
+
+        private void parseStatusLine(String line) throws IOException {
+            /* HTTP/1.1 200 OK */
+            final int first = line.indexOf(' ');
+            if (!line.startsWith("HTTP/") || first < 0) {
+                throw new IOException("Malformed status line: " + line);
+            }
+            final int second = line.indexOf(' ', first + 1);
+            try {
+                final String version = line.substring("HTTP/".length(), first);
+                final int dot = version.indexOf('.');
+                mVersion = new ProtocolVersion("HTTP",
+                        Integer.parseInt(dot >= 0 ? version.substring(0, dot) : version),
+                        dot >= 0 ? Integer.parseInt(version.substring(dot + 1)) : 0);
+                mStatusCode = Integer.parseInt(second >= 0 ? line.substring(first + 1, second) : line.substring(first + 1));
+            } catch (NumberFormatException nfe) {
+                throw new IOException("Malformed status line: " + line);
+            }
+            mReason = second >= 0 ? line.substring(second + 1) : "";
+        }
+
+        private void onHeadersEnd() throws IOException {
+            /* Interim responses are followed by the actual one */
+            if (mStatusCode >= 100 && mStatusCode < 200) {
+                mHeaders.clear();
+                mState = STATUS_LINE;
+                return;
+            }
+
+            final String connection = getHeaderValue("Connection");
+            if (mVersion.getMinor() >= 1 || mVersion.getMajor() > 1) {
+                mKeepAlive = !hasToken(connection, "close");
+            } else {
+                mKeepAlive = hasToken(connection, "keep-alive");
+            }
+
+            mHasBody = !mHeadRequest && mStatusCode != 204 && mStatusCode != 304;
+            if (!mHasBody) {
+                mState = COMPLETE;
+                return;
+            }
+
+            final String contentLength = getHeaderValue(HEADER_CONTENT_LENGTH);
+            if (hasToken(getHeaderValue("Transfer-Encoding"), "chunked")) {
+                mBody = new ByteArrayOutputStream();
+                mState = CHUNK_SIZE;
+            } else if (contentLength != null) {
+                try {
+                    mRemaining = Long.parseLong(contentLength);
+                } catch (NumberFormatException nfe) {
+                    throw new IOException("Malformed content length: " + contentLength);
+                }
+                if (mRemaining < 0 || mRemaining > Integer.MAX_VALUE) {
+                    throw new IOException("Unsupported content length: " + contentLength);
+                }
+                mBody = new ByteArrayOutputStream((int) Math.min(mRemaining, 64 * 1024));
+                mState = mRemaining == 0 ? COMPLETE : FIXED_BODY;
+            } else {
+                mBody = new ByteArrayOutputStream();
+                mKeepAlive = false;
+                mState = BODY_UNTIL_CLOSE;
+            }
+        }
+
+        private String getHeaderValue(String name) {
+            for (Header header : mHeaders) {
+                if (name.equalsIgnoreCase(header.getName())) {
+                    return header.getValue();
+                }
+            }
+            return null;
+        }
+
+        private static boolean hasToken(String value, String token) {
+            if (value == null) {
+                return false;
+            }
+            for (String element : value.split(",")) {
+                if (element.trim().toLowerCase(Locale.US).equals(token)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    public static class Builder {
+
+        long keepAliveMillis = TimeUnit.MINUTES.toMillis(5);
+        SSLContext sslContext;
+        HostnameVerifier hostnameVerifier;
+
+        /**
+         * @param keepAliveMillis How long an unused connection is kept open, 5 minutes by default
+         */
+        public Builder setKeepAlive(long keepAliveMillis) {
+            this.keepAliveMillis = keepAliveMillis;
+            return this;
+        }
+
+        /**
+         * @param sslContext Context creating the engines of https connections, the default one by default
+         */
+        public Builder setSslContext(SSLContext sslContext) {
+            this.sslContext = sslContext;
+            return this;
+        }
+
+        /**
+         * @param hostnameVerifier Checks the certificates of https hosts,
+         *                         {@link HttpsURLConnection#getDefaultHostnameVerifier()} by default
+         */
+        public Builder setHostnameVerifier(HostnameVerifier hostnameVerifier) {
+            this.hostnameVerifier = hostnameVerifier;
+            return this;
+        }
+
+        /**
+         * Create new {@link NioRetroStack} instance, starting its selector thread
+         */
+        public NioRetroStack build() {
+            if (keepAliveMillis < 0) {
+                throw new IllegalArgumentException("Keep alive must not be negative");
+            }
+            if (sslContext == null) {
+                try {
+                    sslContext = SSLContext.getDefault();
+                } catch (NoSuchAlgorithmException nsae) {
+                    throw new IllegalStateException("No default SSL context", nsae);
+                }
+            }
+            if (hostnameVerifier == null) {
+                hostnameVerifier = HttpsURLConnection.getDefaultHostnameVerifier();
+            }
+            return new NioRetroStack(this);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.httpstack;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import retrovolley.request.ProgressListener;
+
+/**
+ * Reports the number of bytes written to a request body
+ *
+ * @author Konstantin Tarasenko
+ */
+class ProgressOutputStream extends FilterOutputStream {
+
+    private final ProgressListener mListener;
+    private final long mTotal;
+    private long mWritten;
+
+    ProgressOutputStream(OutputStream out, ProgressListener listener, long total) {
+        super(out);
+        mListener = listener;
+        mTotal = total;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        mWritten++;
+        mListener.onProgress(mWritten, mTotal);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        /* Don't let FilterOutputStream write byte by byte */
+        out.write(b, off, len);
+        mWritten += len;
+        mListener.onProgress(mWritten, mTotal);
+    }
+
+    /**
+     * Report the end of the body, once its length is known for sure
+     */
+    void done() {
+        mListener.onProgress(mWritten, mWritten);
+    }
+
+    /**
+     * Wrap the body stream if anybody listens to the progress
+     */
+    static OutputStream wrap(OutputStream out, ProgressListener listener, long total) {
+        return listener != null ? new ProgressOutputStream(out, listener, total) : out;
+    }
+
+    /**
+     * Report the end of the body if the stream was wrapped
+     */
+    static void done(OutputStream out) {
+        if (out instanceof ProgressOutputStream) {
+            ((ProgressOutputStream) out).done();
+        }
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.httpstack;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+import com.android.volley.toolbox.HttpClientStack;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpOptions;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpTrace;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.OperatedClientConnection;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import retrovolley.mime.TypedOutput;
+import retrovolley.request.PojoRequest;
+
+/**
+ * A {@link RetroStack} with an explicit connection pool, meant to be used by a single endpoint.
+ * Connections are kept alive between requests, limited per host, and closed by an idle reaper
+ * once they have not been used for the keep-alive duration. {@link #getStats()} tells how many
+ * requests were sent over a reused connection and how long opening the new ones took.
+ * <br>
+ * Use {@link RetroHttpClientStack.Builder} to create an instance, and {@link #shutdown()}
+ * to close the pool when the stack is not used anymore.
+ *
+ * @author Konstantin Tarasenko
+ */
+public class RetroHttpClientStack implements RetroStack {
+
+    private static final String HEADER_CONTENT_TYPE = "Content-Type";
+
+    /**
+     * A single daemon thread closing idle connections of all stacks
+     */
+    private static final ScheduledExecutorService sReaper = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "RetroVolley-ConnectionReaper");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final DefaultHttpClient mClient;
+    private final PoolingConnManager mConnManager;
+    private final ScheduledFuture<?> mReaperTask;
+
+    private RetroHttpClientStack(Builder builder) {
+        HttpParams params = new BasicHttpParams();
+        HttpProtocolParams.setUseExpectContinue(params, false);
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+        ConnManagerParams.setMaxTotalConnections(params, builder.maxConnections);
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(builder.maxConnectionsPerHost));
+
+        SchemeRegistry schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        schemeRegistry.register(new Scheme("https", builder.sslSocketFactory, 443));
+
+        mConnManager = new PoolingConnManager(params, schemeRegistry);
+        mClient = new DefaultHttpClient(mConnManager, params);
+        mClient.setKeepAliveStrategy(new CappedKeepAliveStrategy(builder.keepAliveMillis));
+
+        final long keepAliveMillis = builder.keepAliveMillis;
+        mReaperTask = sReaper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                mConnManager.closeExpiredConnections();
+                mConnManager.closeIdleConnections(keepAliveMillis, TimeUnit.MILLISECONDS);
+            }
+        }, builder.reaperIntervalMillis, builder.reaperIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The connection reuse counters of this stack
+     */
+    public ConnectionStats getStats() {
+        return mConnManager.mStats;
+    }
+
+    /**
+     * Stop the idle reaper and close all pooled connections
+     */
+    public void shutdown() {
+        mReaperTask.cancel(false);
+        mConnManager.shutdown();
+    }
+
+    @Override
+    public void clearCookies() {
+        mClient.getCookieStore().clear();
+    }
+
+    @Override
+    public HttpResponse performRequest(Request<?> request, Map<String, String> additionalHeaders)
+            throws IOException, AuthFailureError {
+        HttpUriRequest httpRequest = createHttpRequest(request);
+        addHeaders(httpRequest, additionalHeaders);
+        addHeaders(httpRequest, request.getHeaders());
+
+        HttpParams httpParams = httpRequest.getParams();
+        int timeoutMs = request.getTimeoutMs();
+        HttpConnectionParams.setConnectionTimeout(httpParams, timeoutMs);
+        HttpConnectionParams.setSoTimeout(httpParams, timeoutMs);
+        /* Don't wait longer for a pooled connection than for the response */
+        ConnManagerParams.setTimeout(httpParams, timeoutMs);
+
+        return mClient.execute(httpRequest);
+    }
+
+    private static void addHeaders(HttpUriRequest httpRequest, Map<String, String> headers) {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            httpRequest.setHeader(header.getKey(), header.getValue());
+        }
+    }
+
+    /**
+     * Creates the appropriate subclass of HttpUriRequest for passed in request.
+     */
+    @SuppressWarnings("deprecation")
+    private static HttpUriRequest createHttpRequest(Request<?> request) throws AuthFailureError {
+        switch (request.getMethod()) {
+            case Request.Method.DEPRECATED_GET_OR_POST: {
+                /* This is the deprecated way that needs to be handled for backwards compatibility.
+                 * If the request's post body is null, then the assumption is that the request is
+                 * GET.  Otherwise, it is assumed that the request is a POST. */
+                byte[] postBody = request.getPostBody();
+                if (postBody != null) {
+                    HttpPost postRequest = new HttpPost(request.getUrl());
+                    postRequest.addHeader(HEADER_CONTENT_TYPE, request.getPostBodyContentType());
+                    postRequest.setEntity(new ByteArrayEntity(postBody));
+                    return postRequest;
+                } else {
+                    return new HttpGet(request.getUrl());
+                }
+            }
+            case Request.Method.GET:
+                return new HttpGet(request.getUrl());
+            case Request.Method.DELETE:
+                return new HttpDelete(request.getUrl());
+            case Request.Method.POST: {
+                HttpPost postRequest = new HttpPost(request.getUrl());
+                setEntityIfNonEmptyBody(postRequest, request);
+                return postRequest;
+            }
+            case Request.Method.PUT: {
+                HttpPut putRequest = new HttpPut(request.getUrl());
+                setEntityIfNonEmptyBody(putRequest, request);
+                return putRequest;
+            }
+            case Request.Method.HEAD:
+                return new HttpHead(request.getUrl());
+            case Request.Method.OPTIONS:
+                return new HttpOptions(request.getUrl());
+            case Request.Method.TRACE:
+                return new HttpTrace(request.getUrl());
+            case Request.Method.PATCH: {
+                HttpClientStack.HttpPatch patchRequest = new HttpClientStack.HttpPatch(request.getUrl());
+                setEntityIfNonEmptyBody(patchRequest, request);
+                return patchRequest;
+            }
+            default:
+                throw new IllegalStateException("Unknown request method.");
+        }
+    }
+
+    private static void setEntityIfNonEmptyBody(HttpEntityEnclosingRequestBase httpRequest,
+                                                Request<?> request) throws AuthFailureError {
+        httpRequest.addHeader(HEADER_CONTENT_TYPE, request.getBodyContentType());
+
+        /* Write pojo request bodies straight to the connection */
+        if (request instanceof PojoRequest) {
+            PojoRequest<?> pojoRequest = (PojoRequest<?>) request;
+            TypedOutput body = pojoRequest.getBodyOutput();
+            if (body != null) {
+                httpRequest.setEntity(new TypedOutputEntity(body, request.getBodyContentType(),
+                        pojoRequest.getUploadProgressListener()));
+            }
+            return;
+        }
+
+        byte[] body = request.getBody();
+        if (body != null) {
+            httpRequest.setEntity(new ByteArrayEntity(body));
+        }
+    }
+
+    /**
+     * Honors the server's keep-alive timeout, but never keeps a connection longer than configured
+     */
+    private static final class CappedKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+
+        private final long mMaxKeepAliveMillis;
+
+        CappedKeepAliveStrategy(long maxKeepAliveMillis) {
+            mMaxKeepAliveMillis = maxKeepAliveMillis;
+        }
+
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            HeaderElementIterator iterator = new BasicHeaderElementIterator(
+                    response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+            while (iterator.hasNext()) {
+                HeaderElement element = iterator.nextElement();
+                if ("timeout".equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+                    try {
+                        return Math.min(Long.parseLong(element.getValue()) * 1000, mMaxKeepAliveMillis);
+                    } catch (NumberFormatException ignored) {
+                        // Fall back to the configured duration
+                    }
+                }
+            }
+            return mMaxKeepAliveMillis;
+        }
+    }
+
+    /**
+     * A thread safe connection manager keeping track of the connection reuse
+     */
+    private static final class PoolingConnManager extends ThreadSafeClientConnManager {
+
+        final ConnectionStats mStats;
+
+        PoolingConnManager(HttpParams params, SchemeRegistry schemeRegistry) {
+            super(params, schemeRegistry);
+            /* The operator is created by the super constructor, before our fields are set */
+            mStats = ((CountingConnectionOperator) connOperator).mStats;
+        }
+
+        @Override
+        protected ClientConnectionOperator createConnectionOperator(SchemeRegistry schemeRegistry) {
+            return new CountingConnectionOperator(super.createConnectionOperator(schemeRegistry));
+        }
+
+        @Override
+        public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+            final ClientConnectionRequest delegate = super.requestConnection(route, state);
+            return new ClientConnectionRequest() {
+                @Override
+                public ManagedClientConnection getConnection(long timeout, TimeUnit tunit)
+                        throws InterruptedException, ConnectionPoolTimeoutException {
+                    ManagedClientConnection connection = delegate.getConnection(timeout, tunit);
+                    mStats.recordLease();
+                    return connection;
+                }
+
+                @Override
+                public void abortRequest() {
+                    delegate.abortRequest();
+                }
+            };
+        }
+    }
+
+    /**
+     * Measures the time spent opening connections, including the TLS handshake
+     */
+    private static final class CountingConnectionOperator implements ClientConnectionOperator {
+
+        final ConnectionStats mStats = new ConnectionStats();
+        private final ClientConnectionOperator mDelegate;
+
+        CountingConnectionOperator(ClientConnectionOperator delegate) {
+            mDelegate = delegate;
+        }
+
+        @Override
+        public OperatedClientConnection createConnection() {
+            return mDelegate.createConnection();
+        }
+
+        @Override
+        public void openConnection(OperatedClientConnection conn, HttpHost target, InetAddress local,
+                                   HttpContext context, HttpParams params) throws IOException {
+            final long start = System.nanoTime();
+            mDelegate.openConnection(conn, target, local, context, params);
+            mStats.recordOpen(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+
+        @Override
+        public void updateSecureConnection(OperatedClientConnection conn, HttpHost target,
+                                           HttpContext context, HttpParams params) throws IOException {
+            mDelegate.updateSecureConnection(conn, target, context, params);
+        }
+    }
+
+    public static class Builder {
+
+        int maxConnections = 20;
+        int maxConnectionsPerHost = 4;
+        long keepAliveMillis = TimeUnit.MINUTES.toMillis(5);
+        long reaperIntervalMillis = TimeUnit.SECONDS.toMillis(30);
+        SSLSocketFactory sslSocketFactory;
+
+        /**
+         * @param maxConnections Maximum number of open connections, 20 by default
+         */
+        public Builder setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        /**
+         * @param maxConnectionsPerHost Maximum number of open connections to a single host, 4 by default
+         */
+        public Builder setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+            return this;
+        }
+
+        /**
+         * @param keepAliveMillis How long an unused connection is kept open, 5 minutes by default.
+         *                        A shorter keep-alive timeout sent by the server takes precedence.
+         */
+        public Builder setKeepAlive(long keepAliveMillis) {
+            this.keepAliveMillis = keepAliveMillis;
+            return this;
+        }
+
+        /**
+         * @param reaperIntervalMillis How often idle connections are looked for, 30 seconds by default
+         */
+        public Builder setIdleReaperInterval(long reaperIntervalMillis) {
+            this.reaperIntervalMillis = reaperIntervalMillis;
+            return this;
+        }
+
+        /**
+         * @param sslSocketFactory Socket factory for https connections
+         */
+        public Builder setSslSocketFactory(SSLSocketFactory sslSocketFactory) {
+            this.sslSocketFactory = sslSocketFactory;
+            return this;
+        }
+
+        /**
+         * Create new {@link RetroHttpClientStack} instance
+         */
+        public RetroHttpClientStack build() {
+            if (maxConnections < 1 || maxConnectionsPerHost < 1) {
+                throw new IllegalArgumentException("Connection limits must be positive");
+            }
+            if (keepAliveMillis < 0 || reaperIntervalMillis <= 0) {
+                throw new IllegalArgumentException("Keep alive and reaper interval must not be negative");
+            }
+            if (sslSocketFactory == null) {
+                sslSocketFactory = SSLSocketFactory.getSocketFactory();
+            }
+            return new RetroHttpClientStack(this);
+        }
+    }
+}
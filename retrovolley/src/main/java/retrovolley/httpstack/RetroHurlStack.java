@@ -1,4 +1,5 @@
 /*
+ * Copyright (C) 2011 The Android Open Source Project
  * Copyright (C) 2015 Serghei (Serj) Lotutovici
  * Copyright (C) 2015 Konstantin Tarasenko
  *
@@ -16,15 +17,281 @@
  */
 package retrovolley.httpstack;
 
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
 import com.android.volley.toolbox.HurlStack;
 
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.StatusLine;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+import retrovolley.mime.TypedByteArray;
+import retrovolley.mime.TypedOutput;
+import retrovolley.request.PojoRequest;
+import retrovolley.request.ProgressListener;
+
 /**
+ * A {@link HurlStack} that writes {@link PojoRequest} bodies straight to the connection.
+ * The body is never copied into an intermediate array and, when its length is known,
+ * sent in fixed length streaming mode so the connection doesn't buffer it either.
+ *
  * @author Konstantin Tarasenko
  */
 public class RetroHurlStack extends HurlStack implements RetroStack {
 
+    private static final String HEADER_CONTENT_TYPE = "Content-Type";
+
+    /**
+     * An optional url rewriter
+     */
+    private final UrlRewriter mUrlRewriter;
+
+    /**
+     * An optional socket factory for https connections
+     */
+    private final SSLSocketFactory mSslSocketFactory;
+
+    public RetroHurlStack() {
+        this(null);
+    }
+
+    /**
+     * @param urlRewriter Rewriter to use for request URLs
+     */
+    public RetroHurlStack(UrlRewriter urlRewriter) {
+        this(urlRewriter, null);
+    }
+
+    /**
+     * @param urlRewriter      Rewriter to use for request URLs
+     * @param sslSocketFactory SSL factory to use for HTTPS connections
+     */
+    public RetroHurlStack(UrlRewriter urlRewriter, SSLSocketFactory sslSocketFactory) {
+        super(urlRewriter, sslSocketFactory);
+        mUrlRewriter = urlRewriter;
+        mSslSocketFactory = sslSocketFactory;
+    }
+
     @Override
     public void clearCookies() {
         throw new UnsupportedOperationException("not implemented yet");
     }
+
+    @Override
+    public HttpResponse performRequest(Request<?> request, Map<String, String> additionalHeaders)
+            throws IOException, AuthFailureError {
+        String url = request.getUrl();
+        HashMap<String, String> map = new HashMap<String, String>();
+        map.putAll(request.getHeaders());
+        map.putAll(additionalHeaders);
+        if (mUrlRewriter != null) {
+            String rewritten = mUrlRewriter.rewriteUrl(url);
+            if (rewritten == null) {
+                throw new IOException("URL blocked by rewriter: " + url);
+            }
+            url = rewritten;
+        }
+
+        HttpURLConnection connection = openConnection(new URL(url), request);
+        for (Map.Entry<String, String> header : map.entrySet()) {
+            connection.addRequestProperty(header.getKey(), header.getValue());
+        }
+        setConnectionParametersForRequest(connection, request);
+
+        int responseCode = connection.getResponseCode();
+        if (responseCode == -1) {
+            /* -1 is returned by getResponseCode() if the response code could not be retrieved */
+            throw new IOException("Could not retrieve response code from HttpUrlConnection.");
+        }
+
+        ProtocolVersion protocolVersion = new ProtocolVersion("HTTP", 1, 1);
+        StatusLine responseStatus = new BasicStatusLine(protocolVersion, responseCode,
+                connection.getResponseMessage());
+        BasicHttpResponse response = new BasicHttpResponse(responseStatus);
+        if (hasResponseBody(request.getMethod(), responseCode)) {
+            response.setEntity(entityFromConnection(connection));
+        }
+
+        for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+            if (header.getKey() != null) {
+                Header h = new BasicHeader(header.getKey(), header.getValue().get(0));
+                response.addHeader(h);
+            }
+        }
+
+        return response;
+    }
+
+    /**
+     * Checks if a response message contains a body.
+     *
+     * @param requestMethod Request method
+     * @param responseCode  Response status code
+     * @return Whether the response has a body
+     * @see <a href="https://tools.ietf.org/html/rfc7230#section-3.3">RFC 7230 section 3.3</a>
+     */
+    private static boolean hasResponseBody(int requestMethod, int responseCode) {
+        return requestMethod != Request.Method.HEAD
+                && !(100 <= responseCode && responseCode < 200)
+                && responseCode != HttpURLConnection.HTTP_NO_CONTENT
+                && responseCode != HttpURLConnection.HTTP_NOT_MODIFIED;
+    }
+
+    /**
+     * Initializes an {@link HttpEntity} from the given {@link HttpURLConnection}.
+     *
+     * @param connection The opened connection
+     * @return An HttpEntity populated with data from the connection
+     */
+    private static HttpEntity entityFromConnection(HttpURLConnection connection) {
+        BasicHttpEntity entity = new BasicHttpEntity();
+        InputStream inputStream;
+        try {
+            inputStream = connection.getInputStream();
+        } catch (IOException ioe) {
+            inputStream = connection.getErrorStream();
+        }
+        entity.setContent(inputStream);
+        entity.setContentLength(connection.getContentLength());
+        entity.setContentEncoding(connection.getContentEncoding());
+        entity.setContentType(connection.getContentType());
+        return entity;
+    }
+
+    /**
+     * Opens an {@link HttpURLConnection} with parameters.
+     *
+     * @param url     The url to connect to
+     * @param request The request
+     * @return An open connection
+     * @throws IOException In case the connection can't be opened
+     */
+    private HttpURLConnection openConnection(URL url, Request<?> request) throws IOException {
+        HttpURLConnection connection = createConnection(url);
+
+        int timeoutMs = request.getTimeoutMs();
+        connection.setConnectTimeout(timeoutMs);
+        connection.setReadTimeout(timeoutMs);
+        connection.setUseCaches(false);
+        connection.setDoInput(true);
+
+        /* Use caller-provided custom SslSocketFactory, if any, for HTTPS */
+        if ("https".equals(url.getProtocol()) && mSslSocketFactory != null) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(mSslSocketFactory);
+        }
+
+        return connection;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void setConnectionParametersForRequest(HttpURLConnection connection, Request<?> request)
+            throws IOException, AuthFailureError {
+        switch (request.getMethod()) {
+            case Request.Method.DEPRECATED_GET_OR_POST:
+                /* This is the deprecated way that needs to be handled for backwards compatibility.
+                 * If the request's post body is null, then the assumption is that the request is
+                 * GET.  Otherwise, it is assumed that the request is a POST. */
+                byte[] postBody = request.getPostBody();
+                if (postBody != null) {
+                    connection.setDoOutput(true);
+                    connection.setRequestMethod("POST");
+                    connection.addRequestProperty(HEADER_CONTENT_TYPE, request.getPostBodyContentType());
+                    OutputStream out = connection.getOutputStream();
+                    try {
+                        out.write(postBody);
+                    } finally {
+                        out.close();
+                    }
+                }
+                break;
+            case Request.Method.GET:
+                /* Not necessary to set the request method because connection defaults to GET but
+                 * being explicit here. */
+                connection.setRequestMethod("GET");
+                break;
+            case Request.Method.DELETE:
+                connection.setRequestMethod("DELETE");
+                break;
+            case Request.Method.POST:
+                connection.setRequestMethod("POST");
+                addBodyIfExists(connection, request);
+                break;
+            case Request.Method.PUT:
+                connection.setRequestMethod("PUT");
+                addBodyIfExists(connection, request);
+                break;
+            case Request.Method.HEAD:
+                connection.setRequestMethod("HEAD");
+                break;
+            case Request.Method.OPTIONS:
+                connection.setRequestMethod("OPTIONS");
+                break;
+            case Request.Method.TRACE:
+                connection.setRequestMethod("TRACE");
+                break;
+            case Request.Method.PATCH:
+                connection.setRequestMethod("PATCH");
+                addBodyIfExists(connection, request);
+                break;
+            default:
+                throw new IllegalStateException("Unknown method type.");
+        }
+    }
+
+    private static void addBodyIfExists(HttpURLConnection connection, Request<?> request)
+            throws IOException, AuthFailureError {
+        final TypedOutput body;
+        if (request instanceof PojoRequest) {
+            body = ((PojoRequest<?>) request).getBodyOutput();
+        } else {
+            byte[] bytes = request.getBody();
+            body = bytes != null ? new TypedByteArray(null, bytes) : null;
+        }
+
+        if (body == null) {
+            return;
+        }
+
+        connection.setDoOutput(true);
+        connection.addRequestProperty(HEADER_CONTENT_TYPE, request.getBodyContentType());
+
+        /* Without a streaming mode the connection buffers the whole body before sending it */
+        final long length = body.length();
+        if (length >= 0 && length <= Integer.MAX_VALUE) {
+            connection.setFixedLengthStreamingMode((int) length);
+        } else {
+            connection.setChunkedStreamingMode(0);
+        }
+
+        OutputStream out = connection.getOutputStream();
+        try {
+            OutputStream progressOut = ProgressOutputStream.wrap(out, getUploadProgressListener(request), length);
+            body.writeTo(progressOut);
+            ProgressOutputStream.done(progressOut);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static ProgressListener getUploadProgressListener(Request<?> request) {
+        return request instanceof PojoRequest ? ((PojoRequest<?>) request).getUploadProgressListener() : null;
+    }
 }
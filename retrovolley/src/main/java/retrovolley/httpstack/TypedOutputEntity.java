@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.httpstack;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import retrovolley.mime.TypedOutput;
+import retrovolley.request.ProgressListener;
+
+/**
+ * An http entity writing a {@link TypedOutput} straight to the connection.
+ * A body of unknown length is sent chunked.
+ *
+ * @author Konstantin Tarasenko
+ */
+class TypedOutputEntity extends AbstractHttpEntity {
+
+    private final TypedOutput mBody;
+    private final ProgressListener mProgressListener;
+
+    TypedOutputEntity(TypedOutput body, String contentType, ProgressListener progressListener) {
+        mBody = body;
+        mProgressListener = progressListener;
+        setContentType(contentType);
+        setChunked(body.length() < 0);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return mBody.isRepeatable();
+    }
+
+    @Override
+    public long getContentLength() {
+        return mBody.length();
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        /* Only used by clients that need to buffer the entity */
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        mBody.writeTo(bytes);
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        OutputStream progressOut = ProgressOutputStream.wrap(out, mProgressListener, mBody.length());
+        mBody.writeTo(progressOut);
+        progressOut.flush();
+        ProgressOutputStream.done(progressOut);
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+}
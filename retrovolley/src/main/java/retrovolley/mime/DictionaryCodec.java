@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.mime;
+
+import com.android.volley.toolbox.ByteArrayPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Deflate with a preset dictionary, for small bodies that share most of their content,
+ * like JSON documents with the same keys, where plain gzip barely helps.
+ * <br>
+ * Both sides must have the same dictionary. The client advertises its dictionary version in
+ * the {@value #HEADER_DICTIONARY} header, bodies encoded with it are sent with the
+ * {@value #CONTENT_ENCODING} content encoding and the same header. The data is a raw
+ * deflate stream, without zlib or gzip framing.
+ *
+ * @author Serghei Lotutovici
+ */
+public final class DictionaryCodec {
+
+    /**
+     * Content encoding of bodies deflated with a dictionary
+     */
+    public static final String CONTENT_ENCODING = "x-deflate-dict";
+
+    /**
+     * Header carrying the dictionary version
+     */
+    public static final String HEADER_DICTIONARY = "X-Deflate-Dictionary";
+
+    private final String mVersion;
+    private final byte[] mDictionary;
+
+    /**
+     * Constructs a new codec
+     *
+     * @param version    The dictionary version, shared with the server
+     * @param dictionary The dictionary, the most common strings should be at its end
+     */
+    public DictionaryCodec(String version, byte[] dictionary) {
+        if (version == null || version.length() == 0) {
+            throw new IllegalArgumentException("Dictionary version must not be empty");
+        }
+        if (dictionary == null || dictionary.length == 0) {
+            throw new IllegalArgumentException("Dictionary must not be empty");
+        }
+        mVersion = version;
+        mDictionary = dictionary.clone();
+    }
+
+    /**
+     * @return The dictionary version
+     */
+    public String getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Encode a body with the dictionary
+     *
+     * @param body The body to encode
+     * @param pool The pool to borrow the encoding buffer from
+     * @return The encoded body
+     */
+    public EncodedTypedOutput encode(TypedOutput body, ByteArrayPool pool) {
+        return new EncodedTypedOutput(body, pool) {
+            @Override
+            public String contentEncoding() {
+                return CONTENT_ENCODING;
+            }
+
+            @Override
+            protected OutputStream encoder(OutputStream out) throws IOException {
+                final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+                deflater.setDictionary(mDictionary);
+                return new DeflaterOutputStream(out, deflater) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            /* The deflater is ours, DeflaterOutputStream only ends its default one */
+                            deflater.end();
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Decode a body encoded with the dictionary
+     *
+     * @param in The encoded body
+     * @return The decoding stream, closing it releases its inflater
+     */
+    public InputStream decode(InputStream in) {
+        final Inflater inflater = new Inflater(true);
+        inflater.setDictionary(mDictionary);
+        return new InflaterInputStream(in, inflater) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+}
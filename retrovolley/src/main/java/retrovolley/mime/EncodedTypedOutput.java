@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.mime;
+
+import com.android.volley.toolbox.ByteArrayPool;
+import com.android.volley.toolbox.PoolingByteArrayOutputStream;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A {@link TypedOutput} sent with a content encoding. The data is encoded once, into a buffer
+ * borrowed from a {@link ByteArrayPool}, which is given back with {@link #release()}.
+ *
+ * @author Serghei Lotutovici
+ */
+public abstract class EncodedTypedOutput implements TypedOutput {
+
+    /**
+     * Initial size of the encoding buffer
+     */
+    private static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    private final TypedOutput mDelegate;
+    private final ByteArrayPool mPool;
+
+    /**
+     * The encoded data, null until first accessed or after release
+     */
+    private PoolingByteArrayOutputStream mBytes;
+
+    /**
+     * @param delegate The data to encode
+     * @param pool     The pool to borrow the encoding buffer from
+     */
+    protected EncodedTypedOutput(TypedOutput delegate, ByteArrayPool pool) {
+        mDelegate = delegate;
+        mPool = pool;
+    }
+
+    /**
+     * @return The value of the Content-Encoding header
+     */
+    public abstract String contentEncoding();
+
+    /**
+     * Wrap the stream with an encoder. Closing the encoder must finish the encoded data
+     * and release its resources, the wrapped stream is protected from being closed.
+     *
+     * @param out The stream receiving the encoded data
+     * @return The encoding stream
+     * @throws IOException In case the encoder can't be created
+     */
+    protected abstract OutputStream encoder(OutputStream out) throws IOException;
+
+    /**
+     * @return The data before encoding
+     */
+    public TypedOutput getDelegate() {
+        return mDelegate;
+    }
+
+    @Override
+    public String mimeType() {
+        return mDelegate.mimeType();
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        /* The data is encoded again once the buffer was released */
+        return mDelegate.isRepeatable();
+    }
+
+    @Override
+    public synchronized long length() {
+        try {
+            return encode().size();
+        } catch (IOException ioe) {
+            /* The length is unknown, the error will be thrown again on writeTo */
+            return -1;
+        }
+    }
+
+    @Override
+    public synchronized void writeTo(OutputStream out) throws IOException {
+        encode().writeTo(out);
+    }
+
+    /**
+     * Give the encoding buffer back to the pool, and release the delegate if it's pooled too
+     */
+    public synchronized void release() {
+        if (mBytes != null) {
+            try {
+                mBytes.close();
+            } catch (IOException ignored) {
+                // Closing a byte array stream never fails
+            }
+            mBytes = null;
+        }
+        if (mDelegate instanceof TypedObject) {
+            ((TypedObject) mDelegate).release();
+        }
+    }
+
+    private PoolingByteArrayOutputStream encode() throws IOException {
+        if (mBytes == null) {
+            final long length = mDelegate.length();
+            final PoolingByteArrayOutputStream bytes = new PoolingByteArrayOutputStream(mPool,
+                    length > 0 && length < Integer.MAX_VALUE ? (int) (length / 4) : DEFAULT_BUFFER_SIZE);
+
+            /* Closing the encoder releases its deflater, but the buffer must stay open */
+            OutputStream encoder = encoder(new FilterOutputStream(bytes) {
+                @Override
+                public void write(byte[] buffer, int offset, int count) throws IOException {
+                    out.write(buffer, offset, count);
+                }
+
+                @Override
+                public void close() {
+                    // Keep the pooled stream open
+                }
+            });
+            boolean encoded = false;
+            try {
+                mDelegate.writeTo(encoder);
+                encoder.close();
+                encoded = true;
+            } finally {
+                if (!encoded) {
+                    /* Release the encoder before the buffer goes back to the pool */
+                    try {
+                        encoder.close();
+                    } catch (IOException ignored) {
+                        // The original error is more relevant
+                    }
+                    bytes.close();
+                }
+            }
+            mBytes = bytes;
+        }
+        return mBytes;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.mime;
+
+import com.android.volley.toolbox.ByteArrayPool;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A gzip compressed {@link TypedOutput}
+ *
+ * @author Serghei Lotutovici
+ */
+public class GzipTypedOutput extends EncodedTypedOutput {
+
+    /**
+     * Constructs a new gzip typed output
+     *
+     * @param delegate The data to compress
+     * @param pool     The pool to borrow the compression buffer from
+     */
+    public GzipTypedOutput(TypedOutput delegate, ByteArrayPool pool) {
+        super(delegate, pool);
+    }
+
+    @Override
+    public String contentEncoding() {
+        return "gzip";
+    }
+
+    @Override
+    protected OutputStream encoder(OutputStream out) throws IOException {
+        return new GZIPOutputStream(out);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.mime;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A {@code multipart/form-data} body. Parts are written to the connection one after the other,
+ * file and stream parts are never loaded into memory.
+ * <br>
+ * The length is known if the length of every part is known, otherwise the body is sent chunked.
+ *
+ * @author Serghei Lotutovici
+ */
+public final class MultipartTypedOutput implements TypedOutput {
+
+    private static final String CHARSET = "UTF-8";
+    private static final String DEFAULT_PART_TYPE = "application/octet-stream";
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final String mBoundary;
+    private final byte[] mFooter;
+    private final List<Part> mParts = new ArrayList<Part>();
+
+    /**
+     * Constructs an empty multipart body with a random boundary
+     */
+    public MultipartTypedOutput() {
+        this(UUID.randomUUID().toString());
+    }
+
+    /**
+     * Constructs an empty multipart body
+     *
+     * @param boundary The boundary between the parts, it must not occur in any part
+     */
+    public MultipartTypedOutput(String boundary) {
+        if (boundary == null || boundary.length() == 0) {
+            throw new IllegalArgumentException("The boundary must not be empty");
+        }
+        mBoundary = boundary;
+        mFooter = getBytes("--" + boundary + "--\r\n");
+    }
+
+    /**
+     * Add a plain text form field
+     *
+     * @param name  The field name
+     * @param value The field value
+     * @return The same multipart body
+     */
+    public MultipartTypedOutput addField(String name, String value) {
+        return addPart(name, null, new TypedByteArray("text/plain; charset=" + CHARSET, getBytes(value)));
+    }
+
+    /**
+     * Add a part, a {@link TypedFile} is sent with its file name
+     *
+     * @param name The part name
+     * @param body The part body
+     * @return The same multipart body
+     */
+    public MultipartTypedOutput addPart(String name, TypedOutput body) {
+        return addPart(name, body instanceof TypedFile ? ((TypedFile) body).fileName() : null, body);
+    }
+
+    /**
+     * Add a part
+     *
+     * @param name     The part name
+     * @param fileName The file name sent with the part, or null
+     * @param body     The part body
+     * @return The same multipart body
+     */
+    public MultipartTypedOutput addPart(String name, String fileName, TypedOutput body) {
+        if (name == null) {
+            throw new NullPointerException("name");
+        }
+        if (body == null) {
+            throw new NullPointerException("body");
+        }
+
+        StringBuilder header = new StringBuilder(128);
+        header.append("--").append(mBoundary).append("\r\n");
+        header.append("Content-Disposition: form-data; name=\"").append(escape(name)).append('"');
+        if (fileName != null) {
+            header.append("; filename=\"").append(escape(fileName)).append('"');
+        }
+        header.append("\r\nContent-Type: ");
+        header.append(body.mimeType() != null ? body.mimeType() : DEFAULT_PART_TYPE);
+        header.append("\r\n\r\n");
+
+        mParts.add(new Part(getBytes(header.toString()), body));
+        return this;
+    }
+
+    /**
+     * @return The number of parts
+     */
+    public int getPartCount() {
+        return mParts.size();
+    }
+
+    @Override
+    public String mimeType() {
+        return "multipart/form-data; boundary=" + mBoundary;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        for (Part part : mParts) {
+            if (!part.body.isRepeatable()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public long length() {
+        long length = mFooter.length;
+        for (Part part : mParts) {
+            long bodyLength = part.body.length();
+            if (bodyLength < 0) {
+                return -1;
+            }
+            length += part.header.length + bodyLength + CRLF.length;
+        }
+        return length;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        for (Part part : mParts) {
+            out.write(part.header);
+            part.body.writeTo(out);
+            out.write(CRLF);
+        }
+        out.write(mFooter);
+    }
+
+    /**
+     * Escape a quoted header parameter the way browsers do
+     */
+    private static String escape(String value) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement = c == '"' ? "%22" : c == '\r' ? "%0D" : c == '\n' ? "%0A" : null;
+            if (replacement != null && escaped == null) {
+                escaped = new StringBuilder(value.length() + 8).append(value, 0, i);
+            }
+            if (escaped != null) {
+                if (replacement != null) {
+                    escaped.append(replacement);
+                } else {
+                    escaped.append(c);
+                }
+            }
+        }
+        return escaped != null ? escaped.toString() : value;
+    }
+
+    private static byte[] getBytes(String value) {
+        try {
+            return value.getBytes(CHARSET);
+        } catch (UnsupportedEncodingException uee) {
+            throw new RuntimeException("Encoding not supported: " + CHARSET, uee);
+        }
+    }
+
+    /**
+     * A part with its already encoded headers
+     */
+    private static final class Part {
+
+        final byte[] header;
+        final TypedOutput body;
+
+        Part(byte[] header, TypedOutput body) {
+            this.header = header;
+            this.body = body;
+        }
+    }
+}
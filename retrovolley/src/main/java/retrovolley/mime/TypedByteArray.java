@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.mime;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Byte array with an optional mime type
+ *
+ * @author Serghei Lotutovici
+ */
+public class TypedByteArray implements TypedOutput {
+
+    private final String mMimeType;
+    private final byte[] mBytes;
+
+    /**
+     * Constructs a new typed byte array
+     *
+     * @param mimeType The mime type, or null to use the request's default
+     * @param bytes    The data
+     */
+    public TypedByteArray(String mimeType, byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("bytes");
+        }
+        mMimeType = mimeType;
+        mBytes = bytes;
+    }
+
+    /**
+     * @return The wrapped data, not a copy
+     */
+    public byte[] getBytes() {
+        return mBytes;
+    }
+
+    @Override
+    public String mimeType() {
+        return mMimeType;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long length() {
+        return mBytes.length;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(mBytes);
+    }
+}
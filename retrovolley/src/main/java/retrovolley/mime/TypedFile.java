@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.mime;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * File with a mime type, streamed to the connection without loading it into memory
+ *
+ * @author Serghei Lotutovici
+ */
+public class TypedFile implements TypedOutput {
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private final String mMimeType;
+    private final File mFile;
+
+    /**
+     * Constructs a new typed file
+     *
+     * @param mimeType The mime type, or null to use the request's default
+     * @param file     The file to send
+     */
+    public TypedFile(String mimeType, File file) {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        mMimeType = mimeType;
+        mFile = file;
+    }
+
+    /**
+     * @return The file
+     */
+    public File file() {
+        return mFile;
+    }
+
+    /**
+     * @return The file name
+     */
+    public String fileName() {
+        return mFile.getName();
+    }
+
+    @Override
+    public String mimeType() {
+        return mMimeType;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long length() {
+        return mFile.length();
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        InputStream in = new FileInputStream(mFile);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
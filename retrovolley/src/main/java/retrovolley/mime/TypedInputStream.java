@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.mime;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Input stream with a mime type, streamed to the connection without loading it into memory.
+ * A stream can only be read once, so a request with such a body can't be retried.
+ * The stream is closed once it was written.
+ *
+ * @author Serghei Lotutovici
+ */
+public class TypedInputStream implements TypedOutput {
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private final String mMimeType;
+    private final long mLength;
+    private final InputStream mStream;
+    private final AtomicBoolean mConsumed = new AtomicBoolean();
+
+    /**
+     * Constructs a new typed input stream of unknown length, sent chunked
+     *
+     * @param mimeType The mime type, or null to use the request's default
+     * @param stream   The stream to send
+     */
+    public TypedInputStream(String mimeType, InputStream stream) {
+        this(mimeType, -1, stream);
+    }
+
+    /**
+     * Constructs a new typed input stream
+     *
+     * @param mimeType The mime type, or null to use the request's default
+     * @param length   The number of bytes the stream provides, or -1 if it's unknown
+     * @param stream   The stream to send
+     */
+    public TypedInputStream(String mimeType, long length, InputStream stream) {
+        if (stream == null) {
+            throw new NullPointerException("stream");
+        }
+        mMimeType = mimeType;
+        mLength = length;
+        mStream = stream;
+    }
+
+    @Override
+    public String mimeType() {
+        return mMimeType;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        /* A stream can be read only once */
+        return false;
+    }
+
+    @Override
+    public long length() {
+        return mLength;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        if (mConsumed.getAndSet(true)) {
+            throw new IOException("The stream was already sent");
+        }
+
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long written = 0;
+            int count;
+            while ((count = mStream.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+                written += count;
+            }
+
+            /* The connection waits for the announced length, don't let it hang */
+            if (mLength >= 0 && written != mLength) {
+                throw new IOException("Expected " + mLength + " bytes, but the stream provided " + written);
+            }
+        } finally {
+            mStream.close();
+        }
+    }
+}
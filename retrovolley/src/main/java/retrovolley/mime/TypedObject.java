@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.mime;
+
+import com.android.volley.toolbox.ByteArrayPool;
+import com.android.volley.toolbox.PoolingByteArrayOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import retrovolley.converter.StreamingConverter;
+
+/**
+ * A java object that is converted to the request body only when the request is sent.
+ * The object is serialized once, into a buffer borrowed from a {@link ByteArrayPool},
+ * which is given back with {@link #release()}.
+ * <br>
+ * <b>Note: </b> The object must not be modified until the request is sent.
+ *
+ * @author Serghei Lotutovici
+ */
+public class TypedObject implements TypedOutput {
+
+    /**
+     * Initial size of the serialization buffer
+     */
+    private static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    private final Object mObject;
+    private final StreamingConverter mConverter;
+    private final String mCharset;
+    private final ByteArrayPool mPool;
+
+    /**
+     * The serialized object, null until first accessed or after release
+     */
+    private PoolingByteArrayOutputStream mBytes;
+
+    /**
+     * Constructs a new typed object
+     *
+     * @param object    The object to send
+     * @param converter The converter used to serialize the object
+     * @param charset   The body charset
+     * @param pool      The pool to borrow the serialization buffer from
+     */
+    public TypedObject(Object object, StreamingConverter converter, String charset, ByteArrayPool pool) {
+        mObject = object;
+        mConverter = converter;
+        mCharset = charset;
+        mPool = pool;
+    }
+
+    @Override
+    public String mimeType() {
+        return null;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public synchronized long length() {
+        try {
+            return serialize().size();
+        } catch (IOException ioe) {
+            /* The length is unknown, the error will be thrown again on writeTo */
+            return -1;
+        }
+    }
+
+    @Override
+    public synchronized void writeTo(OutputStream out) throws IOException {
+        /* Write the pooled buffer directly, without copying it into a new array */
+        serialize().writeTo(out);
+    }
+
+    /**
+     * Give the serialization buffer back to the pool.
+     * The object will be serialized again if the data is accessed after this call.
+     */
+    public synchronized void release() {
+        if (mBytes != null) {
+            try {
+                mBytes.close();
+            } catch (IOException ignored) {
+                // Closing a byte array stream never fails
+            }
+            mBytes = null;
+        }
+    }
+
+    private PoolingByteArrayOutputStream serialize() throws IOException {
+        if (mBytes == null) {
+            PoolingByteArrayOutputStream bytes = new PoolingByteArrayOutputStream(mPool, DEFAULT_BUFFER_SIZE);
+            try {
+                mConverter.toStream(mObject, bytes, mCharset);
+            } catch (IOException ioe) {
+                bytes.close();
+                throw ioe;
+            } catch (RuntimeException re) {
+                bytes.close();
+                throw re;
+            }
+            mBytes = bytes;
+        }
+        return mBytes;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.mime;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Binary data with an optional mime type, written straight to the request output stream.
+ * <p/>
+ * Inspired by retrofit implementation.
+ *
+ * @author Serghei Lotutovici
+ */
+public interface TypedOutput {
+
+    /**
+     * @return The mime type of the data, or null to use the request's default body content type
+     */
+    String mimeType();
+
+    /**
+     * @return Length in bytes, or -1 if unknown
+     */
+    long length();
+
+    /**
+     * @return True if the data can be written more than once, so the request can be retried
+     */
+    boolean isRepeatable();
+
+    /**
+     * Write the data to the stream. May be called more than once if the request is retried
+     * and the data is {@link #isRepeatable() repeatable}.
+     *
+     * @param out The stream to write to, not closed by this method
+     * @throws IOException In case writing fails
+     */
+    void writeTo(OutputStream out) throws IOException;
+}
@@ -16,11 +16,16 @@
  */
 package retrovolley.request;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Pair;
 
 import com.android.volley.AuthFailureError;
 import com.android.volley.Request;
+import com.android.volley.VolleyError;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
@@ -28,8 +33,13 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import retrovolley.RetroVolley;
+import retrovolley.mime.TypedByteArray;
+import retrovolley.mime.TypedObject;
+import retrovolley.mime.TypedOutput;
 
 /**
  * An abstract request class that defines the basic request build logic for all api calls.
@@ -51,7 +61,7 @@ abstract class AbstractRequest<T> extends Request<T> {
     private final RequestListener<T> mRequestListener;
 
     /**
-     * Request post params. Will be ignored if mJsonBody is set.
+     * Request post params. Will be ignored if mBody is set.
      */
     private List<Pair<String, String>> mParams;
 
@@ -61,15 +71,35 @@ abstract class AbstractRequest<T> extends Request<T> {
     private Map<String, String> mHeaders;
 
     /**
-     * Json body, for request that require json objects instead of post params
+     * Request body, for request that require json objects instead of post params
      */
-    private String mJsonBody;
+    private TypedOutput mBody;
 
     /**
      * Request response caching time in milliseconds
      */
     private long mCacheTimeInMillis;
 
+    /**
+     * Time the cached response may be served while it's refreshed, -1 for the cache time
+     */
+    private long mHardCacheTimeInMillis = -1;
+
+    /**
+     * Coalescing key, set only while this request is in flight as a leader
+     */
+    private volatile String mCoalescingKey;
+
+    /**
+     * How the parsed responses waiting for delivery are delivered, in delivery order
+     */
+    private final Queue<Delivery> mDeliveries = new ConcurrentLinkedQueue<Delivery>();
+
+    /**
+     * Stale response delivered while it's refreshed, accessed on the main thread only
+     */
+    private T mRefreshingResponse;
+
     /**
      * Main request constructor. Applies all required fields for request customization.
      *
@@ -152,9 +182,100 @@ abstract class AbstractRequest<T> extends Request<T> {
 
     @Override
     protected void deliverResponse(T response) {
-        if (mRequestListener != null) {
+        final Delivery delivery = mDeliveries.poll();
+        deliverResponse(response, delivery != null ? delivery : Delivery.FRESH);
+    }
+
+    private void deliverResponse(T response, Delivery delivery) {
+        final boolean stale = delivery != Delivery.FRESH;
+        if (delivery != Delivery.REFRESHING) {
+            releaseBody();
+        }
+        if (mRequestListener instanceof CacheAwareListener) {
+            ((CacheAwareListener<T>) mRequestListener).onResponse(response, stale);
+        } else if (mRequestListener != null) {
             mRequestListener.onResponse(response);
         }
+
+        /*
+         * Share the parsed response with identical requests, the key includes the response type.
+         * While the response is refreshed the followers keep waiting for the final one.
+         */
+        mRefreshingResponse = delivery == Delivery.REFRESHING ? response : null;
+        final List<AbstractRequest<?>> followers = delivery == Delivery.REFRESHING ? getFollowers() : detachFollowers();
+        deliverToFollowers(followers, response, delivery);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void deliverToFollowers(List<AbstractRequest<?>> followers, T response, Delivery delivery) {
+        for (AbstractRequest<?> follower : followers) {
+            if (!follower.isCanceled()) {
+                follower.markDelivered();
+                ((AbstractRequest<T>) follower).deliverResponse(response, delivery);
+            }
+        }
+    }
+
+    /**
+     * Called when a response was parsed, before it's posted for delivery.
+     * Deliveries happen in the order the responses were parsed.
+     *
+     * @param delivery How the response is delivered
+     */
+    void expectDelivery(Delivery delivery) {
+        mDeliveries.offer(delivery);
+    }
+
+    /**
+     * Called by the network when the refresh of a delivered stale response found it not modified.
+     * No other response is delivered, so the followers are released with the stale one.
+     */
+    public void onRefreshNotModified() {
+        if (mCoalescingKey == null) {
+            return;
+        }
+
+        /* Posted after the stale delivery, which is still pending on the main thread */
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                final T response = mRefreshingResponse;
+                mRefreshingResponse = null;
+
+                /* Followers attached during the refresh didn't get the stale response yet */
+                final List<AbstractRequest<?>> waiting = new ArrayList<AbstractRequest<?>>();
+                for (AbstractRequest<?> follower : detachFollowers()) {
+                    if (!follower.hasHadResponseDelivered()) {
+                        waiting.add(follower);
+                    }
+                }
+                if (response != null) {
+                    deliverToFollowers(waiting, response, Delivery.STALE);
+                } else {
+                    RequestCoalescer.resend(waiting);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void deliverError(VolleyError error) {
+        releaseBody();
+        super.deliverError(error);
+
+        for (AbstractRequest<?> follower : detachFollowers()) {
+            if (!follower.isCanceled()) {
+                follower.deliverError(error);
+            }
+        }
+    }
+
+    @Override
+    public void cancel() {
+        super.cancel();
+
+        /* The followers are still waiting for a response, send them on their own */
+        RequestCoalescer.resend(detachFollowers());
     }
 
     /**
@@ -170,6 +291,9 @@ abstract class AbstractRequest<T> extends Request<T> {
 
     @Override
     public String getBodyContentType() {
+        if (mBody != null && mBody.mimeType() != null) {
+            return mBody.mimeType();
+        }
         return "application/x-www-form-urlencoded; charset=UTF-8";
     }
 
@@ -191,22 +315,45 @@ abstract class AbstractRequest<T> extends Request<T> {
 
     @Override
     public byte[] getBody() throws AuthFailureError {
-        byte[] body = null;
+        final TypedOutput body = getBodyOutput();
 
-        if (mJsonBody != null) {
-            try {
-                body = mJsonBody.getBytes(getParamsEncoding());
-            } catch (UnsupportedEncodingException uee) {
-                body = mJsonBody.getBytes();
-            }
-        } else {
-            Map<String, String> params = getParams();
-            if (params != null && !params.isEmpty()) {
-                body = encodeParameters(params, getParamsEncoding());
-            }
+        if (body == null) {
+            return null;
+        }
+
+        if (body instanceof TypedByteArray) {
+            return ((TypedByteArray) body).getBytes();
         }
 
-        return body;
+        /* Only stacks that can't stream the body get here */
+        final long length = body.length();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(length > 0 ? (int) length : 32);
+        try {
+            body.writeTo(bytes);
+        } catch (IOException ioe) {
+            throw new RuntimeException("Failed to write request body", ioe);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Get the request body without copying it into an array, so network stacks can
+     * write it straight to the connection.
+     *
+     * @return The body set on the request, the encoded post params or null if there is no body
+     * @throws AuthFailureError In case the post params can't be accessed
+     */
+    public TypedOutput getBodyOutput() throws AuthFailureError {
+        if (mBody != null) {
+            return mBody;
+        }
+
+        Map<String, String> params = getParams();
+        if (params != null && !params.isEmpty()) {
+            return new TypedByteArray(null, encodeParameters(params, getParamsEncoding()));
+        }
+
+        return null;
     }
 
     @Override
@@ -250,10 +397,63 @@ abstract class AbstractRequest<T> extends Request<T> {
             mRequestListener.onExecute();
         }
 
+        enqueue();
+    }
+
+    /**
+     * Add the request to the applications request queue, unless an identical request
+     * is already in flight, in which case the request will wait for its response.
+     */
+    void enqueue() {
+        final String coalescingKey = getCoalescingKey();
+        if (coalescingKey != null) {
+            if (RequestCoalescer.attach(this, coalescingKey)) {
+                addMarker("coalesced");
+                return;
+            }
+            mCoalescingKey = coalescingKey;
+        }
+
         /* Add request to the applications request queue */
         RetroVolley.getInstance().getRequestQueue().add(this);
     }
 
+    /**
+     * Get the key identifying identical requests, that can share a single response
+     *
+     * @return The coalescing key or null if the request must always be sent
+     */
+    String getCoalescingKey() {
+        return null;
+    }
+
+    /**
+     * @return The requests waiting for this one, they keep waiting
+     */
+    private List<AbstractRequest<?>> getFollowers() {
+        final String coalescingKey = mCoalescingKey;
+        if (coalescingKey == null) {
+            return Collections.emptyList();
+        }
+
+        return RequestCoalescer.getFollowers(this, coalescingKey);
+    }
+
+    /**
+     * Stop leading identical requests
+     *
+     * @return The requests that were waiting for this one
+     */
+    private List<AbstractRequest<?>> detachFollowers() {
+        final String coalescingKey = mCoalescingKey;
+        if (coalescingKey == null) {
+            return Collections.emptyList();
+        }
+
+        mCoalescingKey = null;
+        return RequestCoalescer.detach(this, coalescingKey);
+    }
+
     /**
      * Converts <code>params</code> into an application/x-www-form-urlencoded encoded string.
      */
@@ -282,13 +482,71 @@ abstract class AbstractRequest<T> extends Request<T> {
         return mCacheTimeInMillis;
     }
 
+    /**
+     * @return Get the time the cached response may be served while it's refreshed, -1 for the cache time
+     */
+    long getHardCacheTimeInMillis() {
+        return mHardCacheTimeInMillis;
+    }
+
+    void setHardCacheTimeInMillis(long hardCacheTimeInMillis) {
+        mHardCacheTimeInMillis = hardCacheTimeInMillis;
+    }
+
     /**
      * Set the json body, this will override the usage of post params
      *
      * @param jsonBody The json body to set
      */
     public void setJsonBody(final String jsonBody) {
-        mJsonBody = jsonBody;
+        if (jsonBody == null) {
+            mBody = null;
+            return;
+        }
+
+        try {
+            mBody = new TypedByteArray(null, jsonBody.getBytes(getParamsEncoding()));
+        } catch (UnsupportedEncodingException uee) {
+            mBody = new TypedByteArray(null, jsonBody.getBytes());
+        }
     }
 
+    /**
+     * Set the request body, this will override the usage of post params
+     *
+     * @param body The body to set
+     */
+    void setBody(final TypedOutput body) {
+        mBody = body;
+    }
+
+    /**
+     * Give pooled body buffers back once the request is done
+     */
+    void releaseBody() {
+        if (mBody instanceof TypedObject) {
+            ((TypedObject) mBody).release();
+        }
+    }
+
+    /**
+     * How a parsed response is delivered
+     */
+    enum Delivery {
+
+        /**
+         * An up to date response, the last one of the request
+         */
+        FRESH,
+
+        /**
+         * An outdated cached response, delivered while it's refreshed from the network
+         */
+        REFRESHING,
+
+        /**
+         * An outdated cached response, served instead of an error, the last one of the request
+         */
+        STALE
+    }
 }
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.request;
+
+import java.util.List;
+
+/**
+ * Listener receiving the elements of a streamed list while the response is still being read.
+ * Always called on the main thread, before the request listener gets the final response.
+ *
+ * @author Serghei Lotutovici
+ */
+public interface BatchListener<E> {
+
+    /**
+     * Called with the elements parsed since the previous batch, in order
+     *
+     * @param items The next elements, never empty
+     */
+    void onBatch(List<E> items);
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.request;
+
+/**
+ * A request listener told whether a response is served from an outdated cache entry.
+ * A stale response is followed by the refreshed one, or is the last one if the request failed
+ * and the server allowed serving it with a {@code stale-if-error} directive.
+ * <br>
+ * {@link #onResponse(Object)} isn't called for responses delivered to this listener.
+ *
+ * @author Serghei Lotutovici
+ */
+public interface CacheAwareListener<T> extends RequestListener<T> {
+
+    /**
+     * Called on the main thread with a parsed response
+     *
+     * @param response The response
+     * @param stale    True if the response is an outdated cached one
+     */
+    void onResponse(T response, boolean stale);
+}
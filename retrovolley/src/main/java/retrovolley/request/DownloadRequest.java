@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.request;
+
+import android.util.Pair;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Response;
+import com.android.volley.RetryPolicy;
+
+import retrovolley.EndpointAdapter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A request streaming the response body to a file instead of keeping it in memory.
+ * The body is written to a {@code .part} file next to the target, which is renamed to the
+ * target once the whole body was received. The listener gets the target file.
+ * <br>
+ * If the response has a validator an interrupted download is resumed on retry, or by the
+ * next download of the same target, asking only for the missing bytes. See {@link PartialDownload}.
+ * <br>
+ * Downloads go through the endpoint's auth strategy, interceptor and retry policy like any
+ * other request, but are never cached or coalesced.
+ *
+ * @author Konstantin Tarasenko
+ */
+public class DownloadRequest extends PojoRequest<File> {
+
+    private final PartialDownload mPartialDownload;
+    private final ProgressListener mProgressListener;
+
+    DownloadRequest(
+            int method,
+            String url,
+            RequestListener<File> requestListener,
+            Map<String, String> headers,
+            List<Pair<String, String>> params,
+            RetryPolicy retryPolicy,
+            EndpointAdapter endpointAdapter,
+            File target,
+            ProgressListener progressListener) {
+        super(method, url, requestListener, headers, params, false, 0, File.class, retryPolicy, endpointAdapter);
+        mPartialDownload = new PartialDownload(target);
+        mProgressListener = progressListener != null ? new MainThreadProgressListener(progressListener) : null;
+    }
+
+    /**
+     * @return The file the body is saved to
+     */
+    public File getTarget() {
+        return mPartialDownload.getTarget();
+    }
+
+    /**
+     * @return The files of the download in progress
+     */
+    public PartialDownload getPartialDownload() {
+        return mPartialDownload;
+    }
+
+    /**
+     * @return The listener to report the download progress to, or null if nobody listens.
+     * Progress is forwarded to the main thread.
+     */
+    public ProgressListener getProgressListener() {
+        return mProgressListener;
+    }
+
+    @Override
+    public Response<File> parseNetworkResponse(NetworkResponse response) {
+        /* The body is already on disk */
+        return Response.success(mPartialDownload.getTarget(), null);
+    }
+
+    @Override
+    String getCoalescingKey() {
+        /* Every download has its own target */
+        return null;
+    }
+
+    /**
+     * Map a downloaded file into memory, read only
+     *
+     * @param file The downloaded file
+     * @return The mapped file content
+     * @throws IOException If the file can't be mapped
+     */
+    public static MappedByteBuffer map(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            /* The mapping stays valid after the channel is closed */
+            randomAccessFile.close();
+        }
+    }
+}
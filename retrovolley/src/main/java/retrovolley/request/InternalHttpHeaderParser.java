@@ -20,6 +20,7 @@ import com.android.volley.Cache;
 import com.android.volley.NetworkResponse;
 import com.android.volley.toolbox.HttpHeaderParser;
 
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -30,6 +31,14 @@ import java.util.Map;
 class InternalHttpHeaderParser extends HttpHeaderParser {
     private static final long DEFAULT_CACHE_TIME_IN_MILLIS = 60 * 60 * 1000;
 
+    private static final String STALE_WHILE_REVALIDATE = "stale-while-revalidate";
+    private static final String STALE_IF_ERROR = "stale-if-error";
+
+    /**
+     * Added to the cached headers, the time the entry has to be refreshed
+     */
+    static final String HEADER_SOFT_EXPIRE = "X-RetroVolley-Soft-Expire";
+
     /**
      *
      * @param response The network response to parse headers from
@@ -41,12 +50,27 @@ class InternalHttpHeaderParser extends HttpHeaderParser {
 
     /**
      * Extracts a {@link com.android.volley.Cache.Entry} from a {@link com.android.volley.NetworkResponse}.
-     * Cache-control headers are ignored. SoftTtl == 3 min, ttl == 24 hours.
+     * Cache-control headers are ignored. SoftTtl == ttl == the cache time.
      *
      * @param response The network response to parse headers from
      * @return A cache entry for the given response
      */
     public static Cache.Entry parseIgnoreCacheHeaders(NetworkResponse response, long cacheTimeInMillis) {
+        return parseIgnoreCacheHeaders(response, cacheTimeInMillis, -1);
+    }
+
+    /**
+     * Extracts a {@link com.android.volley.Cache.Entry} from a {@link com.android.volley.NetworkResponse}.
+     * Cache-control headers are ignored, except for {@code stale-while-revalidate} which may extend
+     * the hard TTL.
+     *
+     * @param response              The network response to parse headers from
+     * @param cacheTimeInMillis     Time the entry is served without being refreshed, the default if negative
+     * @param hardCacheTimeInMillis Time the entry is served while being refreshed, the cache time if lower
+     * @return A cache entry for the given response
+     */
+    public static Cache.Entry parseIgnoreCacheHeaders(NetworkResponse response, long cacheTimeInMillis,
+                                                      long hardCacheTimeInMillis) {
         /* Get headers to easier use */
         Map<String, String> headers = response.headers;
 
@@ -62,12 +86,20 @@ class InternalHttpHeaderParser extends HttpHeaderParser {
 
         /* Initialize caching time constrain values */
         final long now = System.currentTimeMillis();
+        // Amount of time in which the cache will be hit without being refreshed
+        final long cacheHit = cacheTimeInMillis >= 0 ? cacheTimeInMillis : DEFAULT_CACHE_TIME_IN_MILLIS;
         // Amount of time in which the cache will be hit, but also refreshed on background
-        final long cacheHitButRefreshed = cacheTimeInMillis > 0 ? cacheTimeInMillis : DEFAULT_CACHE_TIME_IN_MILLIS;
-        // Amount of time in which this cache entry expires completely
-        final long cacheExpired = cacheTimeInMillis > 0 ? cacheTimeInMillis : DEFAULT_CACHE_TIME_IN_MILLIS;
-        final long softExpire = now + cacheHitButRefreshed;
-        final long ttl = now + cacheExpired;
+        long cacheHitButRefreshed = Math.max(cacheHit, hardCacheTimeInMillis);
+        final long staleWhileRevalidate = parseCacheControlSeconds(headers, STALE_WHILE_REVALIDATE);
+        if (staleWhileRevalidate > 0) {
+            cacheHitButRefreshed = Math.max(cacheHitButRefreshed, cacheHit + staleWhileRevalidate * 1000);
+        }
+        final long softExpire = now + cacheHit;
+        final long ttl = now + cacheHitButRefreshed;
+
+        /* Remember when the entry turns stale, a response parsed from the cache doesn't come with its entry */
+        final Map<String, String> entryHeaders = new HashMap<String, String>(headers);
+        entryHeaders.put(HEADER_SOFT_EXPIRE, String.valueOf(softExpire));
 
         /* Build cache entry */
         Cache.Entry entry = new Cache.Entry();
@@ -76,8 +108,92 @@ class InternalHttpHeaderParser extends HttpHeaderParser {
         entry.softTtl = softExpire;
         entry.ttl = ttl;
         entry.serverDate = serverDate;
-        entry.responseHeaders = headers;
+        entry.responseHeaders = entryHeaders;
 
         return entry;
     }
-}
\ No newline at end of file
+
+    /**
+     * Check if a response was parsed from a cache entry that needs to be refreshed
+     *
+     * @param response The response to check
+     * @return True if the response is a stale cached one
+     */
+    static boolean isStale(NetworkResponse response) {
+        final String softExpire = response.headers != null ? response.headers.get(HEADER_SOFT_EXPIRE) : null;
+        if (softExpire == null) {
+            return false;
+        }
+        try {
+            return Long.parseLong(softExpire) <= System.currentTimeMillis();
+        } catch (NumberFormatException nfe) {
+            return false;
+        }
+    }
+
+    /**
+     * Get the version of the cache entry a response was parsed from, which changes
+     * whenever the entry is written
+     *
+     * @param response The response to check
+     * @return The entry version, or null if the response doesn't come from the cache
+     */
+    static String getEntryVersion(NetworkResponse response) {
+        return getEntryVersion(response.headers);
+    }
+
+    /**
+     * @param headers The cache entry headers
+     * @return The entry version, or null if the headers weren't cached
+     */
+    static String getEntryVersion(Map<String, String> headers) {
+        final String softExpire = headers != null ? headers.get(HEADER_SOFT_EXPIRE) : null;
+        if (softExpire == null) {
+            return null;
+        }
+        final String etag = headers.get("ETag");
+        return etag != null ? softExpire + " " + etag : softExpire;
+    }
+
+    /**
+     * Check if the server allowed serving a cache entry when the request fails,
+     * with a {@code stale-if-error} directive
+     *
+     * @param entry The cache entry
+     * @return True if the entry may be served instead of an error
+     */
+    static boolean isUsableOnError(Cache.Entry entry) {
+        if (entry.responseHeaders == null) {
+            return false;
+        }
+        final long staleIfError = parseCacheControlSeconds(entry.responseHeaders, STALE_IF_ERROR);
+        return staleIfError >= 0 && System.currentTimeMillis() < entry.ttl + staleIfError * 1000;
+    }
+
+    /**
+     * Get the value of a {@code Cache-Control} directive
+     *
+     * @param headers   The response headers
+     * @param directive The directive name
+     * @return The directive value in seconds, or -1 if not set
+     */
+    private static long parseCacheControlSeconds(Map<String, String> headers, String directive) {
+        final String cacheControl = headers.get("Cache-Control");
+        if (cacheControl == null) {
+            return -1;
+        }
+
+        for (String token : cacheControl.split(",")) {
+            token = token.trim();
+            if (token.startsWith(directive) && token.length() > directive.length()
+                    && token.charAt(directive.length()) == '=') {
+                try {
+                    return Long.parseLong(token.substring(directive.length() + 1).trim());
+                } catch (NumberFormatException nfe) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.request;
+
+import android.util.Pair;
+
+import com.android.volley.RetryPolicy;
+
+import retrovolley.EndpointAdapter;
+
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A request delivering the raw response, parsed only once the listener reads it.
+ * Cached responses are kept as they came from the network, so the cache isn't affected.
+ *
+ * @author Konstantin Tarasenko
+ * @see LazyResponse
+ */
+public class LazyRequest<T> extends PojoRequest<LazyResponse<T>> {
+
+    LazyRequest(
+            int method,
+            String url,
+            RequestListener<LazyResponse<T>> requestListener,
+            Map<String, String> headers,
+            List<Pair<String, String>> postParams,
+            boolean shouldCache,
+            long cacheTimeInMillis,
+            Type type,
+            RetryPolicy retryPolicy,
+            EndpointAdapter endpointAdapter) {
+        super(method, url, requestListener, headers, postParams, shouldCache, cacheTimeInMillis,
+                type, retryPolicy, endpointAdapter);
+    }
+
+    @Override
+    LazyResponse<T> convert(byte[] data, int length, String charset, boolean pooled) {
+        /* A pooled buffer is reused once parsed, keep a copy of the body */
+        final byte[] body = pooled || length != data.length ? Arrays.copyOf(data, length) : data;
+        return new LazyResponse<T>(body, charset, getResponseType(), getEndpointAdapter(), getJsonPointer());
+    }
+
+    @Override
+    String getCoalescingKey() {
+        /* Identical eager requests get a parsed object, not a handle */
+        final String key = super.getCoalescingKey();
+        return key != null ? "lazy " + key : null;
+    }
+}
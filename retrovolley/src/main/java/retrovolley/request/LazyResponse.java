@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.request;
+
+import retrovolley.EndpointAdapter;
+import retrovolley.converter.ConversionException;
+import retrovolley.converter.ProjectingConverter;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Type;
+
+/**
+ * A response kept as raw bytes, parsed only when the listener asks for it.
+ * The whole response is parsed on the first {@link #get()} call and kept afterwards,
+ * single fields can be read with {@link #get(String, Type)} without binding the rest of it.
+ * <br>
+ * Parsing happens on the calling thread, so large responses should be read off the main thread.
+ *
+ * @author Konstantin Tarasenko
+ */
+public final class LazyResponse<T> {
+
+    private final byte[] mData;
+    private final String mCharset;
+    private final Type mType;
+    private final EndpointAdapter mEndpointAdapter;
+    private final String[] mJsonPointer;
+
+    private boolean mParsed;
+    private T mValue;
+
+    /**
+     * @param data        The response body, not copied
+     * @param charset     The body charset
+     * @param type        The type of the response object
+     * @param adapter     The endpoint the response comes from
+     * @param jsonPointer The reference tokens of the response part to parse, or null
+     */
+    LazyResponse(byte[] data, String charset, Type type, EndpointAdapter adapter, String[] jsonPointer) {
+        mData = data;
+        mCharset = charset;
+        mType = type;
+        mEndpointAdapter = adapter;
+        mJsonPointer = jsonPointer;
+    }
+
+    /**
+     * Parse the response, only the first call parses it
+     *
+     * @return The response object
+     * @throws ConversionException If the response can't be parsed
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T get() throws ConversionException {
+        if (!mParsed) {
+            if (mType == String.class) {
+                mValue = (T) getString();
+            } else {
+                mValue = (T) PojoRequest.convert(mEndpointAdapter, new ByteArrayInputStream(mData),
+                        mCharset, mType, mJsonPointer);
+            }
+            mParsed = true;
+        }
+        return mValue;
+    }
+
+    /**
+     * Parse a single part of the response, skipping over everything else.
+     * The result isn't kept, every call parses the part again.
+     *
+     * @param jsonPointer The JSON pointer of the part, relative to the response object
+     * @param type        The type of the part
+     * @param <V>         The part type
+     * @return The part, or null if the response has no such part
+     * @throws ConversionException           If the part can't be parsed
+     * @throws IllegalArgumentException      If the pointer is malformed
+     * @throws UnsupportedOperationException If the endpoint's converter can't parse a part
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V get(String jsonPointer, Type type) throws ConversionException {
+        if (jsonPointer == null) {
+            throw new NullPointerException("JSON pointer must not be null");
+        }
+        final ProjectingConverter converter = mEndpointAdapter.getProjectingConverter();
+        if (converter == null) {
+            throw new UnsupportedOperationException("The converter of the endpoint can't parse a part of the response");
+        }
+
+        return (V) converter.fromStream(new ByteArrayInputStream(mData), mCharset, type,
+                concat(mJsonPointer, RestCallInfo.parseJsonPointer(jsonPointer)));
+    }
+
+    /**
+     * @return The response body as a string, not parsed
+     * @throws ConversionException If the body charset isn't supported
+     */
+    public String getString() throws ConversionException {
+        try {
+            return new String(mData, mCharset);
+        } catch (UnsupportedEncodingException uee) {
+            throw new ConversionException(uee);
+        }
+    }
+
+    /**
+     * @return The response body size in bytes
+     */
+    public int length() {
+        return mData.length;
+    }
+
+    /**
+     * @return True if the whole response was already parsed
+     */
+    public synchronized boolean isParsed() {
+        return mParsed;
+    }
+
+    private static String[] concat(String[] base, String[] tokens) {
+        if (base == null || base.length == 0) {
+            return tokens;
+        }
+        final String[] pointer = new String[base.length + tokens.length];
+        System.arraycopy(base, 0, pointer, 0, base.length);
+        System.arraycopy(tokens, 0, pointer, base.length, tokens.length);
+        return pointer;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.request;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Forwards the progress reported by a network thread to a listener on the main thread.
+ * Updates are throttled, the final one is always forwarded.
+ *
+ * @author Konstantin Tarasenko
+ */
+final class MainThreadProgressListener implements ProgressListener {
+
+    /**
+     * Minimum time between two forwarded updates
+     */
+    private static final long MIN_INTERVAL_MS = 100;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ProgressListener mListener;
+
+    /**
+     * Time of the last forwarded update, only accessed from the transferring thread
+     */
+    private long mLastUpdate = -MIN_INTERVAL_MS;
+
+    MainThreadProgressListener(ProgressListener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void onProgress(final long transferred, final long total) {
+        final long now = SystemClock.elapsedRealtime();
+        if (transferred != total && now - mLastUpdate < MIN_INTERVAL_MS) {
+            return;
+        }
+        mLastUpdate = now;
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onProgress(transferred, total);
+            }
+        });
+    }
+}
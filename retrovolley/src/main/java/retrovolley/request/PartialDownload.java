@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.request;
+
+import retrovolley.Logging;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The files of a download in progress. The body is written to a {@code .part} file next to the
+ * target, and the validator (ETag or Last-Modified) of the response is kept in a
+ * {@code .part.validator} file, so an interrupted download can be resumed with a range request,
+ * even by another request for the same target.
+ * <br>
+ * A download without a validator can't be resumed, its part file is discarded on failure.
+ *
+ * @author Konstantin Tarasenko
+ */
+public final class PartialDownload {
+
+    private static final String PART_SUFFIX = ".part";
+    private static final String VALIDATOR_SUFFIX = ".validator";
+    private static final String VALIDATOR_CHARSET = "UTF-8";
+
+    private final File mTarget;
+    private final File mPartFile;
+    private final File mValidatorFile;
+
+    /**
+     * @param target The file the download is saved to once complete
+     */
+    public PartialDownload(File target) {
+        mTarget = target;
+        mPartFile = new File(target.getPath() + PART_SUFFIX);
+        mValidatorFile = new File(mPartFile.getPath() + VALIDATOR_SUFFIX);
+    }
+
+    /**
+     * @return The file the download is saved to once complete
+     */
+    public File getTarget() {
+        return mTarget;
+    }
+
+    /**
+     * @return The file the body is written to until it's complete
+     */
+    public File getPartFile() {
+        return mPartFile;
+    }
+
+    /**
+     * @return The number of bytes already downloaded
+     */
+    public long length() {
+        return mPartFile.length();
+    }
+
+    /**
+     * @return The validator of the partially downloaded body, or null if it can't be resumed
+     */
+    public String getValidator() {
+        if (!mValidatorFile.isFile() || !mPartFile.isFile()) {
+            return null;
+        }
+
+        try {
+            FileInputStream in = new FileInputStream(mValidatorFile);
+            try {
+                byte[] bytes = new byte[(int) mValidatorFile.length()];
+                int read = 0;
+                int count;
+                while (read < bytes.length && (count = in.read(bytes, read, bytes.length - read)) != -1) {
+                    read += count;
+                }
+                String validator = new String(bytes, 0, read, VALIDATOR_CHARSET).trim();
+                return validator.length() > 0 ? validator : null;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return True if the download can be resumed
+     */
+    public boolean isResumable() {
+        return length() > 0 && getValidator() != null;
+    }
+
+    /**
+     * Start the download over, dropping the already downloaded bytes
+     *
+     * @param validator The validator of the new response, or null if it can't be resumed
+     * @throws IOException If the validator can't be saved
+     */
+    public void start(String validator) throws IOException {
+        delete(mPartFile);
+        if (validator == null) {
+            delete(mValidatorFile);
+            return;
+        }
+
+        FileOutputStream out = new FileOutputStream(mValidatorFile);
+        try {
+            out.write(validator.getBytes(VALIDATOR_CHARSET));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Move the completely downloaded body to the target
+     *
+     * @throws IOException If the part file can't be renamed
+     */
+    public void complete() throws IOException {
+        if (!mPartFile.renameTo(mTarget)) {
+            discard();
+            throw new IOException("Can't rename " + mPartFile + " to " + mTarget);
+        }
+        delete(mValidatorFile);
+    }
+
+    /**
+     * Drop the already downloaded bytes and the validator
+     *
+     * @return True if there was something to drop
+     */
+    public boolean discard() {
+        final boolean existed = mPartFile.exists();
+        delete(mPartFile);
+        delete(mValidatorFile);
+        return existed;
+    }
+
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            Logging.e("Can't delete " + file, null);
+        }
+    }
+}
@@ -18,20 +18,38 @@ package retrovolley.request;
 
 import android.util.Pair;
 
+import com.android.volley.AuthFailureError;
+import com.android.volley.Cache;
 import com.android.volley.NetworkResponse;
 import com.android.volley.ParseError;
 import com.android.volley.Response;
 import com.android.volley.RetryPolicy;
+import com.android.volley.VolleyError;
 import com.android.volley.toolbox.HttpHeaderParser;
 
 import retrovolley.Logging;
+import retrovolley.cache.CacheKeyStrategy;
+import retrovolley.cache.ObjectCache;
 import retrovolley.converter.ConversionException;
+import retrovolley.mime.DictionaryCodec;
+import retrovolley.mime.EncodedTypedOutput;
+import retrovolley.mime.GzipTypedOutput;
+import retrovolley.mime.TypedByteArray;
+import retrovolley.mime.TypedObject;
+import retrovolley.mime.TypedOutput;
 import retrovolley.EndpointAdapter;
+import retrovolley.PooledNetworkResponse;
+import retrovolley.RetroVolley;
+import retrovolley.StaleNetworkResponse;
+import retrovolley.TransferStats;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Type;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * A request that parses the response into a PJO (Plain Java Object).
@@ -42,8 +60,31 @@ import java.util.Map;
  */
 public class PojoRequest<T> extends AbstractRequest<T> {
 
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+
     private final Type mType;
     private final EndpointAdapter mEndpointAdapter;
+    private final TransferStats mTransferStats = new TransferStats();
+
+    /**
+     * The body as sent over the wire, compressed if the endpoint asks for it
+     */
+    private TypedOutput mWireBody;
+
+    /**
+     * Notified on the main thread while the body is sent
+     */
+    private ProgressListener mUploadProgressListener;
+
+    /**
+     * Reference tokens of the response part to parse, null to parse the whole response
+     */
+    private String[] mJsonPointer;
+
+    /**
+     * The key the response is cached under, null for the url
+     */
+    private String mCacheKey;
 
     /**
      * {@inheritDoc}
@@ -71,14 +112,14 @@ public class PojoRequest<T> extends AbstractRequest<T> {
     @Override
     public Response<T> parseNetworkResponse(NetworkResponse response) {
         Logging.d("Parsing network response");
-        /* Get the response data */
-        String json;
-        try {
-            json = new String(response.data, HttpHeaderParser.parseCharset(response.headers));
-        } catch (UnsupportedEncodingException uee) {
-            Logging.e("Encoding is not supported ", uee);
-            return Response.error(new ParseError(uee));
-        }
+        /* Get the response charset */
+        final String charset = HttpHeaderParser.parseCharset(response.headers);
+
+        /* A pooled body is read in place and must be released once parsed */
+        final PooledNetworkResponse pooled = response instanceof PooledNetworkResponse
+                ? (PooledNetworkResponse) response : null;
+        final byte[] data = pooled != null ? pooled.getBuffer() : response.data;
+        final int length = pooled != null ? pooled.getLength() : response.data.length;
 
         /*
          * Try to pars the response first. If we catch a JsonParsException,
@@ -86,27 +127,298 @@ public class PojoRequest<T> extends AbstractRequest<T> {
          */
         try {
 
-            /* If the class type is string then we don't need to parse the response from json */
-            T result;
-            if (mType == String.class) {
-                result = (T) json;
+            /* A cache hit may have been parsed already, if the entry didn't change since */
+            final ObjectCache objectCache = shouldCache() ? mEndpointAdapter.getObjectCache() : null;
+            final String objectKey = objectCache != null ? getObjectCacheKey() : null;
+            final String entryVersion = objectCache != null ? InternalHttpHeaderParser.getEntryVersion(response) : null;
+            T result = entryVersion != null ? (T) objectCache.get(objectKey, entryVersion) : null;
+            final boolean parsed = result == null;
+            if (parsed) {
+                result = convert(data, length, charset, pooled != null);
+            }
+
+            /* Tell the listener if it gets an outdated response, a stale cache hit is refreshed afterwards */
+            if (response instanceof StaleNetworkResponse) {
+                expectDelivery(Delivery.STALE);
+            } else if (InternalHttpHeaderParser.isStale(response)) {
+                expectDelivery(Delivery.REFRESHING);
             } else {
-                result = (T) mEndpointAdapter.getConverter().fromBody(json, mType);
+                expectDelivery(Delivery.FRESH);
             }
 
-            /* Return the parsed result in a response wrapper */
-            return shouldCache() ?
-                    Response.success(result, InternalHttpHeaderParser.parseIgnoreCacheHeaders(response, getCacheTimeInMillis())) :
-                    Response.success(result, HttpHeaderParser.parseCacheHeaders(response));
+            /* Return the parsed result in a response wrapper, pooled and stale bodies are never cached */
+            if (pooled != null || response instanceof StaleNetworkResponse) {
+                return Response.success(result, null);
+            }
+            if (!shouldCache()) {
+                return Response.success(result, HttpHeaderParser.parseCacheHeaders(response));
+            }
 
+            final Cache.Entry entry = InternalHttpHeaderParser.parseIgnoreCacheHeaders(
+                    response, getCacheTimeInMillis(), getHardCacheTimeInMillis());
+            if (objectCache != null && parsed) {
+                /* A network response is about to be cached as the new entry */
+                objectCache.put(objectKey, entryVersion != null
+                        ? entryVersion : InternalHttpHeaderParser.getEntryVersion(entry.responseHeaders), result, length);
+            }
+            return Response.success(result, entry);
+
+        } catch (UnsupportedEncodingException uee) {
+            Logging.e("Encoding is not supported ", uee);
+            return Response.error(new ParseError(uee));
         } catch (ConversionException ce) {
             /* Throw a general exception error */
             Logging.e("Cannot convert response to json", ce);
             return Response.error(new ParseError(ce));
+        } finally {
+            if (pooled != null) {
+                pooled.release();
+            }
         }
     }
 
+    /**
+     * Convert the response body into the response object
+     *
+     * @param data    The buffer holding the body
+     * @param length  The body length
+     * @param charset The body charset
+     * @param pooled  True if the buffer goes back to the pool once the call returns
+     * @return The response object
+     */
+    @SuppressWarnings("unchecked")
+    T convert(byte[] data, int length, String charset, boolean pooled) throws ConversionException, UnsupportedEncodingException {
+        /* If the class type is string then we don't need to parse the response from json */
+        if (mType == String.class) {
+            return (T) new String(data, 0, length, charset);
+        }
+
+        return (T) convert(mEndpointAdapter, new ByteArrayInputStream(data, 0, length), charset, mType, mJsonPointer);
+    }
+
+    /**
+     * Convert a body stream with the endpoint's converter
+     *
+     * @param pointer The reference tokens of the part to convert, or null to convert the whole body
+     */
+    static Object convert(EndpointAdapter adapter, InputStream body, String charset, Type type, String[] pointer)
+            throws ConversionException {
+        if (pointer != null) {
+            /* Parse only the part the pointer refers to */
+            return adapter.getProjectingConverter().fromStream(body, charset, type, pointer);
+        }
+
+        /* Parse straight from the response bytes, without an intermediate string */
+        return adapter.getStreamingConverter().fromStream(body, charset, type);
+    }
+
+    /**
+     * @return The type the response body is converted to
+     */
+    Type getResponseType() {
+        return mType;
+    }
+
+    /**
+     * @return The reference tokens of the part of the response to parse, or null
+     */
+    String[] getJsonPointer() {
+        return mJsonPointer;
+    }
+
+    @Override
+    public synchronized TypedOutput getBodyOutput() throws AuthFailureError {
+        if (mWireBody instanceof EncodedTypedOutput) {
+            EncodedTypedOutput encodedBody = (EncodedTypedOutput) mWireBody;
+            if (!mEndpointAdapter.shouldCompressRequestBody(encodedBody.getDelegate().length())) {
+                /* Compression was rejected by the server since the body was compressed */
+                mWireBody = encodedBody.getDelegate();
+                encodedBody.release();
+            }
+        }
+
+        if (mWireBody == null) {
+            TypedOutput body = super.getBodyOutput();
+            /* Streamed bodies are never compressed, that would load them into memory */
+            if (isInMemory(body) && mEndpointAdapter.shouldCompressRequestBody(body.length())) {
+                DictionaryCodec codec = mEndpointAdapter.getDictionaryCodec();
+                body = codec != null
+                        ? codec.encode(body, RetroVolley.getInstance().getByteArrayPool())
+                        : new GzipTypedOutput(body, RetroVolley.getInstance().getByteArrayPool());
+            }
+            mWireBody = body;
+        }
+
+        return mWireBody;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() throws AuthFailureError {
+        Map<String, String> headers = super.getHeaders();
+
+        if (hasBody()) {
+            TypedOutput body = getBodyOutput();
+            if (body instanceof EncodedTypedOutput) {
+                headers.put(HEADER_CONTENT_ENCODING, ((EncodedTypedOutput) body).contentEncoding());
+            }
+        }
+
+        return headers;
+    }
+
+    /**
+     * Made public for the request queues running requests outside of Volley's dispatchers
+     * <p/>
+     * {@inheritDoc}
+     */
+    @Override
+    public VolleyError parseNetworkError(VolleyError volleyError) {
+        return super.parseNetworkError(volleyError);
+    }
+
+    @Override
+    public String getCacheKey() {
+        return mCacheKey != null ? mCacheKey : super.getCacheKey();
+    }
+
+    /**
+     * Get the cache key from the endpoint's strategy. The response isn't cached if there's no key.
+     * Must be called once the body is set.
+     */
+    void applyCacheKeyStrategy() {
+        final CacheKeyStrategy strategy = mEndpointAdapter.getCacheKeyStrategy();
+        if (!shouldCache() || strategy == null) {
+            return;
+        }
+
+        String cacheKey;
+        try {
+            /* The key depends on the body, not on how it's compressed */
+            cacheKey = strategy.getCacheKey(getMethod(), getUrl(), hasBody() ? super.getBodyOutput() : null);
+        } catch (AuthFailureError afe) {
+            cacheKey = null;
+        }
+
+        if (cacheKey == null) {
+            setShouldCache(false);
+        }
+        mCacheKey = cacheKey;
+    }
+
+    /**
+     * @return The key of the objects parsed for this request in the object cache
+     */
+    private String getObjectCacheKey() {
+        final StringBuilder key = new StringBuilder(getClass().getName()).append(' ').append(mType);
+        if (mJsonPointer != null) {
+            for (String token : mJsonPointer) {
+                key.append('/').append(token.replace("~", "~0").replace("/", "~1"));
+            }
+        }
+        return key.append(' ').append(getCacheKey()).toString();
+    }
+
+    /**
+     * Get the cached response to deliver when the request fails, if the server allowed it
+     * with a {@code stale-if-error} directive
+     *
+     * @return The expired cache entry, or null if there is none or it may not be served
+     */
+    public Cache.Entry getStaleIfErrorEntry() {
+        final Cache.Entry entry = getCacheEntry();
+        return entry != null && InternalHttpHeaderParser.isUsableOnError(entry) ? entry : null;
+    }
+
+    /**
+     * @return True if the request body is sent compressed
+     */
+    public synchronized boolean isBodyCompressed() {
+        return mWireBody instanceof EncodedTypedOutput;
+    }
+
+    @Override
+    synchronized void releaseBody() {
+        if (mWireBody instanceof EncodedTypedOutput) {
+            ((EncodedTypedOutput) mWireBody).release();
+        }
+        super.releaseBody();
+    }
+
+    /**
+     * Parse only a part of the response
+     *
+     * @param jsonPointer The reference tokens of the JSON pointer, or null to parse the whole response
+     * @throws java.lang.IllegalStateException If the endpoint's converter can't parse a part
+     */
+    void setJsonPointer(String[] jsonPointer) {
+        if (jsonPointer != null && mEndpointAdapter.getProjectingConverter() == null) {
+            throw new IllegalStateException("The converter of the endpoint can't parse a part of the response");
+        }
+        mJsonPointer = jsonPointer;
+    }
+
+    /**
+     * @return True if the body is held in memory anyway
+     */
+    private static boolean isInMemory(TypedOutput body) {
+        return body instanceof TypedByteArray || body instanceof TypedObject;
+    }
+
+    /**
+     * @return The listener to report the upload progress to, or null if nobody listens.
+     * Progress is forwarded to the main thread.
+     */
+    public ProgressListener getUploadProgressListener() {
+        return mUploadProgressListener;
+    }
+
+    void setUploadProgressListener(ProgressListener listener) {
+        mUploadProgressListener = listener != null ? new MainThreadProgressListener(listener) : null;
+    }
+
+    /**
+     * @return True if the request method sends a body
+     */
+    private boolean hasBody() {
+        final int method = getMethod();
+        return method == Method.POST || method == Method.PUT || method == Method.PATCH;
+    }
+
+    @Override
+    String getCoalescingKey() {
+        if (getMethod() != Method.GET || !mEndpointAdapter.isCoalescingRequests()) {
+            return null;
+        }
+
+        /* Requests with different headers may get different responses */
+        final Map<String, String> headers;
+        try {
+            headers = new TreeMap<String, String>(getHeaders());
+        } catch (AuthFailureError afe) {
+            return null;
+        }
+
+        final StringBuilder key = new StringBuilder(getUrl().length() + 64);
+        key.append(getMethod()).append(' ').append(getUrl()).append(' ').append(mType);
+        if (mJsonPointer != null) {
+            for (String token : mJsonPointer) {
+                key.append('/').append(token.replace("~", "~0").replace("/", "~1"));
+            }
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            key.append('\n').append(header.getKey()).append(':').append(header.getValue());
+        }
+        return key.toString();
+    }
+
     public EndpointAdapter getEndpointAdapter() {
         return mEndpointAdapter;
     }
+
+    /**
+     * @return Size of the response body as received from the network and after decoding
+     */
+    public TransferStats getTransferStats() {
+        return mTransferStats;
+    }
 }
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.request;
+
+/**
+ * Listener notified while a request or response body is transferred.
+ * Always called on the main thread.
+ *
+ * @author Konstantin Tarasenko
+ */
+public interface ProgressListener {
+
+    /**
+     * Called every now and then while the body is transferred, and once when it's done
+     *
+     * @param transferred The number of bytes transferred so far
+     * @param total       The body length, or -1 if it's unknown
+     */
+    void onProgress(long transferred, long total);
+}
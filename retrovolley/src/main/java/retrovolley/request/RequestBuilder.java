@@ -20,15 +20,18 @@ import android.util.Pair;
 
 import com.android.volley.DefaultRetryPolicy;
 import com.android.volley.RetryPolicy;
-import org.apache.http.NameValuePair;
-import org.apache.http.client.utils.URLEncodedUtils;
-import org.apache.http.message.BasicNameValuePair;
+import retrovolley.RetroVolley;
+import retrovolley.mime.TypedObject;
+import retrovolley.mime.TypedOutput;
 import retrovolley.rest.Hateoasles;
 import retrovolley.rest.RestCall;
 
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Type;
+import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -50,6 +53,11 @@ public class RequestBuilder<T> {
      */
     private static final long DEFAULT_REQUEST_CACHE_TIME = 8 * 60 * 60 * 1000;
 
+    /**
+     * Encoding of the GET parameters
+     */
+    private static final String GET_PARAMS_ENCODING = "utf-8";
+
     /**
      * Request parameters
      */
@@ -70,16 +78,36 @@ public class RequestBuilder<T> {
      */
     private String mBody;
 
+    /**
+     * The request body object, converted only when the request is sent
+     */
+    private Object mBodyObject;
+
     /**
      * Request flow listener
      */
     private RequestListener<T> mRequestListener;
 
+    /**
+     * Transfer progress listener
+     */
+    private ProgressListener mProgressListener;
+
     /**
      * Should cache flag
      */
     private boolean mShouldCache;
 
+    /**
+     * Time a cached response is served without being refreshed
+     */
+    private long mSoftTtl = DEFAULT_REQUEST_CACHE_TIME;
+
+    /**
+     * Time a cached response is served while being refreshed, -1 for the soft TTL
+     */
+    private long mHardTtl = -1;
+
     /**
      * Request tag object
      */
@@ -138,6 +166,11 @@ public class RequestBuilder<T> {
         if (requestInfo.getMaxNumRetries() > -1) {
             mNumberOfRetries = requestInfo.getMaxNumRetries();
         }
+        if (requestInfo.getSoftTtl() > -1) {
+            mShouldCache = true;
+            mSoftTtl = requestInfo.getSoftTtl();
+            mHardTtl = requestInfo.getHardTtl();
+        }
     }
 
     protected List<Pair<String, String>> getParams() {
@@ -204,13 +237,26 @@ public class RequestBuilder<T> {
     }
 
     /**
-     * Add rest url parameters that will be replaced on runtyme
+     * Add rest url parameters that will be replaced on runtyme.
+     * The value is percent-encoded as a single path segment.
      *
      * @param key   The param key that matches the one set in RestCall object
      * @param value The param value that needs to be replaced
      * @return The same builder instance
      */
     public RequestBuilder addRestParam(String key, String value) {
+        return addEncodedRestParam(key, UrlTemplate.encodePathSegment(value));
+    }
+
+    /**
+     * Add rest url parameters that will be replaced on runtyme.
+     * The value is inserted as is, it must be already percent-encoded.
+     *
+     * @param key   The param key that matches the one set in RestCall object
+     * @param value The encoded param value that needs to be replaced
+     * @return The same builder instance
+     */
+    public RequestBuilder addEncodedRestParam(String key, String value) {
         RequestInfo.validateParameterName(mRequestInfo, key);
         mRestParams.put(key, value);
         return this;
@@ -226,20 +272,26 @@ public class RequestBuilder<T> {
      */
     public RequestBuilder setBody(String body) {
         mBody = body;
+        mBodyObject = null;
         return this;
     }
 
     /**
-     * Set a request body to the request.<br>
+     * Set a request body to the request. The object is converted by the endpoint's converter
+     * on the network thread, right before the request is sent. A {@link TypedOutput}, such as
+     * a {@link retrovolley.mime.TypedFile} or a {@link retrovolley.mime.MultipartTypedOutput},
+     * is streamed to the connection as is.<br>
      * <b>Note: </b> Calling this method with a non null parameter will ignore the usage of
-     * request parameters.
+     * request parameters. The object must not be modified after the request is executed.
      *
      * @param body The body object to set
      * @param <E>  The body's Java type.
      * @return Same builder instance.
      */
     public <E> RequestBuilder setBody(E body) {
-        return setBody(mRequestInfo.getEndpoint().getConverter().toBody(body));
+        mBody = null;
+        mBodyObject = body;
+        return this;
     }
 
     /**
@@ -254,11 +306,42 @@ public class RequestBuilder<T> {
         return this;
     }
 
+    /**
+     * Set a listener notified on the main thread while the body is transferred, the request body
+     * for requests built with {@link #build()} and the response body for downloads.
+     * If no listener is set, a request listener that implements {@link ProgressListener} is notified.
+     *
+     * @param progressListener The progress listener
+     * @return Same builder instance
+     */
+    public RequestBuilder setProgressListener(ProgressListener progressListener) {
+        mProgressListener = progressListener;
+        return this;
+    }
+
     public RequestBuilder shouldCache(boolean shouldCache) {
         mShouldCache = shouldCache;
         return this;
     }
 
+    /**
+     * Set how long the response is cached, overriding the rest call's {@link retrovolley.annotation.CacheTtl}.
+     * Up to the soft TTL the response is served from the cache, up to the hard TTL it's served from
+     * the cache and refreshed from the network. Caching is still enabled with {@link #shouldCache}.
+     *
+     * @param softTtlMillis Milliseconds the response is served without being refreshed
+     * @param hardTtlMillis Milliseconds the response is served while being refreshed, the soft TTL if lower
+     * @return Same builder instance
+     */
+    public RequestBuilder setCacheTtl(long softTtlMillis, long hardTtlMillis) {
+        if (softTtlMillis < 0) {
+            throw new IllegalArgumentException("The soft TTL must not be negative");
+        }
+        mSoftTtl = softTtlMillis;
+        mHardTtl = hardTtlMillis;
+        return this;
+    }
+
     public RequestBuilder setTag(Object tag) {
         mTag = tag;
         return this;
@@ -307,16 +390,151 @@ public class RequestBuilder<T> {
                 getHeaders(),
                 getParams(),
                 getShouldCache(),
-                DEFAULT_REQUEST_CACHE_TIME,
+                mSoftTtl,
                 mRequestInfo.getResponseType(),
                 getRetryPolicy(),
                 mRequestInfo.getEndpoint());
 
+        return prepare(request);
+    }
+
+    /**
+     * Build a request delivering the raw response, parsed only when the listener reads it.
+     * The listener set with {@link #setRequestListener} is not used.
+     *
+     * @param listener The listener getting the response handle
+     * @return A new instance of LazyRequest
+     */
+    public LazyRequest<T> buildLazy(RequestListener<LazyResponse<T>> listener) {
+        return prepare(new LazyRequest<T>(
+                mRequestInfo.getMethod(),
+                buildUrl(),
+                listener,
+                getHeaders(),
+                getParams(),
+                getShouldCache(),
+                mSoftTtl,
+                mRequestInfo.getResponseType(),
+                getRetryPolicy(),
+                mRequestInfo.getEndpoint()));
+    }
+
+    /**
+     * Build a request saving the response body to a file, without keeping it in memory.
+     * The listener set with {@link #setRequestListener} is not used, the given one gets
+     * the target file once the body was completely received.
+     *
+     * @param target   The file to save the body to
+     * @param listener The listener getting the downloaded file
+     * @return A new instance of DownloadRequest
+     */
+    public DownloadRequest buildDownload(File target, RequestListener<File> listener) {
+        if (target == null) {
+            throw new NullPointerException("Download target must not be null");
+        }
+
+        return prepare(new DownloadRequest(
+                mRequestInfo.getMethod(),
+                buildUrl(),
+                listener,
+                getHeaders(),
+                getParams(),
+                getRetryPolicy(),
+                mRequestInfo.getEndpoint(),
+                target,
+                mProgressListener != null ? mProgressListener : progressListenerOf(listener)));
+    }
+
+    /**
+     * Build a request parsing a list response one element at a time, while it's read.
+     * The listener set with {@link #setRequestListener} is not used, the given one gets the
+     * number of elements once the whole response was read.
+     *
+     * @param itemType      The type of a single list element
+     * @param batchListener The listener getting the elements in batches
+     * @param listener      The listener getting the number of elements
+     * @param <E>           The element type
+     * @return A new instance of StreamRequest
+     * @throws java.lang.IllegalStateException If the endpoint's converter can't parse incrementally
+     */
+    public <E> StreamRequest<E> buildStream(Type itemType, BatchListener<E> batchListener,
+                                            RequestListener<Integer> listener) {
+        return buildStream(itemType, StreamRequest.DEFAULT_BATCH_SIZE, batchListener, listener);
+    }
+
+    /**
+     * Build a request parsing a list response one element at a time, while it's read.
+     *
+     * @param itemType      The type of a single list element
+     * @param batchSize     The maximum number of elements in a batch
+     * @param batchListener The listener getting the elements in batches
+     * @param listener      The listener getting the number of elements
+     * @param <E>           The element type
+     * @return A new instance of StreamRequest
+     * @throws java.lang.IllegalStateException If the endpoint's converter can't parse incrementally
+     * @see #buildStream(Type, BatchListener, RequestListener)
+     */
+    public <E> StreamRequest<E> buildStream(Type itemType, int batchSize, BatchListener<E> batchListener,
+                                            RequestListener<Integer> listener) {
+        if (itemType == null) {
+            throw new NullPointerException("Item type must not be null");
+        }
+
+        return prepare(new StreamRequest<E>(
+                mRequestInfo.getMethod(),
+                buildUrl(),
+                listener,
+                getHeaders(),
+                getParams(),
+                getRetryPolicy(),
+                mRequestInfo.getEndpoint(),
+                itemType,
+                batchSize,
+                batchListener));
+    }
+
+    /**
+     * @return The progress listener, the request listener is used if it listens to the progress
+     */
+    private ProgressListener getProgressListener() {
+        return mProgressListener != null ? mProgressListener : progressListenerOf(mRequestListener);
+    }
+
+    private static ProgressListener progressListenerOf(RequestListener<?> listener) {
+        return listener instanceof ProgressListener ? (ProgressListener) listener : null;
+    }
+
+    /**
+     * Append the body and tag to a freshly built request
+     */
+    private <R extends PojoRequest<?>> R prepare(R request) {
         /* Append body if set */
         if (getBody() != null) {
             request.setJsonBody(getBody());
+        } else if (mBodyObject instanceof TypedOutput) {
+            request.setBody((TypedOutput) mBodyObject);
+        } else if (mBodyObject != null) {
+            request.setBody(new TypedObject(
+                    mBodyObject,
+                    mRequestInfo.getEndpoint().getStreamingConverter(),
+                    request.getParamsEncoding(),
+                    RetroVolley.getInstance().getByteArrayPool()));
         }
 
+        /* Parse only the declared part of the response */
+        if (!(request instanceof DownloadRequest) && !(request instanceof StreamRequest)) {
+            request.setJsonPointer(mRequestInfo.getJsonPointer());
+        }
+
+        /* Report the upload progress, downloads report their own */
+        if (!(request instanceof DownloadRequest)) {
+            request.setUploadProgressListener(getProgressListener());
+        }
+
+        /* Cache the response for the requested time, under the endpoint's key */
+        request.setHardCacheTimeInMillis(mHardTtl);
+        request.applyCacheKeyStrategy();
+
         /* Add tag to request tag */
         if (mTag != null) {
             request.setTag(mTag);
@@ -339,32 +557,31 @@ public class RequestBuilder<T> {
      * @return The request url
      */
     private String buildUrl() {
-        /* By default the url is stored in the request info object */
-        String url = mRequestInfo.getUrl();
-
-        /* Append get parameters if request method is GET */
-        if (mRequestInfo.getMethod() == RequestMethod.GET.method) {
-            url = buildGETUrl(url, getParams());
+        /* Check that we have the same number of parameters set */
+        if (mRequestInfo.getRestParams() != null && mRequestInfo.getRestParams().size() != mRestParams.size()) {
+            throw new IllegalArgumentException(String.format(
+                    "The number of url parameters: %s doesn't match the number of injected parameters: %s",
+                    mRequestInfo.getRestParams().toString(),
+                    mRestParams.toString()
+            ));
         }
 
-        /* Insert rest params to the request path if needed */
-        if (mRequestInfo.getRestParams() != null) {
-            /* Check that we have the same number of parameters set */
-            if (mRequestInfo.getRestParams().size() != mRestParams.size()) {
-                throw new IllegalArgumentException(String.format(
-                        "The number of url parameters: %s doesn't match the number of injected parameters: %s",
-                        mRequestInfo.getRestParams().toString(),
-                        mRestParams.toString()
-                ));
-            }
+        final boolean appendParams = mRequestInfo.getMethod() == RequestMethod.GET.method
+                && !getParams().isEmpty();
 
-            /* Replace by key every parameter */
-            for (Map.Entry<String, String> entry : mRestParams.entrySet()) {
-                url = url.replace("{" + entry.getKey() + "}", entry.getValue());
-            }
+        /* Size the builder for the path, leave some room for the GET parameters */
+        final StringBuilder urlBuilder = new StringBuilder(
+                mRequestInfo.urlLength(mRestParams) + (appendParams ? getParams().size() * 16 : 0));
+
+        /* Insert rest params to the request path in a single pass */
+        mRequestInfo.appendUrl(urlBuilder, mRestParams);
+
+        /* Append get parameters if request method is GET */
+        if (appendParams) {
+            appendGETParams(urlBuilder, getParams());
         }
 
-        return url;
+        return urlBuilder.toString();
     }
 
     /**
@@ -376,23 +593,41 @@ public class RequestBuilder<T> {
      */
     public static String buildGETUrl(String url, List<Pair<String, String>> params) {
         final StringBuilder urlBuilder = new StringBuilder(url);
+        appendGETParams(urlBuilder, params);
+        return urlBuilder.toString();
+    }
 
+    /**
+     * Append url encoded GET parameters to the url
+     *
+     * @param urlBuilder The url to append to
+     * @param params     The parameters map
+     */
+    private static void appendGETParams(StringBuilder urlBuilder, List<Pair<String, String>> params) {
         /* Simple null check */
         if (params != null && !params.isEmpty()) {
             /* Add question mark is not present */
-            if (!url.endsWith("?")) {
-                urlBuilder.append("?");
+            if (urlBuilder.length() == 0 || urlBuilder.charAt(urlBuilder.length() - 1) != '?') {
+                urlBuilder.append('?');
             }
 
             /* Create GET parameters */
-            List<NameValuePair> getParams = new LinkedList<NameValuePair>();
-            for (Pair<String, String> param : params) {
-                getParams.add(new BasicNameValuePair(param.first, param.second));
+            try {
+                boolean first = true;
+                for (Pair<String, String> param : params) {
+                    if (!first) {
+                        urlBuilder.append('&');
+                    }
+                    urlBuilder.append(URLEncoder.encode(param.first, GET_PARAMS_ENCODING));
+                    urlBuilder.append('=');
+                    if (param.second != null) {
+                        urlBuilder.append(URLEncoder.encode(param.second, GET_PARAMS_ENCODING));
+                    }
+                    first = false;
+                }
+            } catch (UnsupportedEncodingException uee) {
+                throw new RuntimeException("Encoding not supported: " + GET_PARAMS_ENCODING, uee);
             }
-
-            urlBuilder.append(URLEncodedUtils.format(getParams, "utf-8"));
         }
-
-        return urlBuilder.toString();
     }
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.request;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of in-flight requests, so identical requests executed at the same time
+ * hit the server only once. The first request executed for a key (the leader) goes to the
+ * request queue, the next ones (the followers) wait for it and receive the same parsed
+ * response or error.
+ * <br>
+ * Followers never reach the request queue, to cancel them by tag use
+ * {@link retrovolley.RetroVolley#cancelAll(Object)}.
+ *
+ * @author Serghei Lotutovici
+ */
+public final class RequestCoalescer {
+
+    /**
+     * In-flight requests by their coalescing key. Guarded by the class lock.
+     */
+    private static final Map<String, InFlight> sInFlight = new HashMap<String, InFlight>();
+
+    /**
+     * This is a utility class no instance should be created
+     */
+    private RequestCoalescer() {
+        super();
+    }
+
+    /**
+     * Attach a request to an identical in-flight request, or register it as the leader
+     *
+     * @param request The request being executed
+     * @param key     The request coalescing key
+     * @return True if the request was attached as a follower and must not be sent
+     */
+    static synchronized boolean attach(AbstractRequest<?> request, String key) {
+        InFlight inFlight = sInFlight.get(key);
+        if (inFlight == null) {
+            sInFlight.put(key, new InFlight(request));
+            return false;
+        }
+
+        inFlight.followers.add(request);
+        return true;
+    }
+
+    /**
+     * Get the followers of a leader that stays in flight
+     *
+     * @param leader The request that was sent
+     * @param key    The request coalescing key
+     * @return A copy of the followers waiting for the leader, never null
+     */
+    static synchronized List<AbstractRequest<?>> getFollowers(AbstractRequest<?> leader, String key) {
+        InFlight inFlight = sInFlight.get(key);
+        if (inFlight == null || inFlight.leader != leader) {
+            return new ArrayList<AbstractRequest<?>>(0);
+        }
+
+        return new ArrayList<AbstractRequest<?>>(inFlight.followers);
+    }
+
+    /**
+     * Remove a leader from the in-flight requests
+     *
+     * @param leader The request that was sent
+     * @param key    The request coalescing key
+     * @return The followers waiting for the leader, never null
+     */
+    static synchronized List<AbstractRequest<?>> detach(AbstractRequest<?> leader, String key) {
+        InFlight inFlight = sInFlight.get(key);
+        if (inFlight == null || inFlight.leader != leader) {
+            return new ArrayList<AbstractRequest<?>>(0);
+        }
+
+        sInFlight.remove(key);
+        return inFlight.followers;
+    }
+
+    /**
+     * Send the followers of a cancelled leader on their own. This is done on the main thread,
+     * the leader may be cancelled while the request queue iterates over its requests.
+     *
+     * @param followers The requests that were waiting for the cancelled leader
+     */
+    static void resend(final List<AbstractRequest<?>> followers) {
+        if (followers.isEmpty()) {
+            return;
+        }
+
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                for (AbstractRequest<?> follower : followers) {
+                    if (!follower.isCanceled()) {
+                        follower.enqueue();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Cancel all followers with the given tag. Leaders are cancelled by the request queue.
+     *
+     * @param tag The tag of the requests to cancel
+     */
+    public static synchronized void cancelAll(Object tag) {
+        if (tag == null) {
+            throw new IllegalArgumentException("Cannot cancelAll with a null tag");
+        }
+
+        for (InFlight inFlight : sInFlight.values()) {
+            Iterator<AbstractRequest<?>> iterator = inFlight.followers.iterator();
+            while (iterator.hasNext()) {
+                AbstractRequest<?> follower = iterator.next();
+                if (follower.getTag() == tag) {
+                    follower.cancel();
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * A request sent to the server and the requests waiting for it
+     */
+    private static final class InFlight {
+
+        final AbstractRequest<?> leader;
+        final List<AbstractRequest<?>> followers = new ArrayList<AbstractRequest<?>>(2);
+
+        InFlight(AbstractRequest<?> leader) {
+            this.leader = leader;
+        }
+    }
+}
@@ -18,46 +18,28 @@ package retrovolley.request;
 
 import retrovolley.EndpointAdapter;
 import retrovolley.RetroVolley;
-import retrovolley.annotation.*;
 import retrovolley.rest.RestCall;
 
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
-import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
- * A request info wrapper that is created form a RestCall implementation
+ * A request info wrapper that is created form a RestCall implementation.
+ * The annotations are parsed only once per RestCall constant, see {@link RestCallRegistry}.
  *
  * @author Serghei Lotutovici
  */
 class RequestInfo {
 
-    /**
-     * Upper and lower characters, digits, underscores, and hyphens, starting with a character
-     */
-    private static final String PARAM = "[a-zA-Z][a-zA-Z0-9_-]*";
-
     /**
      * Parameter name pattern
      */
-    private static final Pattern PARAM_NAME_REGEX = Pattern.compile(PARAM);
-
-    /**
-     * Parameter value validator
-     */
-    private static final Pattern PARAM_URL_REGEX = Pattern.compile("\\{(" + PARAM + ")\\}");
+    private static final Pattern PARAM_NAME_REGEX = Pattern.compile(RestCallInfo.PARAM);
 
+    private final RestCallInfo mRestCallInfo;
+    private final EndpointAdapter mEndpointAdapter;
     private int mMethod;
-    private String mPath;
-    private Set<String> mRestParams;
-    private EndpointAdapter mEndpointAdapter;
-    private java.lang.reflect.Type mResponseType;
-    private boolean mHateoas = false;
-    private boolean mDynamic = false;
-    private int mMaxNumRetries = -1;
 
     /**
      * Build a rest info object
@@ -65,136 +47,30 @@ class RequestInfo {
      * @param restCall The rest call object
      */
     RequestInfo(RestCall restCall) {
-        /* Throw exception on if rest call is null */
-        validateRestCallObject(restCall);
-
-        /* Initialize fields */
-        Annotation[] annotations = extractAnnotations(restCall);
-        extractFieldValues(annotations);
-
-        /* If response type not initialized then it equals string */
-        if (mResponseType == null) {
-            mResponseType = String.class;
-        }
+        /* Get the shared, already parsed rest call info */
+        mRestCallInfo = RestCallRegistry.get(restCall);
+        mMethod = mRestCallInfo.getMethod();
+        mEndpointAdapter = resolveEndpoint(mRestCallInfo.getEndpointName());
     }
 
     /**
-     * Extract filed values from restCall annotations
-     * <p/>
-     * TODO add more validations and type checking
+     * Get the adapter for the endpoint name set in the rest call
      *
-     * @param annotations The provided objects annotations
+     * @param endpointName The endpoint name, may be null
+     * @return The endpoint adapter or null if the rest call has no endpoint
      */
-    @SuppressWarnings("unchecked")
-    private void extractFieldValues(Annotation[] annotations) {
-        for (Annotation annotation : annotations) {
-            Class<? extends Annotation> annotationType = annotation.annotationType();
-            RestMethod restMethod = null;
-
-            /* Check if the the restCall contains a hateoas annotation */
-            if (annotationType == Hateoas.class) {
-                mHateoas = true;
-            }
-
-            /* Check if the restCall contains a dynamic annotation */
-            if (annotationType == Dynamic.class) {
-                mDynamic = true;
-
-                /* Parse method value from dynamic annotation */
-                try {
-                    mMethod = ((Dynamic) annotation).value().method;
-                } catch (Exception e) {
-                    throw new IllegalArgumentException(String.format(
-                            "Failed to extract method value from @%s annotation.",
-                            annotationType)
-                    );
-                }
-            }
-
-            /* Check if we need to get a rest method object */
-            if (!mHateoas && !mDynamic) {
-                /* Parse inner annotations to get the RestMethod values */
-                for (Annotation innerAnnotation : annotationType.getAnnotations()) {
-                    if (RestMethod.class == innerAnnotation.annotationType()) {
-                        /* Get rest method annotation */
-                        restMethod = (RestMethod) innerAnnotation;
-
-                        /* Exit loop and proceed */
-                        break;
-                    }
-                }
-            }
-
-            /* Parse annotations based on restMethod result */
-            if (restMethod != null) {
-                /* If mPath is set then we already have parsed a similar annotation */
-                if (mPath != null) {
-                    throw new IllegalArgumentException("Only one RestMethod annotation allowed: " + this.toString());
-                }
-
-                /* Parse method value */
-                try {
-                    mMethod = restMethod.method().method;
-                } catch (Exception e) {
-                    throw new IllegalArgumentException(String.format(
-                            "Failed to extract method value from @%s annotation.",
-                            restMethod.annotationType())
-                    );
-                }
-
-                /* Parse rest method path */
-                String path;
-                try {
-                    path = (String) annotationType.getMethod("value").invoke(annotation);
-                } catch (Exception e) {
-                    throw new IllegalArgumentException(String.format(
-                            "Failed to extract String 'value' from @%s annotation.",
-                            annotationType.getSimpleName())
-                    );
-                }
-
-                /* Parse the path and extract additional parameters */
-                parsePath(path);
-
-            } else if (annotationType == Response.class) {
-                mResponseType = ((Response) annotation).value();
-
-            } else if (annotationType == Endpoint.class) {
-                /* Get endpoint name */
-                String endpointName = ((Endpoint) annotation).value();
-                /* Check cache instance if instance already created */
-                EndpointAdapter adapter = RetroVolley.getInstance().getAdapter(endpointName);
-                /* Get local reference to endpoint */
-                if (adapter == null) {
-                    throw new IllegalStateException("Could not get adapter for name: " + endpointName);
-                }
-                mEndpointAdapter = adapter;
-            } else if (annotationType == MaxRetryNumber.class) {
-                mMaxNumRetries = ((MaxRetryNumber) annotation).value();
-
-            }
+    private static EndpointAdapter resolveEndpoint(String endpointName) {
+        if (endpointName == null) {
+            return null;
         }
 
-        // TODO Post parse actions. Init with defaults
-    }
-
-    /**
-     * Parse and validate the request path. Extract rest parameters from the path.
-     *
-     * @param path The rest path to parse
-     */
-    private void parsePath(String path) {
-        /* Throw exception if the path is not parcelable */
-        if (path == null || path.length() == 0 || path.charAt(0) != '/') {
-            throw new IllegalArgumentException("The path must not be null, ether empty and start with '/'");
+        /* Check cache instance if instance already created */
+        EndpointAdapter adapter = RetroVolley.getInstance().getAdapter(endpointName);
+        /* Get local reference to endpoint */
+        if (adapter == null) {
+            throw new IllegalStateException("Could not get adapter for name: " + endpointName);
         }
-
-        /* Parse set of parameters */
-        Set<String> restParams = parsePathParameters(path);
-
-        /* Save path and parameters */
-        mPath = path;
-        mRestParams = restParams;
+        return adapter;
     }
 
     public int getMethod() {
@@ -211,14 +87,44 @@ class RequestInfo {
      * @return A valid url for the request
      */
     public String getUrl() {
-        return mEndpointAdapter.getEndpoint() + mPath;
+        return mEndpointAdapter.getEndpoint() + mRestCallInfo.getPath();
+    }
+
+    /**
+     * Append the request url to the builder.
+     *
+     * @param builder    The builder to append to
+     * @param restParams Already encoded rest parameter values
+     */
+    void appendUrl(StringBuilder builder, Map<String, String> restParams) {
+        UrlTemplate template = mRestCallInfo.getUrlTemplate();
+        if (template == null) {
+            builder.append(getUrl());
+        } else {
+            builder.append(mEndpointAdapter.getEndpoint());
+            template.expand(builder, restParams);
+        }
+    }
+
+    /**
+     * Compute the length of the url {@link #appendUrl} will append
+     *
+     * @param restParams Already encoded rest parameter values
+     * @return The url length
+     */
+    int urlLength(Map<String, String> restParams) {
+        UrlTemplate template = mRestCallInfo.getUrlTemplate();
+        if (template == null) {
+            return getUrl().length();
+        }
+        return mEndpointAdapter.getEndpoint().length() + template.length(restParams);
     }
 
     /**
      * @return A set of available rest parameters
      */
     public Set<String> getRestParams() {
-        return mRestParams;
+        return mRestCallInfo.getRestParams();
     }
 
     public EndpointAdapter getEndpoint() {
@@ -226,73 +132,40 @@ class RequestInfo {
     }
 
     public java.lang.reflect.Type getResponseType() {
-        return mResponseType;
+        return mRestCallInfo.getResponseType();
     }
 
     public int getMaxNumRetries() {
-        return mMaxNumRetries;
-    }
-
-    protected boolean isHateoas() {
-        return mHateoas;
-    }
-
-    protected boolean isDynamic() {
-        return mDynamic;
+        return mRestCallInfo.getMaxNumRetries();
     }
 
-
     /**
-     * Simple restCall validation
-     *
-     * @param restCall The restCall object to validate
-     * @param <V>      Generic type
+     * @return The reference tokens of the JSON pointer, or null if the whole response is parsed
      */
-    private static <V> void validateRestCallObject(V restCall) {
-        if (restCall == null) {
-            throw new NullPointerException("Rest Call must not be null");
-        }
-
-        if (restCall.getClass().isInterface()) {
-            throw new IllegalArgumentException("The restCall object must not be an interface");
-        }
-
-        if (!restCall.getClass().isEnum()) {
-            throw new IllegalArgumentException("The restCall object must be an enum");
-        }
+    String[] getJsonPointer() {
+        return mRestCallInfo.getJsonPointer();
     }
 
     /**
-     * Parse the restCall object annotations
-     *
-     * @param restCall The restCall
-     * @return An array of all annotations
+     * @return The soft cache TTL of the rest call, or -1 if not set
      */
-    private static Annotation[] extractAnnotations(RestCall restCall) {
-        try {
-            /* All enums toString methods return there names */
-            Field field = restCall.getClass().getField(restCall.toString());
-            /* Return declared annotations */
-            return field.getDeclaredAnnotations();
-        } catch (NoSuchFieldException e) {
-            /* Throw exception, if a non enum vas passed */
-            throw new UnsupportedOperationException("Can't parse annotations");
-        }
+    long getSoftTtl() {
+        return mRestCallInfo.getSoftTtl();
     }
 
     /**
-     * Gets the set of unique path parameters used in the given URI. If a parameter is used twice
-     * in the URI, it will only show up once in the set.
+     * @return The hard cache TTL of the rest call, or -1 if not set
      */
-    private static Set<String> parsePathParameters(String path) {
-        Matcher matcher = PARAM_URL_REGEX.matcher(path);
-        Set<String> patterns = new LinkedHashSet<String>();
+    long getHardTtl() {
+        return mRestCallInfo.getHardTtl();
+    }
 
-        while (matcher.find()) {
-            patterns.add(matcher.group(1));
-        }
+    protected boolean isHateoas() {
+        return mRestCallInfo.isHateoas();
+    }
 
-        return patterns;
+    protected boolean isDynamic() {
+        return mRestCallInfo.isDynamic();
     }
 
     /**
@@ -307,7 +180,7 @@ class RequestInfo {
         if (!PARAM_NAME_REGEX.matcher(name).matches()) {
             throw new IllegalArgumentException(String.format(
                     "URL REST parameter must match pattern: %s. Found: %s",
-                    PARAM_URL_REGEX.pattern(),
+                    RestCallInfo.PARAM_URL_REGEX.pattern(),
                     name
             ));
         }
@@ -317,7 +190,7 @@ class RequestInfo {
         if (!urlHasParams || !requestInfo.getRestParams().contains(name)) {
             throw new IllegalArgumentException(String.format(
                     "URL \"%s\" does not contain \"{%s}\".",
-                    requestInfo != null ? requestInfo.mPath : null,
+                    requestInfo != null ? requestInfo.mRestCallInfo.getPath() : null,
                     name
             ));
         }
@@ -0,0 +1,390 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.request;
+
+import retrovolley.annotation.*;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable description of a single RestCall enum constant, parsed once from its annotations.
+ * Instances are shared between all requests built for the same constant.
+ *
+ * @author Serghei Lotutovici
+ */
+final class RestCallInfo {
+
+    /**
+     * Upper and lower characters, digits, underscores, and hyphens, starting with a character
+     */
+    static final String PARAM = "[a-zA-Z][a-zA-Z0-9_-]*";
+
+    /**
+     * Parameter value validator
+     */
+    static final Pattern PARAM_URL_REGEX = Pattern.compile("\\{(" + PARAM + ")\\}");
+
+    /**
+     * A JSON pointer reference token, '~' may only be used as "~0" or "~1"
+     */
+    private static final Pattern JSON_POINTER_ESCAPE_REGEX = Pattern.compile("([^~]|~[01])*");
+
+    private final String mName;
+    private final int mMethod;
+    private final String mPath;
+    private final Set<String> mRestParams;
+    private final String mEndpointName;
+    private final Type mResponseType;
+    private final boolean mHateoas;
+    private final boolean mDynamic;
+    private final int mMaxNumRetries;
+    private final String[] mJsonPointer;
+    private final long mSoftTtl;
+    private final long mHardTtl;
+    private final UrlTemplate mUrlTemplate;
+
+    private RestCallInfo(String name, int method, String path, Set<String> restParams, String endpointName,
+                         Type responseType, boolean hateoas, boolean dynamic, int maxNumRetries,
+                         String[] jsonPointer, long softTtl, long hardTtl) {
+        mName = name;
+        mMethod = method;
+        mPath = path;
+        mRestParams = restParams;
+        mEndpointName = endpointName;
+        mResponseType = responseType;
+        mHateoas = hateoas;
+        mDynamic = dynamic;
+        mMaxNumRetries = maxNumRetries;
+        mJsonPointer = jsonPointer;
+        mSoftTtl = softTtl;
+        mHardTtl = hardTtl;
+        mUrlTemplate = path != null ? UrlTemplate.parse(path) : null;
+    }
+
+    /**
+     * Create an info object from already parsed and validated values
+     */
+    static RestCallInfo create(String name, int method, String path, Set<String> restParams, String endpointName,
+                               Type responseType, boolean hateoas, boolean dynamic, int maxNumRetries,
+                               String jsonPointer, long softTtl, long hardTtl) {
+        return new RestCallInfo(name, method, path, restParams, endpointName,
+                responseType, hateoas, dynamic, maxNumRetries, parseJsonPointer(jsonPointer), softTtl, hardTtl);
+    }
+
+    /**
+     * Parse the annotations of a rest call enum constant
+     *
+     * @param restCall The enum constant to parse
+     * @return A new info object
+     */
+    static RestCallInfo parse(Enum<?> restCall) {
+        return new Parser(restCall.name()).parse(extractAnnotations(restCall));
+    }
+
+    /**
+     * @return The name of the enum constant this info was parsed from
+     */
+    String getName() {
+        return mName;
+    }
+
+    int getMethod() {
+        return mMethod;
+    }
+
+    /**
+     * @return The request path relative to the endpoint, null for hateoas and dynamic calls
+     */
+    String getPath() {
+        return mPath;
+    }
+
+    /**
+     * @return The precompiled path, null for hateoas and dynamic calls
+     */
+    UrlTemplate getUrlTemplate() {
+        return mUrlTemplate;
+    }
+
+    /**
+     * @return An unmodifiable set of rest parameters, null if the call has no path
+     */
+    Set<String> getRestParams() {
+        return mRestParams;
+    }
+
+    /**
+     * @return The name of the endpoint set with {@link Endpoint}, or null if not set
+     */
+    String getEndpointName() {
+        return mEndpointName;
+    }
+
+    Type getResponseType() {
+        return mResponseType;
+    }
+
+    boolean isHateoas() {
+        return mHateoas;
+    }
+
+    boolean isDynamic() {
+        return mDynamic;
+    }
+
+    int getMaxNumRetries() {
+        return mMaxNumRetries;
+    }
+
+    /**
+     * @return The unescaped reference tokens of the {@link JsonPointer}, or null if not set
+     */
+    String[] getJsonPointer() {
+        return mJsonPointer;
+    }
+
+    /**
+     * @return The soft TTL set with {@link CacheTtl}, or -1 if not set
+     */
+    long getSoftTtl() {
+        return mSoftTtl;
+    }
+
+    /**
+     * @return The hard TTL set with {@link CacheTtl}, or -1 if not set
+     */
+    long getHardTtl() {
+        return mHardTtl;
+    }
+
+    /**
+     * Split a JSON pointer into its reference tokens, and unescape them
+     *
+     * @param pointer The JSON pointer, or null
+     * @return The reference tokens, or null if the pointer is null
+     * @throws java.lang.IllegalArgumentException If the pointer is malformed
+     */
+    static String[] parseJsonPointer(String pointer) {
+        if (pointer == null) {
+            return null;
+        }
+        if (pointer.length() > 0 && pointer.charAt(0) != '/') {
+            throw new IllegalArgumentException("The JSON pointer must be empty or start with '/': " + pointer);
+        }
+
+        String[] tokens = pointer.length() == 0 ? new String[0] : pointer.substring(1).split("/", -1);
+        for (int i = 0; i < tokens.length; i++) {
+            String token = tokens[i];
+            if (token.indexOf('~') < 0) {
+                continue;
+            }
+            if (!JSON_POINTER_ESCAPE_REGEX.matcher(token).matches()) {
+                throw new IllegalArgumentException("Invalid escape sequence in JSON pointer: " + pointer);
+            }
+            /* ~1 first, so ~01 turns into ~1 and not into / */
+            tokens[i] = token.replace("~1", "/").replace("~0", "~");
+        }
+        return tokens;
+    }
+
+    /**
+     * Parse the restCall object annotations
+     *
+     * @param restCall The restCall
+     * @return An array of all annotations
+     */
+    private static Annotation[] extractAnnotations(Enum<?> restCall) {
+        try {
+            Field field = restCall.getDeclaringClass().getField(restCall.name());
+            /* Return declared annotations */
+            return field.getDeclaredAnnotations();
+        } catch (NoSuchFieldException e) {
+            /* Throw exception, if a non enum vas passed */
+            throw new UnsupportedOperationException("Can't parse annotations");
+        }
+    }
+
+    /**
+     * Gets the set of unique path parameters used in the given URI. If a parameter is used twice
+     * in the URI, it will only show up once in the set.
+     */
+    private static Set<String> parsePathParameters(String path) {
+        Matcher matcher = PARAM_URL_REGEX.matcher(path);
+        Set<String> patterns = new LinkedHashSet<String>();
+
+        while (matcher.find()) {
+            patterns.add(matcher.group(1));
+        }
+
+        return Collections.unmodifiableSet(patterns);
+    }
+
+    /**
+     * Mutable state used while walking the annotations of a single constant
+     */
+    private static final class Parser {
+
+        private final String mName;
+        private int mMethod;
+        private String mPath;
+        private Set<String> mRestParams;
+        private String mEndpointName;
+        private Type mResponseType;
+        private boolean mHateoas = false;
+        private boolean mDynamic = false;
+        private int mMaxNumRetries = -1;
+        private String mJsonPointer;
+        private long mSoftTtl = -1;
+        private long mHardTtl = -1;
+
+        Parser(String name) {
+            mName = name;
+        }
+
+        /**
+         * Extract filed values from restCall annotations
+         * <p/>
+         * TODO add more validations and type checking
+         *
+         * @param annotations The provided objects annotations
+         */
+        RestCallInfo parse(Annotation[] annotations) {
+            for (Annotation annotation : annotations) {
+                Class<? extends Annotation> annotationType = annotation.annotationType();
+                RestMethod restMethod = null;
+
+                /* Check if the the restCall contains a hateoas annotation */
+                if (annotationType == Hateoas.class) {
+                    mHateoas = true;
+                }
+
+                /* Check if the restCall contains a dynamic annotation */
+                if (annotationType == Dynamic.class) {
+                    mDynamic = true;
+
+                    /* Parse method value from dynamic annotation */
+                    try {
+                        mMethod = ((Dynamic) annotation).value().method;
+                    } catch (Exception e) {
+                        throw new IllegalArgumentException(String.format(
+                                "Failed to extract method value from @%s annotation.",
+                                annotationType)
+                        );
+                    }
+                }
+
+                /* Check if we need to get a rest method object */
+                if (!mHateoas && !mDynamic) {
+                    /* Parse inner annotations to get the RestMethod values */
+                    for (Annotation innerAnnotation : annotationType.getAnnotations()) {
+                        if (RestMethod.class == innerAnnotation.annotationType()) {
+                            /* Get rest method annotation */
+                            restMethod = (RestMethod) innerAnnotation;
+
+                            /* Exit loop and proceed */
+                            break;
+                        }
+                    }
+                }
+
+                /* Parse annotations based on restMethod result */
+                if (restMethod != null) {
+                    /* If mPath is set then we already have parsed a similar annotation */
+                    if (mPath != null) {
+                        throw new IllegalArgumentException("Only one RestMethod annotation allowed: " + mName);
+                    }
+
+                    /* Parse method value */
+                    try {
+                        mMethod = restMethod.method().method;
+                    } catch (Exception e) {
+                        throw new IllegalArgumentException(String.format(
+                                "Failed to extract method value from @%s annotation.",
+                                restMethod.annotationType())
+                        );
+                    }
+
+                    /* Parse rest method path */
+                    String path;
+                    try {
+                        path = (String) annotationType.getMethod("value").invoke(annotation);
+                    } catch (Exception e) {
+                        throw new IllegalArgumentException(String.format(
+                                "Failed to extract String 'value' from @%s annotation.",
+                                annotationType.getSimpleName())
+                        );
+                    }
+
+                    /* Parse the path and extract additional parameters */
+                    parsePath(path);
+
+                } else if (annotationType == Response.class) {
+                    mResponseType = ((Response) annotation).value();
+
+                } else if (annotationType == Endpoint.class) {
+                    mEndpointName = ((Endpoint) annotation).value();
+
+                } else if (annotationType == MaxRetryNumber.class) {
+                    mMaxNumRetries = ((MaxRetryNumber) annotation).value();
+
+                } else if (annotationType == JsonPointer.class) {
+                    mJsonPointer = ((JsonPointer) annotation).value();
+
+                } else if (annotationType == CacheTtl.class) {
+                    mSoftTtl = ((CacheTtl) annotation).soft();
+                    mHardTtl = ((CacheTtl) annotation).hard();
+                    if (mSoftTtl < 0) {
+                        throw new IllegalArgumentException("The soft TTL must not be negative: " + mName);
+                    }
+
+                }
+            }
+
+            /* If response type not initialized then it equals string */
+            if (mResponseType == null) {
+                mResponseType = String.class;
+            }
+
+            return new RestCallInfo(mName, mMethod, mPath, mRestParams, mEndpointName,
+                    mResponseType, mHateoas, mDynamic, mMaxNumRetries, parseJsonPointer(mJsonPointer),
+                    mSoftTtl, mHardTtl);
+        }
+
+        /**
+         * Parse and validate the request path. Extract rest parameters from the path.
+         *
+         * @param path The rest path to parse
+         */
+        private void parsePath(String path) {
+            /* Throw exception if the path is not parcelable */
+            if (path == null || path.length() == 0 || path.charAt(0) != '/') {
+                throw new IllegalArgumentException("The path must not be null, ether empty and start with '/'");
+            }
+
+            /* Save path and parameters */
+            mPath = path;
+            mRestParams = parsePathParameters(path);
+        }
+    }
+}
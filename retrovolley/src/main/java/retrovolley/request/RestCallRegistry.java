@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.request;
+
+import retrovolley.RetroVolley;
+import retrovolley.rest.RestCall;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A registry of parsed {@link RestCall} constants. Every constant is parsed exactly once,
+ * the results are kept in one {@link EnumMap} per RestCall class.
+ * <br>
+ * If the RestCall enum was compiled with the retrovolley-compiler annotation processor
+ * the generated {@link RestCallTable} is used and no annotations are parsed at runtime.
+ * <br>
+ * Published maps are never modified, new entries are added by replacing the whole map,
+ * so lookups don't need any locking.
+ *
+ * @author Serghei Lotutovici
+ */
+public final class RestCallRegistry {
+
+    /**
+     * Parsed rest calls, grouped by their enum class
+     */
+    private static final Map<Class<?>, EnumMap<?, RestCallInfo>> sTables =
+            new ConcurrentHashMap<Class<?>, EnumMap<?, RestCallInfo>>();
+
+    /**
+     * RestCall classes known to have no generated table. Guarded by the class lock.
+     */
+    private static final Set<Class<?>> sReflectiveClasses = new HashSet<Class<?>>();
+
+    /**
+     * This is a utility class no instance should be created
+     */
+    private RestCallRegistry() {
+        super();
+    }
+
+    /**
+     * Parse and validate every constant of a RestCall enum, and make sure all referenced
+     * endpoints are supported. Must be called after the endpoints were added to {@link RetroVolley}.
+     *
+     * @param restCallClass The RestCall enum class
+     * @throws java.lang.IllegalArgumentException If any of the constants is misconfigured
+     * @throws java.lang.IllegalStateException    If a referenced endpoint is not supported
+     */
+    public static void preload(Class<? extends RestCall> restCallClass) {
+        if (restCallClass == null) {
+            throw new NullPointerException("Rest Call class must not be null");
+        }
+
+        if (!restCallClass.isEnum()) {
+            throw new IllegalArgumentException("The restCall class must be an enum");
+        }
+
+        /* Prefer the generated table, otherwise parse all constants outside of the lock */
+        EnumMap<?, RestCallInfo> table = loadGeneratedTable(restCallClass);
+        if (table == null) {
+            table = parseTable(restCallClass);
+        }
+
+        for (RestCallInfo info : table.values()) {
+            validateEndpoint(info);
+        }
+
+        publish(restCallClass, table);
+    }
+
+    /**
+     * Get the parsed info of a rest call, parsing it if it's accessed for the first time
+     *
+     * @param restCall The rest call object
+     * @return The shared info object
+     */
+    static RestCallInfo get(RestCall restCall) {
+        /* Throw exception on if rest call is null */
+        validateRestCallObject(restCall);
+
+        Enum<?> constant = (Enum<?>) restCall;
+        Class<?> enumClass = constant.getDeclaringClass();
+
+        EnumMap<?, RestCallInfo> table = sTables.get(enumClass);
+        RestCallInfo info = table != null ? table.get(constant) : null;
+
+        if (info == null) {
+            info = register(enumClass, constant);
+        }
+
+        return info;
+    }
+
+    /**
+     * Parse a single constant and add it to the class table
+     */
+    private static synchronized RestCallInfo register(Class<?> enumClass, Enum<?> constant) {
+        EnumMap<?, RestCallInfo> table = sTables.get(enumClass);
+
+        /* Another thread could have registered the constant while we were waiting */
+        if (table != null && table.containsKey(constant)) {
+            return table.get(constant);
+        }
+
+        /* Look up the generated table only once per class */
+        if (table == null && !sReflectiveClasses.contains(enumClass)) {
+            EnumMap<?, RestCallInfo> generated = loadGeneratedTable(enumClass);
+            if (generated != null) {
+                sTables.put(enumClass, generated);
+                return generated.get(constant);
+            }
+            sReflectiveClasses.add(enumClass);
+        }
+
+        RestCallInfo info = RestCallInfo.parse(constant);
+        sTables.put(enumClass, merge(enumClass, table, Collections.singletonMap(constant, info)));
+
+        return info;
+    }
+
+    /**
+     * Merge a fully parsed table with the one already registered
+     */
+    private static synchronized void publish(Class<?> enumClass, EnumMap<?, RestCallInfo> table) {
+        EnumMap<?, RestCallInfo> current = sTables.get(enumClass);
+
+        /* Keep already published instances, requests may hold on to them */
+        sTables.put(enumClass, current != null ? merge(enumClass, table, current) : table);
+    }
+
+    /**
+     * Parse every constant of the given RestCall enum
+     *
+     * @param enumClass The RestCall enum class
+     * @return A new table with all constants
+     */
+    private static <E extends Enum<E>> EnumMap<E, RestCallInfo> parseTable(Class<?> enumClass) {
+        Class<E> keyType = keyType(enumClass);
+
+        EnumMap<E, RestCallInfo> table = new EnumMap<E, RestCallInfo>(keyType);
+        for (E constant : keyType.getEnumConstants()) {
+            table.put(constant, RestCallInfo.parse(constant));
+        }
+        return table;
+    }
+
+    /**
+     * Load the table generated by the annotation processor for the given RestCall enum
+     *
+     * @param enumClass The RestCall enum class
+     * @return A table with all constants, or null if the enum has no generated table
+     */
+    private static <E extends Enum<E>> EnumMap<E, RestCallInfo> loadGeneratedTable(Class<?> enumClass) {
+        final RestCallTable generated;
+        try {
+            Class<?> tableClass = Class.forName(enumClass.getName() + RestCallTable.SUFFIX, true,
+                    enumClass.getClassLoader());
+            generated = (RestCallTable) tableClass.newInstance();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to create rest call table for " + enumClass.getName(), e);
+        }
+
+        Class<E> keyType = keyType(enumClass);
+
+        EnumMap<E, RestCallInfo> table = new EnumMap<E, RestCallInfo>(keyType);
+        for (RestCallInfo info : generated.getInfos()) {
+            table.put(Enum.valueOf(keyType, info.getName()), info);
+        }
+
+        /* A stale table would silently hide constants, fail fast instead */
+        if (table.size() != keyType.getEnumConstants().length) {
+            throw new IllegalStateException("Rest call table is out of date for " + enumClass.getName());
+        }
+        return table;
+    }
+
+    /**
+     * Copy a table into a new one and add the given entries, replacing existing ones
+     *
+     * @param enumClass The RestCall enum class
+     * @param table     The table to copy, can be null
+     * @param entries   The entries to add
+     * @return A new table, the given ones are left untouched
+     */
+    private static <E extends Enum<E>> EnumMap<E, RestCallInfo> merge(Class<?> enumClass,
+            Map<?, RestCallInfo> table, Map<?, RestCallInfo> entries) {
+        Class<E> keyType = keyType(enumClass);
+
+        EnumMap<E, RestCallInfo> copy = new EnumMap<E, RestCallInfo>(keyType);
+        if (table != null) {
+            for (Map.Entry<?, RestCallInfo> entry : table.entrySet()) {
+                copy.put(keyType.cast(entry.getKey()), entry.getValue());
+            }
+        }
+        for (Map.Entry<?, RestCallInfo> entry : entries.entrySet()) {
+            copy.put(keyType.cast(entry.getKey()), entry.getValue());
+        }
+        return copy;
+    }
+
+    /**
+     * Capture the type of a RestCall enum class, so its tables can be typed
+     *
+     * @param enumClass The RestCall enum class, must be an enum
+     * @return The same class
+     */
+    @SuppressWarnings("unchecked")
+    private static <E extends Enum<E>> Class<E> keyType(Class<?> enumClass) {
+        return (Class<E>) enumClass;
+    }
+
+    /**
+     * Check that the endpoint referenced by a rest call is supported
+     */
+    private static void validateEndpoint(RestCallInfo info) {
+        String endpointName = info.getEndpointName();
+        if (endpointName != null && RetroVolley.getInstance().getAdapter(endpointName) == null) {
+            throw new IllegalStateException(String.format(
+                    "Could not get adapter for name: %s, used by %s",
+                    endpointName,
+                    info.getName()
+            ));
+        }
+    }
+
+    /**
+     * Simple restCall validation
+     *
+     * @param restCall The restCall object to validate
+     * @param <V>      Generic type
+     */
+    private static <V> void validateRestCallObject(V restCall) {
+        if (restCall == null) {
+            throw new NullPointerException("Rest Call must not be null");
+        }
+
+        if (restCall.getClass().isInterface()) {
+            throw new IllegalArgumentException("The restCall object must not be an interface");
+        }
+
+        if (!(restCall instanceof Enum)) {
+            throw new IllegalArgumentException("The restCall object must be an enum");
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.request;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Base class for the rest call tables generated by the retrovolley-compiler annotation processor.
+ * A table describes every constant of one RestCall enum, so the annotations don't have to be
+ * parsed at runtime.
+ * <br>
+ * A generated table is named after its enum with the {@link #SUFFIX} appended,
+ * e.g. {@code GitHubCalls$$RestCalls}, and is looked up by {@link RestCallRegistry}.
+ *
+ * @author Serghei Lotutovici
+ */
+public abstract class RestCallTable {
+
+    /**
+     * Suffix appended to the RestCall enum binary name to get the generated table name
+     */
+    public static final String SUFFIX = "$$RestCalls";
+
+    private final List<RestCallInfo> mInfos = new ArrayList<RestCallInfo>();
+
+    protected RestCallTable() {
+        super();
+    }
+
+    /**
+     * Describe a single rest call. Called by the generated constructor for every enum constant.
+     *
+     * @param name          The enum constant name
+     * @param method        The request method
+     * @param path          The request path, or null for hateoas and dynamic calls
+     * @param restParams    The unique rest parameters used in the path
+     * @param endpointName  The endpoint name, or null if not set
+     * @param responseType  The response class
+     * @param hateoas       Hateoas call flag
+     * @param dynamic       Dynamic call flag
+     * @param maxNumRetries Max number of retries, or -1 if not set
+     */
+    protected final void add(String name, int method, String path, String[] restParams, String endpointName,
+                             Type responseType, boolean hateoas, boolean dynamic, int maxNumRetries) {
+        add(name, method, path, restParams, endpointName, responseType, hateoas, dynamic, maxNumRetries, null);
+    }
+
+    /**
+     * Describe a single rest call. Called by the generated constructor for every enum constant.
+     *
+     * @param name          The enum constant name
+     * @param method        The request method
+     * @param path          The request path, or null for hateoas and dynamic calls
+     * @param restParams    The unique rest parameters used in the path
+     * @param endpointName  The endpoint name, or null if not set
+     * @param responseType  The response class
+     * @param hateoas       Hateoas call flag
+     * @param dynamic       Dynamic call flag
+     * @param maxNumRetries Max number of retries, or -1 if not set
+     * @param jsonPointer   The JSON pointer of the parsed response part, or null if not set
+     */
+    protected final void add(String name, int method, String path, String[] restParams, String endpointName,
+                             Type responseType, boolean hateoas, boolean dynamic, int maxNumRetries,
+                             String jsonPointer) {
+        add(name, method, path, restParams, endpointName, responseType, hateoas, dynamic, maxNumRetries,
+                jsonPointer, -1, -1);
+    }
+
+    /**
+     * Describe a single rest call. Called by the generated constructor for every enum constant.
+     *
+     * @param name          The enum constant name
+     * @param method        The request method
+     * @param path          The request path, or null for hateoas and dynamic calls
+     * @param restParams    The unique rest parameters used in the path
+     * @param endpointName  The endpoint name, or null if not set
+     * @param responseType  The response class
+     * @param hateoas       Hateoas call flag
+     * @param dynamic       Dynamic call flag
+     * @param maxNumRetries Max number of retries, or -1 if not set
+     * @param jsonPointer   The JSON pointer of the parsed response part, or null if not set
+     * @param softTtl       The soft cache TTL in milliseconds, or -1 if not set
+     * @param hardTtl       The hard cache TTL in milliseconds, or -1 if not set
+     */
+    protected final void add(String name, int method, String path, String[] restParams, String endpointName,
+                             Type responseType, boolean hateoas, boolean dynamic, int maxNumRetries,
+                             String jsonPointer, long softTtl, long hardTtl) {
+        mInfos.add(RestCallInfo.create(
+                name,
+                method,
+                path,
+                path != null ? Collections.unmodifiableSet(new LinkedHashSet<String>(Arrays.asList(restParams))) : null,
+                endpointName,
+                responseType,
+                hateoas,
+                dynamic,
+                maxNumRetries,
+                jsonPointer,
+                softTtl,
+                hardTtl
+        ));
+    }
+
+    /**
+     * @return All described rest calls
+     */
+    List<RestCallInfo> getInfos() {
+        return mInfos;
+    }
+}
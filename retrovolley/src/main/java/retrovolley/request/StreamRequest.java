@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.request;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Pair;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Response;
+import com.android.volley.RetryPolicy;
+
+import retrovolley.EndpointAdapter;
+import retrovolley.converter.ConversionException;
+import retrovolley.converter.IncrementalConverter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A request parsing a list response one element at a time, while it's read from the connection.
+ * Elements are handed to the {@link BatchListener} in batches, as soon as a batch is full or
+ * the connection has no more bytes at hand. The request listener finally gets the number of
+ * elements.
+ * <br>
+ * Memory use is bounded by the batch size and the number of batches waiting for the main
+ * thread, the network thread waits if the main thread falls behind.
+ * <br>
+ * Streams are never cached or coalesced, and not retried once a batch was delivered.
+ *
+ * @author Serghei Lotutovici
+ */
+public class StreamRequest<E> extends PojoRequest<Integer> {
+
+    /**
+     * Default maximum number of elements in a batch
+     */
+    static final int DEFAULT_BATCH_SIZE = 32;
+
+    /**
+     * Maximum number of batches waiting for the main thread
+     */
+    private static final int MAX_PENDING_BATCHES = 4;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Semaphore mPendingBatches = new Semaphore(MAX_PENDING_BATCHES);
+    private final Type mItemType;
+    private final int mBatchSize;
+    private final BatchListener<E> mBatchListener;
+    private volatile int mDeliveredCount;
+
+    StreamRequest(
+            int method,
+            String url,
+            RequestListener<Integer> requestListener,
+            Map<String, String> headers,
+            List<Pair<String, String>> params,
+            RetryPolicy retryPolicy,
+            EndpointAdapter endpointAdapter,
+            Type itemType,
+            int batchSize,
+            BatchListener<E> batchListener) {
+        super(method, url, requestListener, headers, params, false, 0, Integer.class, retryPolicy, endpointAdapter);
+        if (endpointAdapter.getIncrementalConverter() == null) {
+            throw new IllegalStateException("The converter of the endpoint can't parse responses incrementally");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be positive");
+        }
+        mItemType = itemType;
+        mBatchSize = batchSize;
+        mBatchListener = batchListener;
+    }
+
+    /**
+     * @return The number of elements handed to the batch listener so far
+     */
+    public int getDeliveredCount() {
+        return mDeliveredCount;
+    }
+
+    /**
+     * Parse the response body and deliver its elements, called on the network thread
+     *
+     * @param body    The decoded response body
+     * @param charset The charset of the body
+     * @throws ConversionException If an element can't be parsed
+     * @throws IOException         If the body can't be read, or the request was canceled
+     */
+    public void readItems(final InputStream body, String charset) throws ConversionException, IOException {
+        final List<E> batch = new ArrayList<E>(mBatchSize);
+        getEndpointAdapter().getIncrementalConverter().fromStream(body, charset, mItemType,
+                new IncrementalConverter.ItemCallback() {
+                    @SuppressWarnings("unchecked")
+                    @Override
+                    public void onItem(Object item) throws IOException {
+                        if (isCanceled()) {
+                            throw new IOException("Stream canceled");
+                        }
+
+                        batch.add((E) item);
+
+                        /* Don't hold back elements while waiting for the network */
+                        if (batch.size() >= mBatchSize || body.available() == 0) {
+                            post(batch);
+                        }
+                    }
+                });
+        post(batch);
+    }
+
+    /**
+     * Hand the collected elements to the main thread and clear the batch
+     */
+    private void post(List<E> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            mPendingBatches.acquire();
+        } catch (InterruptedException ie) {
+            throw new InterruptedIOException("Interrupted while waiting for the main thread");
+        }
+
+        final List<E> items = new ArrayList<E>(batch);
+        batch.clear();
+        mDeliveredCount += items.size();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!isCanceled() && mBatchListener != null) {
+                        mBatchListener.onBatch(items);
+                    }
+                } finally {
+                    mPendingBatches.release();
+                }
+            }
+        });
+    }
+
+    @Override
+    public Response<Integer> parseNetworkResponse(NetworkResponse response) {
+        /* The elements are already delivered */
+        return Response.success(mDeliveredCount, null);
+    }
+
+    @Override
+    String getCoalescingKey() {
+        /* Every stream has its own batch listener */
+        return null;
+    }
+}
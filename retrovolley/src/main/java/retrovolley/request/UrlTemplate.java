@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.request;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+/**
+ * A request path parsed once into literal segments and rest parameter slots.
+ * The url is built in a single pass, a parameter may be used in several slots.
+ *
+ * @author Serghei Lotutovici
+ */
+final class UrlTemplate {
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * Literal path parts, there is always one more literal than slots
+     */
+    private final String[] mLiterals;
+
+    /**
+     * Rest parameter names, slot i goes between literal i and i + 1
+     */
+    private final String[] mSlots;
+
+    /**
+     * Summed up length of all literals
+     */
+    private final int mLiteralsLength;
+
+    private UrlTemplate(String[] literals, String[] slots) {
+        mLiterals = literals;
+        mSlots = slots;
+
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        mLiteralsLength = length;
+    }
+
+    /**
+     * Parse a request path into a template
+     *
+     * @param path The request path, with rest parameters in curly brackets
+     * @return The parsed template
+     */
+    static UrlTemplate parse(String path) {
+        List<String> literals = new ArrayList<String>();
+        List<String> slots = new ArrayList<String>();
+
+        Matcher matcher = RestCallInfo.PARAM_URL_REGEX.matcher(path);
+        int literalStart = 0;
+        while (matcher.find()) {
+            literals.add(path.substring(literalStart, matcher.start()));
+            slots.add(matcher.group(1));
+            literalStart = matcher.end();
+        }
+        literals.add(path.substring(literalStart));
+
+        return new UrlTemplate(
+                literals.toArray(new String[literals.size()]),
+                slots.toArray(new String[slots.size()]));
+    }
+
+    /**
+     * Compute the exact length of the expanded template
+     *
+     * @param values Already encoded rest parameter values
+     * @return The number of characters {@link #expand} will append
+     */
+    int length(Map<String, String> values) {
+        int length = mLiteralsLength;
+        for (String slot : mSlots) {
+            String value = values.get(slot);
+            if (value != null) {
+                length += value.length();
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Append the path with all slots replaced by their values
+     *
+     * @param builder The builder to append to
+     * @param values  Already encoded rest parameter values
+     * @throws java.lang.IllegalArgumentException If a value is missing
+     */
+    void expand(StringBuilder builder, Map<String, String> values) {
+        for (int i = 0; i < mSlots.length; i++) {
+            String value = values.get(mSlots[i]);
+            if (value == null) {
+                throw new IllegalArgumentException(String.format(
+                        "Missing value for url parameter: {%s}", mSlots[i]));
+            }
+            builder.append(mLiterals[i]).append(value);
+        }
+        builder.append(mLiterals[mSlots.length]);
+    }
+
+    /**
+     * Percent-encode a value so it can be used as a single path segment.
+     * Only the unreserved characters of RFC 3986 are left as is.
+     *
+     * @param value The value to encode
+     * @return The encoded value
+     */
+    static String encodePathSegment(String value) {
+        /* Avoid any allocation for the common case */
+        int i = 0;
+        final int length = value.length();
+        while (i < length && isUnreserved(value.charAt(i))) {
+            i++;
+        }
+        if (i == length) {
+            return value;
+        }
+
+        final byte[] bytes;
+        try {
+            bytes = value.substring(i).getBytes("UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+            throw new RuntimeException("Encoding not supported: UTF-8", uee);
+        }
+
+        StringBuilder encoded = new StringBuilder(i + bytes.length * 3);
+        encoded.append(value, 0, i);
+        for (byte b : bytes) {
+            char c = (char) (b & 0xFF);
+            if (isUnreserved(c)) {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(HEX_DIGITS[(c >> 4) & 0xF]).append(HEX_DIGITS[c & 0xF]);
+            }
+        }
+        return encoded.toString();
+    }
+
+    private static boolean isUnreserved(char c) {
+        return (c >= 'a' && c <= 'z')
+                || (c >= 'A' && c <= 'Z')
+                || (c >= '0' && c <= '9')
+                || c == '-' || c == '.' || c == '_' || c == '~';
+    }
+}
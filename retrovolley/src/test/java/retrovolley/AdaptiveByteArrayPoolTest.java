@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author Konstantin Tarasenko
+ */
+public class AdaptiveByteArrayPoolTest {
+
+    @Test
+    public void testGrowsUpToMaxSizeLimit() {
+        AdaptiveByteArrayPool pool = new AdaptiveByteArrayPool(1024, 8192);
+
+        byte[] large = pool.getBuf(3000);
+        pool.returnBuf(large);
+        assertEquals(3000, pool.getSizeLimit());
+        assertSame(large, pool.getBuf(2048));
+
+        /* Buffers larger than the maximum are never pooled */
+        pool.returnBuf(large);
+        pool.returnBuf(new byte[10000]);
+        assertEquals(8192, pool.getSizeLimit());
+        assertEquals(3000, pool.getCurrentSize());
+        assertEquals(10000, pool.getDroppedBytes());
+
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+        assertEquals(3000, pool.getRecycledBytes());
+    }
+
+    @Test
+    public void testFixedSizeLimitTrimsLeastRecentlyUsed() {
+        AdaptiveByteArrayPool pool = new AdaptiveByteArrayPool(2048);
+
+        byte[] first = new byte[1024];
+        pool.returnBuf(first);
+        pool.returnBuf(new byte[1024]);
+        pool.returnBuf(new byte[1024]);
+
+        assertEquals(2048, pool.getSizeLimit());
+        assertEquals(2048, pool.getCurrentSize());
+        assertEquals(1024, pool.getDroppedBytes());
+
+        /* The first buffer was trimmed, the pool allocates a new one once the others are taken */
+        assertNotSame(first, pool.getBuf(1024));
+        assertNotSame(first, pool.getBuf(1024));
+        assertNotSame(first, pool.getBuf(1024));
+        assertEquals(1, pool.getMisses());
+    }
+}
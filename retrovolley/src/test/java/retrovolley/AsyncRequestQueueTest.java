@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley;
+
+import com.android.volley.Cache;
+import com.android.volley.NoConnectionError;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.NoCache;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+
+import retrovolley.annotation.CacheTtl;
+import retrovolley.annotation.Endpoint;
+import retrovolley.annotation.GET;
+import retrovolley.cache.TwoTierCache;
+import retrovolley.httpstack.AsyncRetroStack;
+import retrovolley.request.PojoRequest;
+import retrovolley.request.RequestBuilder;
+import retrovolley.rest.RestCall;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Konstantin Tarasenko
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(
+        manifest = Config.NONE,
+        shadows = {retrovolley.shadows.ShadowSystemClock.class}
+)
+public class AsyncRequestQueueTest {
+
+    private static final String ASYNC_ENDPOINT = "async-queue-test";
+    private static final String BLOCKING_ENDPOINT = "async-queue-test-blocking";
+    private static final String CACHED_URL = "http://localhost/cached";
+
+    enum Calls implements RestCall {
+        @GET("/items")
+        @Endpoint(ASYNC_ENDPOINT)
+        ITEMS,
+
+        @GET("/cached")
+        @Endpoint(ASYNC_ENDPOINT)
+        @CacheTtl(soft = 60000, hard = 600000)
+        CACHED,
+
+        @GET("/blocking")
+        @Endpoint(BLOCKING_ENDPOINT)
+        BLOCKING
+    }
+
+    private final StubAsyncStack mAsyncStack = new StubAsyncStack();
+    private final StubStack mStack = new StubStack();
+    private final ManualExecutor mExecutor = new ManualExecutor();
+    private final TwoTierCache mCache = new TwoTierCache(new NoCache(), 64 * 1024);
+
+    @Before
+    public void setUp() {
+        RetroVolley.supportEndpoint(ASYNC_ENDPOINT, new EndpointAdapter.Builder()
+                .setEndpoint("http://localhost")
+                .setHttpStack(mStack)
+                .setAsyncStack(mAsyncStack)
+                .build());
+        RetroVolley.supportEndpoint(BLOCKING_ENDPOINT, new EndpointAdapter.Builder()
+                .setEndpoint("http://localhost")
+                .setHttpStack(mStack)
+                .build());
+    }
+
+    @Test
+    public void testRequestsInFlightDontHoldThreads() throws Exception {
+        AsyncRequestQueue queue = newQueue(10);
+        RecordingListener listener = new RecordingListener();
+
+        for (int i = 0; i < 5; i++) {
+            queue.add(build(Calls.ITEMS, listener));
+        }
+        runAll();
+
+        assertEquals(5, mAsyncStack.getPendingCount());
+        assertEquals(0, mExecutor.getPendingCount());
+
+        for (int i = 0; i < 5; i++) {
+            mAsyncStack.respond(200, "item" + i);
+        }
+        runAll();
+
+        assertEquals(Arrays.asList("item0", "item1", "item2", "item3", "item4"), listener.responses);
+        assertEquals(0, mStack.getRequestCount());
+    }
+
+    @Test
+    public void testConcurrentRequestsLimited() throws Exception {
+        AsyncRequestQueue queue = newQueue(2);
+        RecordingListener listener = new RecordingListener();
+
+        for (int i = 0; i < 3; i++) {
+            queue.add(build(Calls.ITEMS, listener));
+        }
+        runAll();
+        assertEquals(2, mAsyncStack.getPendingCount());
+
+        /* The permit of a done request goes to the waiting one */
+        mAsyncStack.respond(200, "first");
+        runAll();
+        assertEquals(2, mAsyncStack.getPendingCount());
+        assertEquals(3, mAsyncStack.getRequestCount());
+
+        mAsyncStack.respond(200, "second");
+        mAsyncStack.respond(200, "third");
+        runAll();
+
+        assertEquals(Arrays.asList("first", "second", "third"), listener.responses);
+    }
+
+    @Test
+    public void testTimeoutRetried() throws Exception {
+        AsyncRequestQueue queue = newQueue(1);
+        RecordingListener listener = new RecordingListener();
+
+        queue.add(build(Calls.ITEMS, listener));
+        runAll();
+        mAsyncStack.fail(new SocketTimeoutException());
+        runAll();
+
+        assertEquals(1, mAsyncStack.getPendingCount());
+        mAsyncStack.respond(200, "retried");
+        runAll();
+
+        assertEquals(Arrays.asList("retried"), listener.responses);
+        assertEquals(2, mAsyncStack.getRequestCount());
+    }
+
+    @Test
+    public void testErrorDeliveredAndPermitReleased() throws Exception {
+        AsyncRequestQueue queue = newQueue(1);
+        RecordingListener listener = new RecordingListener();
+
+        queue.add(build(Calls.ITEMS, listener));
+        queue.add(build(Calls.ITEMS, listener));
+        runAll();
+        assertEquals(1, mAsyncStack.getPendingCount());
+
+        mAsyncStack.fail(new IOException("Connection refused"));
+        runAll();
+
+        assertEquals(1, listener.errors.size());
+        assertTrue(listener.errors.get(0) instanceof NoConnectionError);
+        assertEquals(1, mAsyncStack.getPendingCount());
+    }
+
+    @Test
+    public void testCacheHitNotSent() throws Exception {
+        AsyncRequestQueue queue = newQueue(1);
+        mCache.put(CACHED_URL, entry("cached"));
+        RecordingListener listener = new RecordingListener();
+
+        queue.add(build(Calls.CACHED, listener));
+        runAll();
+
+        assertEquals(Arrays.asList("cached"), listener.responses);
+        assertEquals(0, mAsyncStack.getRequestCount());
+    }
+
+    @Test
+    public void testCanceledWhileWaitingNotSent() throws Exception {
+        AsyncRequestQueue queue = newQueue(1);
+        RecordingListener listener = new RecordingListener();
+
+        queue.add(build(Calls.ITEMS, listener));
+        queue.add(build(Calls.ITEMS, listener));
+        runAll();
+        queue.cancelAll(new RequestQueue.RequestFilter() {
+            @Override
+            public boolean apply(Request<?> request) {
+                return true;
+            }
+        });
+        mAsyncStack.respond(200, "canceled");
+        runAll();
+
+        assertEquals(1, mAsyncStack.getRequestCount());
+        assertEquals(0, mAsyncStack.getPendingCount());
+        assertTrue(listener.responses.isEmpty());
+    }
+
+    @Test
+    public void testEndpointWithoutAsyncStackUsesBlockingStack() throws Exception {
+        AsyncRequestQueue queue = newQueue(1);
+        mStack.enqueue(200, "blocking");
+        RecordingListener listener = new RecordingListener();
+
+        queue.add(build(Calls.BLOCKING, listener));
+        runAll();
+
+        assertEquals(Arrays.asList("blocking"), listener.responses);
+        assertEquals(1, mStack.getRequestCount());
+        assertEquals(0, mAsyncStack.getRequestCount());
+    }
+
+    private AsyncRequestQueue newQueue(int maxConcurrentRequests) {
+        AsyncRequestQueue queue = new AsyncRequestQueue(mCache, new RetroVolleyNetwork(), mExecutor,
+                maxConcurrentRequests);
+        queue.start();
+        return queue;
+    }
+
+    private static PojoRequest<String> build(Calls call, RecordingListener listener) {
+        RequestBuilder<String> builder = new RequestBuilder<String>(call);
+        builder.setRequestListener(listener);
+        return builder.build();
+    }
+
+    private void runAll() {
+        mExecutor.runAll();
+        Robolectric.runUiThreadTasksIncludingDelayedTasks();
+    }
+
+    private static Cache.Entry entry(String body) throws Exception {
+        final long now = System.currentTimeMillis();
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Content-Type", "text/plain; charset=UTF-8");
+        headers.put("X-RetroVolley-Soft-Expire", String.valueOf(now + 60000));
+
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = body.getBytes("UTF-8");
+        entry.softTtl = now + 60000;
+        entry.ttl = now + 600000;
+        entry.responseHeaders = headers;
+        return entry;
+    }
+
+    /**
+     * An async stack keeping the requests in flight until the test completes them, oldest first
+     */
+    private static class StubAsyncStack implements AsyncRetroStack {
+
+        private final Queue<Callback> mPending = new LinkedList<Callback>();
+        private int mRequestCount;
+
+        @Override
+        public synchronized void performRequest(Request<?> request, Map<String, String> additionalHeaders,
+                                                Callback callback) {
+            mRequestCount++;
+            mPending.add(callback);
+        }
+
+        synchronized int getPendingCount() {
+            return mPending.size();
+        }
+
+        synchronized int getRequestCount() {
+            return mRequestCount;
+        }
+
+        void respond(int statusCode, String body) throws Exception {
+            final HttpResponse response = new BasicHttpResponse(
+                    new BasicStatusLine(HttpVersion.HTTP_1_1, statusCode, null));
+            response.setEntity(new StringEntity(body, "UTF-8"));
+            response.setHeader("Content-Type", "application/json; charset=UTF-8");
+            next().onResponse(response);
+        }
+
+        void fail(IOException error) {
+            next().onError(error);
+        }
+
+        private synchronized Callback next() {
+            return mPending.remove();
+        }
+    }
+}
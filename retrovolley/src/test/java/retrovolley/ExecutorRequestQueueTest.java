@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley;
+
+import com.android.volley.Cache;
+import com.android.volley.NoConnectionError;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.NoCache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import retrovolley.annotation.CacheTtl;
+import retrovolley.annotation.Endpoint;
+import retrovolley.annotation.GET;
+import retrovolley.cache.TwoTierCache;
+import retrovolley.request.PojoRequest;
+import retrovolley.request.RequestBuilder;
+import retrovolley.rest.RestCall;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Serghei Lotutovici
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(
+        manifest = Config.NONE,
+        shadows = {retrovolley.shadows.ShadowSystemClock.class}
+)
+public class ExecutorRequestQueueTest {
+
+    private static final String ENDPOINT = "executor-queue-test";
+    private static final String CACHED_URL = "http://localhost/cached";
+
+    enum Calls implements RestCall {
+        @GET("/cached")
+        @Endpoint(ENDPOINT)
+        @CacheTtl(soft = 60000, hard = 600000)
+        CACHED
+    }
+
+    private final StubStack mStack = new StubStack();
+    private final ManualExecutor mExecutor = new ManualExecutor();
+    private final TwoTierCache mCache = new TwoTierCache(new NoCache(), 64 * 1024);
+    private final ExecutorRequestQueue mQueue = new ExecutorRequestQueue(mCache, new RetroVolleyNetwork(), mExecutor, 1);
+
+    @Before
+    public void setUp() {
+        RetroVolley.supportEndpoint(ENDPOINT, new EndpointAdapter.Builder()
+                .setEndpoint("http://localhost")
+                .setHttpStack(mStack)
+                .build());
+        mQueue.start();
+    }
+
+    @Test
+    public void testCacheHit() throws Exception {
+        mCache.put(CACHED_URL, entry("cached", 60000));
+        RecordingListener listener = new RecordingListener();
+
+        mQueue.add(build(listener));
+        runAll();
+
+        assertEquals(Arrays.asList("cached"), listener.responses);
+        assertEquals(Arrays.asList(false), listener.stale);
+        assertEquals(0, mStack.getRequestCount());
+    }
+
+    @Test
+    public void testSoftExpiredHitRefreshed() throws Exception {
+        mCache.put(CACHED_URL, entry("old", -1000));
+        mStack.enqueue(200, "new");
+        RecordingListener listener = new RecordingListener();
+
+        mQueue.add(build(listener));
+        runAll();
+
+        assertEquals(Arrays.asList("old", "new"), listener.responses);
+        assertEquals(Arrays.asList(true, false), listener.stale);
+        assertEquals(1, mStack.getRequestCount());
+        assertEquals("new", new String(mCache.get(CACHED_URL).data, "UTF-8"));
+    }
+
+    @Test
+    public void testCancelledRequestNotSent() throws Exception {
+        RecordingListener listener = new RecordingListener();
+
+        PojoRequest<String> request = build(listener);
+        mQueue.add(request);
+        mQueue.cancelAll(new RequestQueue.RequestFilter() {
+            @Override
+            public boolean apply(Request<?> request) {
+                return true;
+            }
+        });
+        runAll();
+
+        assertTrue(request.isCanceled());
+        assertTrue(listener.responses.isEmpty());
+        assertTrue(listener.errors.isEmpty());
+        assertEquals(0, mStack.getRequestCount());
+    }
+
+    @Test
+    public void testNetworkErrorDelivered() throws Exception {
+        RecordingListener listener = new RecordingListener();
+
+        mQueue.add(build(listener));
+        runAll();
+
+        assertEquals(1, listener.errors.size());
+        assertTrue(listener.errors.get(0) instanceof NoConnectionError);
+    }
+
+    @Test
+    public void testRequestsWaitForCacheInitialization() throws Exception {
+        mCache.put(CACHED_URL, entry("cached", 60000));
+        RecordingListener listener = new RecordingListener();
+        mQueue.add(build(listener));
+
+        /* Run the request before the cache initialization */
+        Runnable initialization = mExecutor.next();
+        Thread worker = new Thread(mExecutor.next());
+        worker.start();
+        worker.join(200);
+        assertTrue(worker.isAlive());
+        assertEquals(0, mCache.getMemoryHits() + mCache.getMemoryMisses());
+
+        initialization.run();
+        worker.join();
+        Robolectric.runUiThreadTasksIncludingDelayedTasks();
+
+        assertEquals(Arrays.asList("cached"), listener.responses);
+    }
+
+    private static PojoRequest<String> build(RecordingListener listener) {
+        RequestBuilder<String> builder = new RequestBuilder<String>(Calls.CACHED);
+        builder.setRequestListener(listener);
+        return builder.build();
+    }
+
+    private void runAll() {
+        mExecutor.runAll();
+        Robolectric.runUiThreadTasksIncludingDelayedTasks();
+    }
+
+    /**
+     * @param softTtl Milliseconds from now the entry is served without being refreshed
+     */
+    private static Cache.Entry entry(String body, long softTtl) throws Exception {
+        final long now = System.currentTimeMillis();
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Content-Type", "text/plain; charset=UTF-8");
+        headers.put("X-RetroVolley-Soft-Expire", String.valueOf(now + softTtl));
+
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = body.getBytes("UTF-8");
+        entry.softTtl = now + softTtl;
+        entry.ttl = now + 600000;
+        entry.responseHeaders = headers;
+        return entry;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * An executor running its tasks only when asked to, on the calling thread
+ *
+ * @author Serghei Lotutovici
+ */
+class ManualExecutor implements Executor {
+
+    private final Queue<Runnable> mTasks = new LinkedList<Runnable>();
+
+    @Override
+    public synchronized void execute(Runnable task) {
+        mTasks.add(task);
+    }
+
+    /**
+     * @return The number of tasks waiting to run
+     */
+    synchronized int getPendingCount() {
+        return mTasks.size();
+    }
+
+    /**
+     * Run the tasks, including the ones scheduled while running
+     *
+     * @return The number of tasks that were run
+     */
+    int runAll() {
+        int count = 0;
+        Runnable task;
+        while ((task = next()) != null) {
+            task.run();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return The oldest task waiting to run, removed from the executor, or null if there is none
+     */
+    synchronized Runnable next() {
+        return mTasks.poll();
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.ByteArrayPool;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import retrovolley.mime.DictionaryCodec;
+import retrovolley.mime.TypedByteArray;
+import retrovolley.request.PartialDownload;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Konstantin Tarasenko
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class NetworkHelperTest {
+
+    private static final String BODY = "[{\"id\":1,\"name\":\"retrovolley\"},{\"id\":2,\"name\":\"retrovolley\"}]";
+
+    private final NetworkHelper mHelper = new NetworkHelper(new ByteArrayPool(4096));
+
+    @Test
+    public void testGzipBody() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(BODY.getBytes("UTF-8"));
+        gzip.close();
+
+        TransferStats stats = new TransferStats();
+        byte[] body = mHelper.getResponse(response(compressed.toByteArray(), "gzip"), stats);
+
+        assertEquals(BODY, new String(body, "UTF-8"));
+        assertEquals("gzip", stats.getContentEncoding());
+        assertEquals(compressed.size(), stats.getWireBytes());
+        assertEquals(body.length, stats.getDecodedBytes());
+    }
+
+    @Test
+    public void testRawDeflateBody() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        DeflaterOutputStream deflate = new DeflaterOutputStream(compressed, new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+        deflate.write(BODY.getBytes("UTF-8"));
+        deflate.close();
+
+        byte[] body = mHelper.getResponse(response(compressed.toByteArray(), "deflate"), new TransferStats());
+
+        assertEquals(BODY, new String(body, "UTF-8"));
+    }
+
+    @Test
+    public void testEmptyEncodedBody() throws Exception {
+        TransferStats stats = new TransferStats();
+        byte[] body = mHelper.getResponse(response(new byte[0], "gzip"), stats);
+
+        assertEquals(0, body.length);
+        assertNull(stats.getContentEncoding());
+    }
+
+    @Test
+    public void testDictionaryBody() throws Exception {
+        DictionaryCodec codec = new DictionaryCodec("2", "\"name\":\"retrovolley\"},{\"id\":".getBytes("UTF-8"));
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        codec.encode(new TypedByteArray(null, BODY.getBytes("UTF-8")), new ByteArrayPool(4096)).writeTo(encoded);
+
+        BasicHttpResponse response = response(encoded.toByteArray(), DictionaryCodec.CONTENT_ENCODING);
+        response.addHeader(DictionaryCodec.HEADER_DICTIONARY, "2");
+        TransferStats stats = new TransferStats();
+        byte[] body = mHelper.getResponse(response, stats, codec);
+
+        assertEquals(BODY, new String(body, "UTF-8"));
+        assertEquals(DictionaryCodec.CONTENT_ENCODING, stats.getContentEncoding());
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownDictionaryVersion() throws Exception {
+        DictionaryCodec codec = new DictionaryCodec("2", "\"name\":".getBytes("UTF-8"));
+        BasicHttpResponse response = response(new byte[]{1, 2, 3}, DictionaryCodec.CONTENT_ENCODING);
+        response.addHeader(DictionaryCodec.HEADER_DICTIONARY, "1");
+
+        mHelper.getResponse(response, null, codec);
+    }
+
+    @Test
+    public void testPooledResponse() throws Exception {
+        byte[] plain = BODY.getBytes("UTF-8");
+        NetworkResponse exact = mHelper.getPooledResponse(200, response(plain, null),
+                new HashMap<String, String>(), null, null);
+
+        /* A body of known length is read into an exact array */
+        assertFalse(exact instanceof PooledNetworkResponse);
+        assertArrayEquals(plain, exact.data);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(plain);
+        gzip.close();
+
+        PooledNetworkResponse pooled = (PooledNetworkResponse) mHelper.getPooledResponse(200,
+                response(compressed.toByteArray(), "gzip"), new HashMap<String, String>(), null, null);
+
+        assertEquals(BODY, new String(pooled.getBuffer(), 0, pooled.getLength(), "UTF-8"));
+        pooled.release();
+    }
+
+    @Test
+    public void testDownload() throws Exception {
+        File target = File.createTempFile("download", ".json");
+        PartialDownload download = new PartialDownload(target);
+        TransferStats stats = new TransferStats();
+
+        mHelper.download(response(BODY.getBytes("UTF-8"), null), download, null, request(), stats, null);
+
+        assertEquals(BODY.length(), target.length());
+        assertEquals(BODY.length(), stats.getDecodedBytes());
+        assertFalse(download.getPartFile().exists());
+        target.delete();
+    }
+
+    @Test
+    public void testIncompleteDownloadIsResumed() throws Exception {
+        File target = File.createTempFile("download", ".json");
+        target.delete();
+        PartialDownload download = new PartialDownload(target);
+        byte[] body = BODY.getBytes("UTF-8");
+        int half = body.length / 2;
+
+        /* The connection ends in the middle of the body */
+        BasicHttpResponse response = response(body, 0, half, body.length);
+        response.addHeader("ETag", "\"v1\"");
+        try {
+            mHelper.download(response, download, null, request(), null, null);
+            fail();
+        } catch (NetworkHelper.IncompleteBodyException expected) {
+            assertEquals(half, download.length());
+            assertEquals("\"v1\"", download.getValidator());
+            assertFalse(target.exists());
+        }
+
+        /* Only the missing tail is sent */
+        BasicHttpResponse tail = response(body, half, body.length - half, body.length - half);
+        tail.setStatusCode(HttpStatus.SC_PARTIAL_CONTENT);
+        tail.addHeader("Content-Range", "bytes " + half + "-" + (body.length - 1) + "/" + body.length);
+        mHelper.download(tail, download, null, request(), null, null);
+
+        assertEquals(body.length, target.length());
+        assertFalse(download.getPartFile().exists());
+        assertNull(download.getValidator());
+        target.delete();
+    }
+
+    @Test
+    public void testIncompleteDownloadWithoutValidator() throws Exception {
+        File target = File.createTempFile("download", ".json");
+        target.delete();
+        PartialDownload download = new PartialDownload(target);
+        byte[] body = BODY.getBytes("UTF-8");
+
+        try {
+            mHelper.download(response(body, 0, body.length, body.length * 2), download, null, request(), null, null);
+            fail();
+        } catch (NetworkHelper.IncompleteBodyException expected) {
+            assertFalse(download.getPartFile().exists());
+            assertFalse(target.exists());
+        }
+    }
+
+    private static Request<Object> request() {
+        return new Request<Object>(Request.Method.GET, "http://localhost/", null) {
+            @Override
+            protected Response<Object> parseNetworkResponse(NetworkResponse response) {
+                return null;
+            }
+
+            @Override
+            protected void deliverResponse(Object response) {
+            }
+        };
+    }
+
+    private static BasicHttpResponse response(byte[] body, int offset, int length, long contentLength) {
+        BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContent(new ByteArrayInputStream(body, offset, length));
+        entity.setContentLength(contentLength);
+        BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setEntity(entity);
+        return response;
+    }
+
+    private static BasicHttpResponse response(byte[] body, String contentEncoding) {
+        BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setEntity(new ByteArrayEntity(body));
+        if (contentEncoding != null) {
+            response.addHeader("Content-Encoding", contentEncoding);
+        }
+        return response;
+    }
+}
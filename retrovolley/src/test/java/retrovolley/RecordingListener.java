@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley;
+
+import com.android.volley.VolleyError;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import retrovolley.request.CacheAwareListener;
+
+/**
+ * A listener keeping everything delivered to it
+ *
+ * @author Serghei Lotutovici
+ */
+class RecordingListener implements CacheAwareListener<String> {
+
+    final List<String> responses = new ArrayList<String>();
+    final List<Boolean> stale = new ArrayList<Boolean>();
+    final List<VolleyError> errors = new ArrayList<VolleyError>();
+
+    @Override
+    public void onExecute() {
+    }
+
+    @Override
+    public void onResponse(String response) {
+        onResponse(response, false);
+    }
+
+    @Override
+    public void onResponse(String response, boolean stale) {
+        responses.add(response);
+        this.stale.add(stale);
+    }
+
+    @Override
+    public void onErrorResponse(VolleyError error) {
+        errors.add(error);
+    }
+}
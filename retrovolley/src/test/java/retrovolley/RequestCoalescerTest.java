@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley;
+
+import com.android.volley.Cache;
+import com.android.volley.NoConnectionError;
+import com.android.volley.toolbox.NoCache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import retrovolley.annotation.CacheTtl;
+import retrovolley.annotation.Endpoint;
+import retrovolley.annotation.GET;
+import retrovolley.cache.TwoTierCache;
+import retrovolley.request.PojoRequest;
+import retrovolley.request.RequestBuilder;
+import retrovolley.rest.RestCall;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Serghei Lotutovici
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(
+        manifest = Config.NONE,
+        shadows = {retrovolley.shadows.ShadowSystemClock.class}
+)
+public class RequestCoalescerTest {
+
+    private static final String ENDPOINT = "coalescer-test";
+    private static final String CACHED_URL = "http://localhost/cached";
+
+    enum Calls implements RestCall {
+        @GET("/items")
+        @Endpoint(ENDPOINT)
+        ITEMS,
+
+        @GET("/cached")
+        @Endpoint(ENDPOINT)
+        @CacheTtl(soft = 60000, hard = 600000)
+        CACHED
+    }
+
+    private final StubStack mStack = new StubStack();
+    private final ManualExecutor mExecutor = new ManualExecutor();
+    private final Cache mCache = new TwoTierCache(new NoCache(), 64 * 1024);
+
+    @Before
+    public void setUp() {
+        RetroVolley.supportEndpoint(ENDPOINT, new EndpointAdapter.Builder()
+                .setEndpoint("http://localhost")
+                .setHttpStack(mStack)
+                .setCoalesceRequests(true)
+                .build());
+        RetroVolley.init(mCache, mExecutor, 1);
+        mExecutor.runAll();
+    }
+
+    @Test
+    public void testResponseSharedWithFollowers() {
+        mStack.enqueue(200, "items");
+        RecordingListener leader = new RecordingListener();
+        RecordingListener follower = new RecordingListener();
+
+        execute(Calls.ITEMS, leader);
+        execute(Calls.ITEMS, follower);
+        assertEquals(1, mExecutor.getPendingCount());
+        runAll();
+
+        assertEquals(1, mStack.getRequestCount());
+        assertEquals(Arrays.asList("items"), leader.responses);
+        assertSame(leader.responses.get(0), follower.responses.get(0));
+    }
+
+    @Test
+    public void testErrorSharedWithFollowers() {
+        RecordingListener leader = new RecordingListener();
+        RecordingListener follower = new RecordingListener();
+
+        execute(Calls.ITEMS, leader);
+        execute(Calls.ITEMS, follower);
+        runAll();
+
+        assertEquals(1, mStack.getRequestCount());
+        assertEquals(1, leader.errors.size());
+        assertTrue(leader.errors.get(0) instanceof NoConnectionError);
+        assertEquals(leader.errors, follower.errors);
+        assertTrue(follower.responses.isEmpty());
+    }
+
+    @Test
+    public void testCancelAllCancelsFollowers() {
+        mStack.enqueue(200, "items");
+        final Object tag = new Object();
+        RecordingListener leader = new RecordingListener();
+        RecordingListener follower = new RecordingListener();
+
+        PojoRequest<String> leaderRequest = execute(Calls.ITEMS, leader, null);
+        PojoRequest<String> followerRequest = execute(Calls.ITEMS, follower, tag);
+        RetroVolley.cancelAll(tag);
+        runAll();
+
+        assertTrue(followerRequest.isCanceled());
+        assertFalse(leaderRequest.isCanceled());
+        assertEquals(Arrays.asList("items"), leader.responses);
+        assertTrue(follower.responses.isEmpty());
+    }
+
+    @Test
+    public void testFollowersResentWhenLeaderCancelled() {
+        mStack.enqueue(200, "items");
+        RecordingListener leader = new RecordingListener();
+        RecordingListener follower = new RecordingListener();
+
+        PojoRequest<String> leaderRequest = execute(Calls.ITEMS, leader);
+        execute(Calls.ITEMS, follower);
+        leaderRequest.cancel();
+        Robolectric.runUiThreadTasksIncludingDelayedTasks();
+
+        /* The follower was sent on its own */
+        assertEquals(2, mExecutor.getPendingCount());
+        runAll();
+
+        assertEquals(1, mStack.getRequestCount());
+        assertTrue(leader.responses.isEmpty());
+        assertEquals(Arrays.asList("items"), follower.responses);
+    }
+
+    @Test
+    public void testStaleResponseRefreshedForFollowers() throws Exception {
+        mCache.put(CACHED_URL, staleEntry("old"));
+        mStack.enqueue(200, "new");
+
+        final RecordingListener late = new RecordingListener();
+        RecordingListener leader = new RecordingListener() {
+            @Override
+            public void onResponse(String response, boolean stale) {
+                super.onResponse(response, stale);
+                if (stale) {
+                    /* The refresh is still in flight, an identical request waits for it */
+                    execute(Calls.CACHED, late);
+                }
+            }
+        };
+        RecordingListener follower = new RecordingListener();
+
+        execute(Calls.CACHED, leader);
+        execute(Calls.CACHED, follower);
+        runAll();
+
+        assertEquals(1, mStack.getRequestCount());
+        assertEquals(Arrays.asList("old", "new"), leader.responses);
+        assertEquals(Arrays.asList(true, false), leader.stale);
+        assertEquals(Arrays.asList("old", "new"), follower.responses);
+        assertEquals(Arrays.asList(true, false), follower.stale);
+        assertEquals(Arrays.asList("old", "new"), late.responses);
+        assertEquals(Arrays.asList(true, false), late.stale);
+    }
+
+    @Test
+    public void testStaleResponseNotModifiedReleasesFollowers() throws Exception {
+        mCache.put(CACHED_URL, staleEntry("old"));
+        mStack.enqueue(304, "");
+
+        RecordingListener leader = new RecordingListener();
+        RecordingListener follower = new RecordingListener();
+        execute(Calls.CACHED, leader);
+        execute(Calls.CACHED, follower);
+        runAll();
+
+        assertEquals(Arrays.asList("old"), leader.responses);
+        assertEquals(Arrays.asList("old"), follower.responses);
+
+        /* Nothing is in flight anymore, the next request is sent */
+        execute(Calls.CACHED, new RecordingListener());
+        assertEquals(1, mExecutor.getPendingCount());
+        runAll();
+    }
+
+    private static PojoRequest<String> execute(Calls call, RecordingListener listener) {
+        return execute(call, listener, null);
+    }
+
+    private static PojoRequest<String> execute(Calls call, RecordingListener listener, Object tag) {
+        RequestBuilder<String> builder = new RequestBuilder<String>(call);
+        builder.setRequestListener(listener);
+        builder.setTag(tag);
+        PojoRequest<String> request = builder.build();
+        request.execute();
+        return request;
+    }
+
+    private void runAll() {
+        mExecutor.runAll();
+        Robolectric.runUiThreadTasksIncludingDelayedTasks();
+    }
+
+    /**
+     * @return A cache entry that is served while it's refreshed
+     */
+    private static Cache.Entry staleEntry(String body) throws Exception {
+        final long now = System.currentTimeMillis();
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Content-Type", "text/plain; charset=UTF-8");
+        headers.put("X-RetroVolley-Soft-Expire", String.valueOf(now - 1000));
+
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = body.getBytes("UTF-8");
+        entry.softTtl = now - 1000;
+        entry.ttl = now + 60000;
+        entry.responseHeaders = headers;
+        return entry;
+    }
+}
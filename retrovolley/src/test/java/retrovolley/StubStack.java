@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import retrovolley.httpstack.RetroStack;
+
+/**
+ * A stack answering requests with canned responses, in the order they were enqueued.
+ * Requests without a response fail as if the server couldn't be reached.
+ *
+ * @author Serghei Lotutovici
+ */
+class StubStack implements RetroStack {
+
+    private final Queue<HttpResponse> mResponses = new ConcurrentLinkedQueue<HttpResponse>();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+
+    /**
+     * Answer the next request with a json body
+     *
+     * @param statusCode The response status code
+     * @param body       The response body
+     * @return The same stack instance
+     */
+    StubStack enqueue(int statusCode, String body) {
+        final BasicHttpResponse response = new BasicHttpResponse(
+                new BasicStatusLine(HttpVersion.HTTP_1_1, statusCode, null));
+        try {
+            response.setEntity(new StringEntity(body, "UTF-8"));
+        } catch (IOException ioe) {
+            throw new AssertionError(ioe);
+        }
+        response.setHeader("Content-Type", "application/json; charset=UTF-8");
+        mResponses.add(response);
+        return this;
+    }
+
+    /**
+     * @return The number of requests sent through this stack
+     */
+    int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    @Override
+    public HttpResponse performRequest(Request<?> request, Map<String, String> additionalHeaders)
+            throws IOException, AuthFailureError {
+        mRequestCount.incrementAndGet();
+        final HttpResponse response = mResponses.poll();
+        if (response == null) {
+            throw new IOException("No response enqueued");
+        }
+        return response;
+    }
+
+    @Override
+    public void clearCookies() {
+    }
+}
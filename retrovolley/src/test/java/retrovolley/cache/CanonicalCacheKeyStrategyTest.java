@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.cache;
+
+import com.android.volley.Request;
+
+import org.junit.Test;
+
+import retrovolley.mime.MultipartTypedOutput;
+import retrovolley.mime.TypedByteArray;
+import retrovolley.mime.TypedFile;
+import retrovolley.mime.TypedInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Konstantin Tarasenko
+ */
+public class CanonicalCacheKeyStrategyTest {
+
+    private final CanonicalCacheKeyStrategy mStrategy = new CanonicalCacheKeyStrategy(true, "ts", "nonce");
+
+    @Test
+    public void testQueryCanonicalized() {
+        String key = mStrategy.getCacheKey(Request.Method.GET, "http://host/items?b=2&ts=123&a=1&c=3&a=0#top", null);
+
+        assertEquals("http://host/items?a=1&a=0&b=2&c=3", key);
+        assertEquals(key, mStrategy.getCacheKey(Request.Method.GET, "http://host/items?c=3&a=1&nonce=x&a=0&b=2", null));
+        assertEquals("http://host/items", mStrategy.getCacheKey(Request.Method.GET, "http://host/items?ts=1", null));
+    }
+
+    @Test
+    public void testPostKeyedByBody() {
+        String first = mStrategy.getCacheKey(Request.Method.POST, "http://host/search",
+                new TypedByteArray(null, "{\"q\":1}".getBytes()));
+        String second = mStrategy.getCacheKey(Request.Method.POST, "http://host/search",
+                new TypedByteArray(null, "{\"q\":2}".getBytes()));
+
+        assertFalse(first.equals(second));
+        assertEquals(first, mStrategy.getCacheKey(Request.Method.POST, "http://host/search",
+                new TypedByteArray(null, "{\"q\":1}".getBytes())));
+        assertNull(new CanonicalCacheKeyStrategy().getCacheKey(Request.Method.POST, "http://host/search", null));
+        assertNull(mStrategy.getCacheKey(Request.Method.PUT, "http://host/search", null));
+    }
+
+    @Test
+    public void testMultipartWithStreamNotCached() throws Exception {
+        MultipartTypedOutput multipart = new MultipartTypedOutput("b0undary")
+                .addPart("data", new TypedInputStream(null, new ByteArrayInputStream(new byte[]{1, 2, 3})));
+
+        assertNull(mStrategy.getCacheKey(Request.Method.POST, "http://host/upload", multipart));
+
+        /* The stream wasn't consumed by the strategy, it can still be sent */
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        multipart.writeTo(bytes);
+        assertTrue(bytes.toString("UTF-8").contains("\u0001\u0002\u0003"));
+    }
+
+    @Test
+    public void testFileNotCached() throws Exception {
+        File file = File.createTempFile("query", ".json");
+        try {
+            assertNull(mStrategy.getCacheKey(Request.Method.POST, "http://host/search",
+                    new TypedFile("application/json", file)));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.cache;
+
+import com.android.volley.Cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Konstantin Tarasenko
+ */
+public class LogStructuredCacheTest {
+
+    /**
+     * The first bytes of every entry record
+     */
+    private static final byte[] ENTRY_MAGIC = {0x52, 0x56, 0x4c, 0x43};
+
+    /**
+     * Holds three records of {@link #DATA} with single character keys and etags
+     */
+    private static final int SEGMENT_SIZE = 1024;
+
+    private static final String DATA = new String(new char[200]);
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = File.createTempFile("cache", "");
+        mDirectory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void testReopen() {
+        LogStructuredCache cache = new LogStructuredCache(mDirectory);
+        cache.initialize();
+        cache.put("a", entry("first", "1"));
+        cache.put("b", entry("second", "2"));
+        cache.put("a", entry("third", "3"));
+        cache.remove("b");
+
+        cache = new LogStructuredCache(mDirectory);
+        cache.initialize();
+        assertEquals(1, cache.size());
+        assertNull(cache.get("b"));
+
+        Cache.Entry entry = cache.get("a");
+        assertArrayEquals("third".getBytes(), entry.data);
+        assertEquals("3", entry.etag);
+        assertEquals("3", entry.responseHeaders.get("ETag"));
+        assertEquals(3000L, entry.ttl);
+    }
+
+    @Test
+    public void testOldestSegmentDropped() {
+        LogStructuredCache cache = new LogStructuredCache(mDirectory, 4096, 1024);
+        cache.initialize();
+        for (int i = 0; i < 40; i++) {
+            cache.put("key" + i, entry(new String(new char[200]), String.valueOf(i)));
+        }
+
+        assertEquals(4, cache.getSegmentCount());
+        assertNull(cache.get("key0"));
+        assertEquals("39", cache.get("key39").etag);
+    }
+
+    @Test
+    public void testOldestSegmentEntriesDroppedOnReopen() {
+        LogStructuredCache cache = new LogStructuredCache(mDirectory, 4096, 1024);
+        cache.initialize();
+        for (int i = 0; i < 40; i++) {
+            cache.put("key" + i, entry(DATA, String.valueOf(i)));
+        }
+        int size = cache.size();
+
+        /* The journal still holds the entries of the deleted segments */
+        cache = new LogStructuredCache(mDirectory, 4096, 1024);
+        cache.initialize();
+        assertEquals(size, cache.size());
+        assertNull(cache.get("key0"));
+        assertEquals("39", cache.get("key39").etag);
+    }
+
+    @Test
+    public void testSparseSegmentCompacted() throws Exception {
+        LogStructuredCache cache = new LogStructuredCache(mDirectory, 8192, SEGMENT_SIZE);
+        cache.initialize();
+        for (String key : new String[]{"a", "b", "c", "d", "e", "f", "g"}) {
+            cache.put(key, entry(DATA, "1"));
+        }
+
+        /* Leave a single live entry in the first segment */
+        cache.put("a", entry(DATA, "2"));
+        cache.put("b", entry(DATA, "3"));
+
+        File first = new File(mDirectory, "0.seg");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (first.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(first.exists());
+        assertEquals("1", cache.get("c").etag);
+
+        cache = new LogStructuredCache(mDirectory, 8192, SEGMENT_SIZE);
+        cache.initialize();
+        assertEquals(7, cache.size());
+        assertEquals("2", cache.get("a").etag);
+        assertEquals("3", cache.get("b").etag);
+        assertEquals("1", cache.get("c").etag);
+        assertArrayEquals(DATA.getBytes(), cache.get("c").data);
+        assertEquals("1", cache.get("g").etag);
+    }
+
+    @Test
+    public void testTornJournalRecordDropped() throws Exception {
+        LogStructuredCache cache = new LogStructuredCache(mDirectory, 8192, SEGMENT_SIZE);
+        cache.initialize();
+        cache.put("a", entry(DATA, "1"));
+        cache.put("b", entry(DATA, "2"));
+        cache.put("c", entry(DATA, "3"));
+
+        /* Cut the last record in half, like a crash while writing it */
+        RandomAccessFile journal = new RandomAccessFile(new File(mDirectory, "journal"), "rw");
+        try {
+            journal.setLength(journal.length() - 5);
+        } finally {
+            journal.close();
+        }
+
+        cache = new LogStructuredCache(mDirectory, 8192, SEGMENT_SIZE);
+        cache.initialize();
+        assertEquals(2, cache.size());
+        assertEquals("1", cache.get("a").etag);
+        assertEquals("2", cache.get("b").etag);
+        assertNull(cache.get("c"));
+
+        /* New records go after the last valid one */
+        cache.put("d", entry(DATA, "4"));
+        cache = new LogStructuredCache(mDirectory, 8192, SEGMENT_SIZE);
+        cache.initialize();
+        assertEquals(3, cache.size());
+        assertEquals("1", cache.get("a").etag);
+        assertEquals("4", cache.get("d").etag);
+    }
+
+    @Test
+    public void testCorruptedEntryDropped() throws Exception {
+        LogStructuredCache cache = new LogStructuredCache(mDirectory, 8192, SEGMENT_SIZE);
+        cache.initialize();
+        cache.put("a", entry(DATA, "1"));
+        cache.put("b", entry(DATA, "2"));
+        cache.put("c", entry(DATA, "3"));
+
+        /* Break the magic number of the first record and the key of the second one */
+        RandomAccessFile segment = new RandomAccessFile(new File(mDirectory, "0.seg"), "rw");
+        try {
+            byte[] bytes = new byte[SEGMENT_SIZE];
+            segment.readFully(bytes);
+            int first = indexOf(bytes, ENTRY_MAGIC, 0);
+            int second = indexOf(bytes, ENTRY_MAGIC, first + 1);
+            assertEquals(0, first);
+            assertTrue(second > 0);
+
+            segment.seek(first);
+            segment.writeInt(0);
+            segment.seek(second + 8);
+            segment.write('x');
+        } finally {
+            segment.close();
+        }
+
+        cache = new LogStructuredCache(mDirectory, 8192, SEGMENT_SIZE);
+        cache.initialize();
+        assertNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c").etag);
+        assertEquals(1, cache.size());
+
+        /* The dropped entries stay dropped */
+        cache = new LogStructuredCache(mDirectory, 8192, SEGMENT_SIZE);
+        cache.initialize();
+        assertEquals(1, cache.size());
+        assertNull(cache.get("a"));
+    }
+
+    private static int indexOf(byte[] bytes, byte[] pattern, int from) {
+        for (int i = from; i <= bytes.length - pattern.length; i++) {
+            int j = 0;
+            while (j < pattern.length && bytes[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Cache.Entry entry(String data, String etag) {
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = data.getBytes();
+        entry.etag = etag;
+        entry.ttl = 1000L * Integer.parseInt(etag);
+        entry.responseHeaders = new HashMap<String, String>();
+        entry.responseHeaders.put("ETag", etag);
+        return entry;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author Konstantin Tarasenko
+ */
+public class ObjectCacheTest {
+
+    private final ObjectCache mCache = new ObjectCache(400);
+
+    @Test
+    public void testVersion() {
+        Object value = new Object();
+        mCache.put("a", "v1", value, 10);
+
+        assertSame(value, mCache.get("a", "v1"));
+        assertNull(mCache.get("a", "v2"));
+        assertNull(mCache.get("b", "v1"));
+        assertEquals(1, mCache.getHits());
+        assertEquals(2, mCache.getMisses());
+
+        /* A new version replaces the old object */
+        mCache.put("a", "v2", value, 20);
+        assertNull(mCache.get("a", "v1"));
+        assertEquals(20, mCache.getSize());
+    }
+
+    @Test
+    public void testEviction() {
+        mCache.put("a", "v", new Object(), 100);
+        mCache.put("b", "v", new Object(), 100);
+        mCache.put("c", "v", new Object(), 100);
+        mCache.put("big", "v", new Object(), 101);
+        mCache.get("a", "v");
+        mCache.put("d", "v", new Object(), 100);
+        mCache.put("e", "v", new Object(), 100);
+
+        /* "b" was the least recently used one, the big object wasn't cached at all */
+        assertNull(mCache.get("b", "v"));
+        assertNull(mCache.get("big", "v"));
+        assertEquals(400, mCache.getSize());
+    }
+}
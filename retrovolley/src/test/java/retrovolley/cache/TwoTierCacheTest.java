@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.cache;
+
+import com.android.volley.Cache;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author Konstantin Tarasenko
+ */
+public class TwoTierCacheTest {
+
+    private final MapCache mDisk = new MapCache();
+    private final TwoTierCache mCache = new TwoTierCache(mDisk, 4096);
+
+    @Test
+    public void testPromotion() {
+        Cache.Entry entry = entry(100);
+        mDisk.put("a", entry);
+
+        assertSame(entry, mCache.get("a"));
+        assertSame(entry, mCache.get("a"));
+        assertNull(mCache.get("b"));
+
+        assertEquals(1, mCache.getMemoryHits());
+        assertEquals(2, mCache.getMemoryMisses());
+        assertEquals(1, mCache.getSecondTierHits());
+        assertEquals(1, mCache.getSecondTierMisses());
+        assertEquals(2, mDisk.reads);
+    }
+
+    @Test
+    public void testEviction() {
+        mCache.put("a", entry(900));
+        mCache.put("b", entry(900));
+        mCache.put("c", entry(900));
+        mCache.put("big", entry(2000));
+        mCache.get("a");
+        mCache.put("d", entry(900));
+        mCache.put("e", entry(900));
+
+        /* "b" was evicted, "big" never made it to memory */
+        mDisk.reads = 0;
+        mCache.get("a");
+        mCache.get("d");
+        mCache.get("e");
+        assertEquals(0, mDisk.reads);
+        mCache.get("b");
+        mCache.get("big");
+        assertEquals(2, mDisk.reads);
+        assertEquals(6, mDisk.entries.size());
+    }
+
+    private static Cache.Entry entry(int size) {
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = new byte[size];
+        entry.responseHeaders = new HashMap<String, String>();
+        return entry;
+    }
+
+    private static class MapCache implements Cache {
+
+        final Map<String, Entry> entries = new HashMap<String, Entry>();
+        int reads;
+
+        @Override
+        public Entry get(String key) {
+            reads++;
+            return entries.get(key);
+        }
+
+        @Override
+        public void put(String key, Entry entry) {
+            entries.put(key, entry);
+        }
+
+        @Override
+        public void initialize() {
+        }
+
+        @Override
+        public void invalidate(String key, boolean fullExpire) {
+        }
+
+        @Override
+        public void remove(String key) {
+            entries.remove(key);
+        }
+
+        @Override
+        public void clear() {
+            entries.clear();
+        }
+    }
+}
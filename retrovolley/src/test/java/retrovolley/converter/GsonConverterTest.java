@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.converter;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Serghei Lotutovici
+ */
+public class GsonConverterTest {
+
+    private final GsonConverter mConverter = new GsonConverter();
+
+    @Test
+    public void testIncrementalArray() throws Exception {
+        assertEquals(3, parse("[{\"id\":1},{\"id\":2},{\"id\":3}]").size());
+    }
+
+    @Test
+    public void testIncrementalNewlineDelimited() throws Exception {
+        List<Item> items = parse("{\"id\":1}\n{\"id\":2}\n");
+
+        assertEquals(2, items.size());
+        assertEquals(2, items.get(1).id);
+    }
+
+    @Test
+    public void testProjection() throws Exception {
+        String body = "{\"meta\":{\"items\":[{\"id\":0}]},\"data\":{\"items\":[{\"id\":1},{\"id\":2}]}}";
+
+        Item item = (Item) mConverter.fromStream(new ByteArrayInputStream(body.getBytes("UTF-8")), "UTF-8",
+                Item.class, new String[]{"data", "items", "1"});
+        assertEquals(2, item.id);
+
+        assertNull(mConverter.fromStream(new ByteArrayInputStream(body.getBytes("UTF-8")), "UTF-8",
+                Item.class, new String[]{"data", "items", "2"}));
+    }
+
+    private List<Item> parse(String body) throws Exception {
+        final List<Item> items = new ArrayList<Item>();
+        mConverter.fromStream(new ByteArrayInputStream(body.getBytes("UTF-8")), "UTF-8", Item.class,
+                new IncrementalConverter.ItemCallback() {
+                    @Override
+                    public void onItem(Object item) throws IOException {
+                        items.add((Item) item);
+                    }
+                });
+        return items;
+    }
+
+    static class Item {
+        int id;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.httpstack;
+
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.Request;
+import com.android.volley.toolbox.StringRequest;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Konstantin Tarasenko
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class NioRetroStackTest {
+
+    private static final int CONCURRENT_REQUESTS = 40;
+
+    private ServerSocket mServer;
+    private final AtomicInteger mAcceptedConnections = new AtomicInteger();
+    private final CountDownLatch mAllArrived = new CountDownLatch(CONCURRENT_REQUESTS);
+    private NioRetroStack mStack;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new ServerSocket(0, 100, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!mServer.isClosed()) {
+                    try {
+                        final Socket socket = mServer.accept();
+                        mAcceptedConnections.incrementAndGet();
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }).start();
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        mStack = new NioRetroStack.Builder().build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mStack.shutdown();
+        mServer.close();
+    }
+
+    @Test
+    public void testRequestsInFlightAtTheSameTime() throws Exception {
+        /* The server answers once all requests arrived, they can't be sent one after the other */
+        List<RecordingCallback> callbacks = new ArrayList<RecordingCallback>();
+        for (int i = 0; i < CONCURRENT_REQUESTS; i++) {
+            RecordingCallback callback = new RecordingCallback();
+            mStack.performRequest(newRequest(Request.Method.GET, "/hold/" + i), new HashMap<String, String>(), callback);
+            callbacks.add(callback);
+        }
+
+        for (int i = 0; i < CONCURRENT_REQUESTS; i++) {
+            HttpResponse response = callbacks.get(i).await();
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            assertEquals("/hold/" + i, EntityUtils.toString(response.getEntity()));
+        }
+        assertEquals(CONCURRENT_REQUESTS, mAcceptedConnections.get());
+    }
+
+    @Test
+    public void testConnectionIsReused() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            RecordingCallback callback = new RecordingCallback();
+            mStack.performRequest(newRequest(Request.Method.GET, "/"), new HashMap<String, String>(), callback);
+            assertEquals("ok", EntityUtils.toString(callback.await().getEntity()));
+        }
+
+        assertEquals(1, mAcceptedConnections.get());
+
+        ConnectionStats stats = mStack.getStats();
+        assertEquals(3, stats.getLeasedConnections());
+        assertEquals(1, stats.getOpenedConnections());
+        assertEquals(2, stats.getReusedConnections());
+    }
+
+    @Test
+    public void testBodySentAndChunkedResponseRead() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        mStack.performRequest(new StringRequest(Request.Method.POST, url("/echo"), null, null) {
+            @Override
+            public byte[] getBody() {
+                return "hello".getBytes();
+            }
+        }, new HashMap<String, String>(), callback);
+
+        HttpResponse response = callback.await();
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        assertEquals("echo: hello", EntityUtils.toString(response.getEntity()));
+    }
+
+    @Test
+    public void testReadTimeout() throws Exception {
+        Request<String> request = newRequest(Request.Method.GET, "/never");
+        request.setRetryPolicy(new DefaultRetryPolicy(200, 0, 1));
+
+        RecordingCallback callback = new RecordingCallback();
+        mStack.performRequest(request, new HashMap<String, String>(), callback);
+
+        assertTrue(callback.awaitError() instanceof SocketTimeoutException);
+    }
+
+    private Request<String> newRequest(int method, String path) {
+        return new StringRequest(method, url(path), null, null);
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + mServer.getLocalPort() + path;
+    }
+
+    /**
+     * Answer every request on the connection until the client closes it
+     */
+    private void serve(Socket socket) {
+        try {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            String requestLine;
+            while ((requestLine = readLine(in)) != null) {
+                int contentLength = 0;
+                String line;
+                while ((line = readLine(in)) != null && line.length() > 0) {
+                    if (line.toLowerCase().startsWith("content-length:")) {
+                        contentLength = Integer.parseInt(line.substring(15).trim());
+                    }
+                }
+                byte[] body = new byte[contentLength];
+                new DataInputStream(in).readFully(body);
+
+                String path = requestLine.split(" ")[1];
+                if (path.startsWith("/hold/")) {
+                    mAllArrived.countDown();
+                    mAllArrived.await(10, TimeUnit.SECONDS);
+                    out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + path.length() + "\r\n\r\n" + path)
+                            .getBytes("US-ASCII"));
+                } else if (path.equals("/echo")) {
+                    out.write(("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n6\r\necho: \r\n"
+                            + Integer.toHexString(body.length) + "\r\n" + new String(body, "US-ASCII")
+                            + "\r\n0\r\n\r\n").getBytes("US-ASCII"));
+                } else if (!path.equals("/never")) {
+                    out.write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes("US-ASCII"));
+                }
+                out.flush();
+            }
+            socket.close();
+        } catch (Exception ignored) {
+            // The client closed the connection
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return c == -1 && line.length() == 0 ? null : line.toString();
+    }
+
+    /**
+     * Waits for the outcome of a request
+     */
+    private static class RecordingCallback implements AsyncRetroStack.Callback {
+
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile HttpResponse mResponse;
+        private volatile IOException mError;
+
+        @Override
+        public void onResponse(HttpResponse response) {
+            mResponse = response;
+            mDone.countDown();
+        }
+
+        @Override
+        public void onError(IOException error) {
+            mError = error;
+            mDone.countDown();
+        }
+
+        HttpResponse await() throws Exception {
+            assertTrue(mDone.await(10, TimeUnit.SECONDS));
+            if (mError != null) {
+                throw mError;
+            }
+            return mResponse;
+        }
+
+        IOException awaitError() throws Exception {
+            assertTrue(mDone.await(10, TimeUnit.SECONDS));
+            assertNotNull(mError);
+            return mError;
+        }
+    }
+}
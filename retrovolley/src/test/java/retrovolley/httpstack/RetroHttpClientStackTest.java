@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.httpstack;
+
+import com.android.volley.Request;
+import com.android.volley.toolbox.StringRequest;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Konstantin Tarasenko
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class RetroHttpClientStackTest {
+
+    private ServerSocket mServer;
+    private final AtomicInteger mAcceptedConnections = new AtomicInteger();
+    private RetroHttpClientStack mStack;
+
+    @Before
+    public void setUp() throws IOException {
+        Robolectric.getFakeHttpLayer().interceptHttpRequests(false);
+
+        mServer = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!mServer.isClosed()) {
+                    try {
+                        final Socket socket = mServer.accept();
+                        mAcceptedConnections.incrementAndGet();
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }).start();
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        mStack = new RetroHttpClientStack.Builder().build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mStack.shutdown();
+        mServer.close();
+    }
+
+    @Test
+    public void testConnectionIsReused() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            HttpResponse response = mStack.performRequest(newRequest(), new HashMap<String, String>());
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            assertEquals("ok", EntityUtils.toString(response.getEntity()));
+        }
+
+        assertEquals(1, mAcceptedConnections.get());
+
+        ConnectionStats stats = mStack.getStats();
+        assertEquals(3, stats.getLeasedConnections());
+        assertEquals(1, stats.getOpenedConnections());
+        assertEquals(2, stats.getReusedConnections());
+    }
+
+    @Test
+    public void testShutdownClosesPool() throws Exception {
+        HttpResponse response = mStack.performRequest(newRequest(), new HashMap<String, String>());
+        EntityUtils.toString(response.getEntity());
+
+        mStack.shutdown();
+        mStack = new RetroHttpClientStack.Builder().build();
+
+        response = mStack.performRequest(newRequest(), new HashMap<String, String>());
+        EntityUtils.toString(response.getEntity());
+
+        assertEquals(2, mAcceptedConnections.get());
+        assertEquals(1, mStack.getStats().getOpenedConnections());
+    }
+
+    private Request<String> newRequest() {
+        return new StringRequest(Request.Method.GET,
+                "http://127.0.0.1:" + mServer.getLocalPort() + "/", null, null);
+    }
+
+    /**
+     * Answer every request on the connection until the client closes it
+     */
+    private static void serve(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            OutputStream out = socket.getOutputStream();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0) {
+                    out.write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\nKeep-Alive: timeout=30\r\n\r\nok"
+                            .getBytes("US-ASCII"));
+                    out.flush();
+                }
+            }
+            socket.close();
+        } catch (IOException ignored) {
+            // The client closed the connection
+        }
+    }
+}
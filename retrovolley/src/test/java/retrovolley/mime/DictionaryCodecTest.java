@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.mime;
+
+import com.android.volley.toolbox.ByteArrayPool;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Serghei Lotutovici
+ */
+public class DictionaryCodecTest {
+
+    private static final String DICTIONARY =
+            "{\"id\":,\"type\":\"event\",\"name\":\"screen_view\",\"timestamp\":\"session\":\"user\":}";
+
+    private static final String BODY =
+            "{\"id\":42,\"type\":\"event\",\"name\":\"screen_view\",\"timestamp\":1431700000,\"session\":7,\"user\":3}";
+
+    private final ByteArrayPool mPool = new ByteArrayPool(4096);
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        DictionaryCodec codec = new DictionaryCodec("1", DICTIONARY.getBytes("UTF-8"));
+        byte[] plain = BODY.getBytes("UTF-8");
+
+        EncodedTypedOutput encoded = codec.encode(new TypedByteArray(null, plain), mPool);
+        assertEquals(DictionaryCodec.CONTENT_ENCODING, encoded.contentEncoding());
+
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        encoded.writeTo(wire);
+
+        /* Stand-in for the server, decoding with the same dictionary */
+        InputStream decoded = codec.decode(new ByteArrayInputStream(wire.toByteArray()));
+        assertEquals(BODY, readAll(decoded));
+        decoded.close();
+    }
+
+    @Test
+    public void testBeatsGzipOnSmallDocuments() throws Exception {
+        DictionaryCodec codec = new DictionaryCodec("1", DICTIONARY.getBytes("UTF-8"));
+        TypedByteArray body = new TypedByteArray(null, BODY.getBytes("UTF-8"));
+
+        long dictionarySize = codec.encode(body, mPool).length();
+        long gzipSize = new GzipTypedOutput(body, mPool).length();
+
+        assertTrue("dictionary: " + dictionarySize + ", gzip: " + gzipSize, dictionarySize * 2 < gzipSize);
+    }
+
+    private static String readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toString("UTF-8");
+    }
+}
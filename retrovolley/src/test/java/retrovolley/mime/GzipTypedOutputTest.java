@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.mime;
+
+import com.android.volley.toolbox.ByteArrayPool;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Serghei Lotutovici
+ */
+public class GzipTypedOutputTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 200; i++) {
+            json.append("{\"event\":\"screen_view\",\"index\":").append(i).append("},");
+        }
+        json.append("{}]");
+        byte[] plain = json.toString().getBytes("UTF-8");
+
+        GzipTypedOutput body = new GzipTypedOutput(new TypedByteArray("application/json", plain), new ByteArrayPool(4096));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+
+        assertEquals("application/json", body.mimeType());
+        assertEquals(out.size(), body.length());
+        assertTrue(body.length() < plain.length / 4);
+
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()));
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        byte[] buffer = new byte[512];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            decoded.write(buffer, 0, count);
+        }
+        assertEquals(json.toString(), decoded.toString("UTF-8"));
+    }
+}
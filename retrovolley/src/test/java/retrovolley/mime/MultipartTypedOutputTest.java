@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.mime;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Serghei Lotutovici
+ */
+public class MultipartTypedOutputTest {
+
+    @Test
+    public void testWriteParts() throws Exception {
+        File file = File.createTempFile("avatar", ".png");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[]{1, 2, 3});
+        out.close();
+
+        MultipartTypedOutput multipart = new MultipartTypedOutput("b0undary")
+                .addField("na\"me", "serj")
+                .addPart("avatar", new TypedFile("image/png", file));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        multipart.writeTo(bytes);
+
+        assertEquals("multipart/form-data; boundary=b0undary", multipart.mimeType());
+        assertEquals(bytes.size(), multipart.length());
+        assertEquals("--b0undary\r\n"
+                + "Content-Disposition: form-data; name=\"na%22me\"\r\n"
+                + "Content-Type: text/plain; charset=UTF-8\r\n\r\n"
+                + "serj\r\n"
+                + "--b0undary\r\n"
+                + "Content-Disposition: form-data; name=\"avatar\"; filename=\"" + file.getName() + "\"\r\n"
+                + "Content-Type: image/png\r\n\r\n"
+                + "\u0001\u0002\u0003\r\n"
+                + "--b0undary--\r\n", bytes.toString("UTF-8"));
+        file.delete();
+    }
+
+    @Test
+    public void testUnknownLength() throws Exception {
+        MultipartTypedOutput multipart = new MultipartTypedOutput()
+                .addPart("stream", new TypedInputStream(null, new ByteArrayInputStream(new byte[16])));
+
+        assertEquals(-1, multipart.length());
+    }
+
+    @Test
+    public void testRepeatableOnlyWithoutStreamParts() throws Exception {
+        MultipartTypedOutput multipart = new MultipartTypedOutput()
+                .addField("name", "serj");
+        assertTrue(multipart.isRepeatable());
+
+        multipart.addPart("stream", new TypedInputStream(null, new ByteArrayInputStream(new byte[16])));
+        assertFalse(multipart.isRepeatable());
+    }
+}
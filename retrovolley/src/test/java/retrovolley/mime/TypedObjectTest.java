@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.mime;
+
+import com.android.volley.toolbox.ByteArrayPool;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+
+import retrovolley.converter.GsonConverter;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Serghei Lotutovici
+ */
+public class TypedObjectTest {
+
+    @Test
+    public void testWriteTo() throws Exception {
+        TypedObject body = new TypedObject(Collections.singletonMap("name", "café"),
+                new GsonConverter(), "UTF-8", new ByteArrayPool(4096));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+
+        assertEquals("{\"name\":\"café\"}", out.toString("UTF-8"));
+        assertEquals(out.size(), body.length());
+    }
+
+    @Test
+    public void testWriteAfterRelease() throws Exception {
+        TypedObject body = new TypedObject(Collections.singletonMap("id", 1),
+                new GsonConverter(), "UTF-8", new ByteArrayPool(4096));
+
+        long length = body.length();
+        body.release();
+
+        /* The object is serialized again on demand */
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        assertEquals(length, out.size());
+    }
+}
@@ -0,0 +1,13 @@
+// Generated code from RetroVolley. Do not modify!
+package retrovolley.request;
+
+/**
+ * Rest call table for {@link retrovolley.request.GeneratedCalls}
+ */
+public final class GeneratedCalls$$RestCalls extends retrovolley.request.RestCallTable {
+
+    public GeneratedCalls$$RestCalls() {
+        add("REPO", retrovolley.request.RequestMethod.GET.method, "/users/{user}/repos/{repo}", new String[]{"user", "repo"}, "registry-test", java.lang.Integer.class, false, false, -1, null, -1L, -1L);
+        add("FEED", retrovolley.request.RequestMethod.GET.method, "/feed", new String[]{}, "registry-test", java.lang.String.class, false, false, 3, "/data", 60000L, 600000L);
+    }
+}
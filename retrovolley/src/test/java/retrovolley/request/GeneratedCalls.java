@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.request;
+
+import retrovolley.rest.RestCall;
+
+/**
+ * Rest calls described by a table in the format of the retrovolley-compiler annotation processor.
+ * The constants have no annotations, so their values can only come from the table.
+ *
+ * @author Serghei Lotutovici
+ */
+enum GeneratedCalls implements RestCall {
+    REPO,
+    FEED
+}
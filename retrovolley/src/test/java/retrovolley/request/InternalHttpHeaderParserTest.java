@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.request;
+
+import com.android.volley.Cache;
+import com.android.volley.NetworkResponse;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Serghei Lotutovici
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class InternalHttpHeaderParserTest {
+
+    @Test
+    public void testStaleWhileRevalidate() {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Cache-Control", "max-age=10, stale-while-revalidate=120, stale-if-error=60");
+
+        Cache.Entry entry = InternalHttpHeaderParser.parseIgnoreCacheHeaders(
+                new NetworkResponse(200, new byte[0], headers, false), 1000, 5000);
+
+        assertEquals(120000, entry.ttl - entry.softTtl);
+        assertFalse(InternalHttpHeaderParser.isStale(new NetworkResponse(entry.data, entry.responseHeaders)));
+        assertFalse(InternalHttpHeaderParser.isStale(new NetworkResponse(200, new byte[0], headers, false)));
+
+        entry.ttl = System.currentTimeMillis() - 30000;
+        assertTrue(InternalHttpHeaderParser.isUsableOnError(entry));
+        entry.ttl = System.currentTimeMillis() - 90000;
+        assertFalse(InternalHttpHeaderParser.isUsableOnError(entry));
+    }
+
+    @Test
+    public void testSoftExpired() {
+        Cache.Entry entry = InternalHttpHeaderParser.parseIgnoreCacheHeaders(
+                new NetworkResponse(200, new byte[0], new HashMap<String, String>(), false), 0, 5000);
+
+        assertTrue(InternalHttpHeaderParser.isStale(new NetworkResponse(entry.data, entry.responseHeaders)));
+        assertFalse(InternalHttpHeaderParser.isUsableOnError(entry));
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.request;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import retrovolley.EndpointAdapter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Konstantin Tarasenko
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class LazyResponseTest {
+
+    @Test
+    public void testLazyParsing() throws Exception {
+        EndpointAdapter adapter = new EndpointAdapter.Builder().setEndpoint("http://localhost").build();
+        byte[] body = "{\"data\":{\"id\":7,\"name\":\"seven\"}}".getBytes("UTF-8");
+
+        LazyResponse<Item> response = new LazyResponse<Item>(body, "UTF-8", Item.class, adapter, new String[]{"data"});
+        assertEquals("seven", response.<String>get("/name", String.class));
+        assertFalse(response.isParsed());
+
+        Item item = response.get();
+        assertTrue(response.isParsed());
+        assertEquals(7, item.id);
+        assertSame(item, response.get());
+    }
+
+    static class Item {
+        int id;
+        String name;
+    }
+}
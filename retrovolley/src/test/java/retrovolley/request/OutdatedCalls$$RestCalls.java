@@ -0,0 +1,12 @@
+// Generated code from RetroVolley. Do not modify!
+package retrovolley.request;
+
+/**
+ * Rest call table for {@link retrovolley.request.OutdatedCalls}
+ */
+public final class OutdatedCalls$$RestCalls extends retrovolley.request.RestCallTable {
+
+    public OutdatedCalls$$RestCalls() {
+        add("REPO", retrovolley.request.RequestMethod.GET.method, "/users/{user}/repos/{repo}", new String[]{"user", "repo"}, "registry-test", java.lang.Integer.class, false, false, -1, null, -1L, -1L);
+    }
+}
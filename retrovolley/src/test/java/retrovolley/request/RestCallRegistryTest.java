@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.request;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import retrovolley.EndpointAdapter;
+import retrovolley.RetroVolley;
+import retrovolley.annotation.CacheTtl;
+import retrovolley.annotation.Endpoint;
+import retrovolley.annotation.GET;
+import retrovolley.annotation.JsonPointer;
+import retrovolley.annotation.POST;
+import retrovolley.annotation.Response;
+import retrovolley.rest.RestCall;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Serghei Lotutovici
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(
+        manifest = Config.NONE,
+        shadows = {retrovolley.shadows.ShadowSystemClock.class}
+)
+public class RestCallRegistryTest {
+
+    private static final String ENDPOINT = "registry-test";
+
+    enum ValidCalls implements RestCall {
+        @GET("/users/{user}/repos/{repo}")
+        @Endpoint(ENDPOINT)
+        @Response(Integer.class)
+        REPO,
+
+        @POST("/users")
+        @Endpoint(ENDPOINT)
+        USERS,
+
+        @GET("/feed")
+        @Endpoint(ENDPOINT)
+        @Response(Integer.class)
+        @JsonPointer("/data/a~1b~0")
+        @CacheTtl(soft = 60000, hard = 600000)
+        FEED
+    }
+
+    enum InvalidCalls implements RestCall {
+        @GET("/first")
+        @POST("/second")
+        @Endpoint(ENDPOINT)
+        TWO_METHODS
+    }
+
+    enum UnknownEndpointCalls implements RestCall {
+        @GET("/")
+        @Endpoint("unknown")
+        ROOT
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        RetroVolley.supportEndpoint(ENDPOINT, new EndpointAdapter.Builder()
+                .setEndpoint("http://localhost")
+                .build());
+    }
+
+    @Test
+    public void testParsedOnce() {
+        RestCallInfo first = RestCallRegistry.get(ValidCalls.REPO);
+        RestCallInfo second = RestCallRegistry.get(ValidCalls.REPO);
+
+        assertSame(first, second);
+        assertEquals("/users/{user}/repos/{repo}", first.getPath());
+        assertEquals(Integer.class, first.getResponseType());
+        assertTrue(first.getRestParams().contains("user"));
+        assertTrue(first.getRestParams().contains("repo"));
+    }
+
+    @Test
+    public void testPreloadKeepsPublishedInstances() {
+        RestCallInfo before = RestCallRegistry.get(ValidCalls.USERS);
+        RetroVolley.preloadRestCalls(ValidCalls.class);
+
+        assertSame(before, RestCallRegistry.get(ValidCalls.USERS));
+        assertEquals(String.class, RestCallRegistry.get(ValidCalls.USERS).getResponseType());
+    }
+
+    @Test
+    public void testJsonPointer() {
+        assertArrayEquals(new String[]{"data", "a/b~"}, RestCallRegistry.get(ValidCalls.FEED).getJsonPointer());
+        assertNull(RestCallRegistry.get(ValidCalls.REPO).getJsonPointer());
+    }
+
+    @Test
+    public void testCacheTtl() {
+        assertEquals(60000, RestCallRegistry.get(ValidCalls.FEED).getSoftTtl());
+        assertEquals(600000, RestCallRegistry.get(ValidCalls.FEED).getHardTtl());
+        assertEquals(-1, RestCallRegistry.get(ValidCalls.REPO).getSoftTtl());
+    }
+
+    @Test
+    public void testGeneratedTableUsed() {
+        RestCallInfo repo = RestCallRegistry.get(GeneratedCalls.REPO);
+
+        assertSame(repo, RestCallRegistry.get(GeneratedCalls.REPO));
+        assertEquals("/users/{user}/repos/{repo}", repo.getPath());
+        assertEquals(Integer.class, repo.getResponseType());
+        assertEquals(ENDPOINT, repo.getEndpointName());
+        assertTrue(repo.getRestParams().contains("repo"));
+
+        RestCallInfo feed = RestCallRegistry.get(GeneratedCalls.FEED);
+        assertArrayEquals(new String[]{"data"}, feed.getJsonPointer());
+        assertEquals(3, feed.getMaxNumRetries());
+        assertEquals(60000, feed.getSoftTtl());
+        assertEquals(600000, feed.getHardTtl());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPreloadFailsOnOutdatedTable() {
+        RetroVolley.preloadRestCalls(OutdatedCalls.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPreloadFailsOnInvalidCall() {
+        RetroVolley.preloadRestCalls(ValidCalls.class, InvalidCalls.class);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPreloadFailsOnUnknownEndpoint() {
+        RetroVolley.preloadRestCalls(UnknownEndpointCalls.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPreloadFailsOnNonRestCallEnum() {
+        RetroVolley.preloadRestCalls(ValidCalls.class, Thread.State.class);
+    }
+}
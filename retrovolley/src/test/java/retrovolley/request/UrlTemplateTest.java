@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2015 Serghei (Serj) Lotutovici
+ * Copyright (C) 2015 Konstantin Tarasenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package retrovolley.request;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author Serghei Lotutovici
+ */
+public class UrlTemplateTest {
+
+    @Test
+    public void testExpandRepeatedParams() {
+        UrlTemplate template = UrlTemplate.parse("/users/{user}/repos/{repo}/compare/{user}...{base}");
+
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("user", "serj");
+        values.put("repo", "retrovolley");
+        values.put("base", "master");
+
+        StringBuilder builder = new StringBuilder();
+        template.expand(builder, values);
+
+        assertEquals("/users/serj/repos/retrovolley/compare/serj...master", builder.toString());
+        assertEquals(builder.length(), template.length(values));
+    }
+
+    @Test
+    public void testExpandWithoutParams() {
+        StringBuilder builder = new StringBuilder("http://localhost");
+        UrlTemplate.parse("/").expand(builder, new HashMap<String, String>());
+
+        assertEquals("http://localhost/", builder.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExpandMissingParam() {
+        UrlTemplate.parse("/users/{user}").expand(new StringBuilder(), new HashMap<String, String>());
+    }
+
+    @Test
+    public void testEncodePathSegment() {
+        String plain = "retro-volley_0.2~x";
+        assertSame(plain, UrlTemplate.encodePathSegment(plain));
+
+        assertEquals("a%20b%2Fc%3F", UrlTemplate.encodePathSegment("a b/c?"));
+        assertEquals("caf%C3%A9", UrlTemplate.encodePathSegment("café"));
+    }
+}